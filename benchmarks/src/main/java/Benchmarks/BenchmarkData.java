@@ -0,0 +1,75 @@
+package Benchmarks;
+
+import main.java.spatialtree.Record;
+import main.java.spatialtree.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates the files and the workloads shared by the benchmarks.
+ * The data and index files are created in the working directory, like everywhere else in the library,
+ * so the benchmarks should be run from a scratch directory.
+ */
+final class BenchmarkData {
+    static final int DIMENSIONS = 2;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates the data file with a synthetic dataset.
+     *
+     * @param count The number of records.
+     * @param distribution The distribution of the points of the records.
+     * @param seed The seed of the random generator, so that every run and every fork use the same records.
+     */
+    static void createDataFile(int count, SyntheticDataGenerator.Distribution distribution, long seed) {
+        List<Record> records = SyntheticDataGenerator.generate(count, DIMENSIONS, distribution, seed);
+        helper.CreateDataFile(records, DIMENSIONS, true);
+    }
+
+    /**
+     * Creates a new empty index file, dropping the tree built before.
+     */
+    static void createIndexFile() {
+        try {
+            helper.CreateIndexFile(DIMENSIONS, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns square query boxes of the given side, placed uniformly inside the unit square.
+     */
+    static ArrayList<BoundingBox> randomBoxes(Random random, double side, int count) {
+        ArrayList<BoundingBox> boxes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            ArrayList<Bounds> bounds = new ArrayList<>(DIMENSIONS);
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                double lower = random.nextDouble() * (1 - side);
+                bounds.add(new Bounds(lower, lower + side));
+            }
+            boxes.add(new BoundingBox(bounds));
+        }
+        return boxes;
+    }
+
+    static ArrayList<ArrayList<Double>> randomPoints(Random random, int count) {
+        ArrayList<ArrayList<Double>> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            ArrayList<Double> point = new ArrayList<>(DIMENSIONS);
+            for (int d = 0; d < DIMENSIONS; d++)
+                point.add(random.nextDouble());
+            points.add(point);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,81 @@
+package Benchmarks;
+
+import main.java.spatialtree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the construction of the trees over a synthetic two dimensional dataset, by inserting the records
+ * one at a time and by bulk loading them with every packing strategy, in memory and with the external sort.
+ * Every invocation starts from a new index file, so each one is timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ConstructionBenchmarks {
+    private static final int EXTERNAL_SORT_MEMORY = 10_000; // The leaf entries the external bulk load keeps in memory
+
+    /**
+     * The dataset, written to the data file once for every trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({"100000"})
+        public int records;
+
+        @Param({"UNIFORM", "CLUSTERED"})
+        public SyntheticDataGenerator.Distribution distribution;
+
+        @Param({"42"})
+        public long seed;
+
+        @Setup(Level.Trial)
+        public void createDataFile() {
+            BenchmarkData.createDataFile(records, distribution, seed);
+        }
+
+        @Setup(Level.Invocation)
+        public void createIndexFile() {
+            BenchmarkData.createIndexFile();
+        }
+    }
+
+    /**
+     * The packing strategy of the bulk loads.
+     */
+    @State(Scope.Benchmark)
+    public static class Packing {
+        @Param({"SORT_X", "STR", "HILBERT", "OMT"})
+        public BulkLoadingRStarTree.PackingStrategy packingStrategy;
+    }
+
+    /**
+     * The packing strategy of the external bulk loads, which only support the ones sorting the entries in a single order.
+     */
+    @State(Scope.Benchmark)
+    public static class ExternalPacking {
+        @Param({"SORT_X", "HILBERT"})
+        public BulkLoadingRStarTree.PackingStrategy packingStrategy;
+    }
+
+    @Benchmark
+    public int insert(Dataset dataset) {
+        new RStarTree(true);
+        return helper.getTotalBlocksInIndexFile();
+    }
+
+    @Benchmark
+    public int bulkLoad(Dataset dataset, Packing packing) {
+        new BulkLoadingRStarTree(true, packing.packingStrategy);
+        return helper.getTotalBlocksInIndexFile();
+    }
+
+    @Benchmark
+    public int externalBulkLoad(Dataset dataset, ExternalPacking packing) {
+        new BulkLoadingRStarTree(packing.packingStrategy, EXTERNAL_SORT_MEMORY);
+        return helper.getTotalBlocksInIndexFile();
+    }
+}
@@ -0,0 +1,160 @@
+package Benchmarks;
+
+import SequentialQueries.SequentialNearestNeighboursQuery;
+import SequentialQueries.SequentialScanBoundingBoxRangeQuery;
+import main.java.spatialtree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the range, nearest neighbours and skyline queries of an R*-tree built by insertion over a synthetic
+ * two dimensional dataset, against their sequential scan baselines, and the ways of turning a range result into records.
+ * Every invocation runs a whole workload of queries and the time is reported per query.
+ * The forks are started with the jdk.incubator.vector module, so that the sequential scans use the Vector API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class QueryBenchmarks {
+    private static final int QUERIES = 50; // The queries of each workload run on the tree
+    private static final int SEQUENTIAL_QUERIES = 5; // The sequential scans read the whole data file, so fewer of them are run
+
+    /**
+     * The dataset and the tree built on it by insertion, created once for every trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({"100000"})
+        public int records;
+
+        @Param({"UNIFORM", "CLUSTERED"})
+        public SyntheticDataGenerator.Distribution distribution;
+
+        @Param({"42"})
+        public long seed;
+
+        RStarTree rStarTree;
+
+        @Setup(Level.Trial)
+        public void buildTree() {
+            BenchmarkData.createDataFile(records, distribution, seed);
+            BenchmarkData.createIndexFile();
+            rStarTree = new RStarTree(true);
+        }
+    }
+
+    /**
+     * The query boxes of the range and skyline queries, covering the given fraction of the unit square.
+     */
+    @State(Scope.Benchmark)
+    public static class RangeWorkload {
+        @Param({"0.0001", "0.001", "0.01", "0.1"})
+        public double selectivity;
+
+        ArrayList<BoundingBox> queryBoxes;
+
+        @Setup(Level.Trial)
+        public void createQueryBoxes(Dataset dataset) {
+            queryBoxes = BenchmarkData.randomBoxes(new Random(dataset.seed), Math.sqrt(selectivity), QUERIES);
+        }
+    }
+
+    /**
+     * The query points of the nearest neighbours queries.
+     */
+    @State(Scope.Benchmark)
+    public static class NeighboursWorkload {
+        @Param({"1", "10", "100", "1000"})
+        public int k;
+
+        ArrayList<ArrayList<Double>> queryPoints;
+
+        @Setup(Level.Trial)
+        public void createQueryPoints(Dataset dataset) {
+            queryPoints = BenchmarkData.randomPoints(new Random(dataset.seed), QUERIES);
+        }
+    }
+
+    /**
+     * The result of a range query covering a tenth of the unit square, to be turned into records.
+     */
+    @State(Scope.Benchmark)
+    public static class RangeResult {
+        ArrayList<LeafEntry> leafEntries;
+
+        @Setup(Level.Trial)
+        public void runRangeQuery(Dataset dataset) {
+            BoundingBox queryBox = BenchmarkData.randomBoxes(new Random(dataset.seed), Math.sqrt(0.1), 1).get(0);
+            leafEntries = dataset.rStarTree.getDataInBoundingBox(queryBox);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int range(Dataset dataset, RangeWorkload workload) {
+        int found = 0;
+        for (BoundingBox queryBox : workload.queryBoxes)
+            found += dataset.rStarTree.getDataInBoundingBox(queryBox).size();
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENTIAL_QUERIES)
+    public int sequentialRange(Dataset dataset, RangeWorkload workload) {
+        int found = 0;
+        for (BoundingBox queryBox : workload.queryBoxes.subList(0, SEQUENTIAL_QUERIES))
+            found += new SequentialScanBoundingBoxRangeQuery(queryBox).getQueryRecords().size();
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int nearestNeighbours(Dataset dataset, NeighboursWorkload workload) {
+        int found = 0;
+        for (ArrayList<Double> queryPoint : workload.queryPoints)
+            found += dataset.rStarTree.getNearestNeighbours(queryPoint, workload.k).size();
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENTIAL_QUERIES)
+    public int sequentialNearestNeighbours(Dataset dataset, NeighboursWorkload workload) {
+        int found = 0;
+        for (ArrayList<Double> queryPoint : workload.queryPoints.subList(0, SEQUENTIAL_QUERIES))
+            found += new SequentialNearestNeighboursQuery(queryPoint, workload.k).getQueryRecords().size();
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int skyline(Dataset dataset, RangeWorkload workload) {
+        int found = 0;
+        for (BoundingBox queryBox : workload.queryBoxes)
+            found += dataset.rStarTree.getSkyline(queryBox).size();
+        return found;
+    }
+
+    @Benchmark
+    public int findRecords(RangeResult result) {
+        int found = 0;
+        for (LeafEntry leafEntry : result.leafEntries)
+            found += leafEntry.findRecord() != null ? 1 : 0;
+        return found;
+    }
+
+    @Benchmark
+    public int materializeSequential(RangeResult result) {
+        return new RecordMaterializer().materialize(result.leafEntries, RecordMaterializer.Order.RESULT).size();
+    }
+
+    @Benchmark
+    public int materializeParallel(RangeResult result) {
+        return new RecordMaterializer(ForkJoinPool.commonPool()).materialize(result.leafEntries, RecordMaterializer.Order.RESULT).size();
+    }
+}
@@ -0,0 +1,73 @@
+package Benchmarks;
+
+import main.java.spatialtree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the scans of the ColumnarCoordinateStore with the loops written with the Vector API against the scalar
+ * loops, over a synthetic two dimensional dataset. The forks are started with the jdk.incubator.vector module,
+ * which the vectorized loops need.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ScanBenchmarks {
+    private static final int QUERIES = 20;
+
+    /**
+     * The dataset and its columnar store, created once for every trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({"1000000"})
+        public int records;
+
+        @Param({"UNIFORM", "CLUSTERED"})
+        public SyntheticDataGenerator.Distribution distribution;
+
+        @Param({"42"})
+        public long seed;
+
+        @Param({"true", "false"})
+        public boolean vectorized;
+
+        ColumnarCoordinateStore store;
+        ArrayList<BoundingBox> queryBoxes;
+        ArrayList<double[]> queryPoints;
+
+        @Setup(Level.Trial)
+        public void createStore() {
+            BenchmarkData.createDataFile(records, distribution, seed);
+            store = helper.getColumnarCoordinateStore();
+            store.setVectorized(vectorized);
+            queryBoxes = BenchmarkData.randomBoxes(new Random(seed), Math.sqrt(0.001), QUERIES);
+            queryPoints = new ArrayList<>(QUERIES);
+            for (ArrayList<Double> point : BenchmarkData.randomPoints(new Random(seed), QUERIES))
+                queryPoints.add(point.stream().mapToDouble(Double::doubleValue).toArray());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int range(Dataset dataset) {
+        int found = 0;
+        for (BoundingBox queryBox : dataset.queryBoxes)
+            found += dataset.store.getDataInBoundingBox(queryBox).size();
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int nearestNeighbours(Dataset dataset) {
+        int found = 0;
+        for (double[] queryPoint : dataset.queryPoints)
+            found += dataset.store.getNearestNeighbours(queryPoint, 10).size();
+        return found;
+    }
+}
@@ -1,3 +1,4 @@
+import main.java.spatialtree.Record;
 import main.java.spatialtree.*;
 
 import java.io.FileWriter;
@@ -61,10 +62,9 @@ public class Program {
 
                             // Loop through records and write each to the file
                             int counter = 0;
-                            for (LeafEntry leafRecord : queryRecords1) {
+                            for (Record record : LeafEntry.findRecords(queryRecords1)) {
                                 counter++;
-                                // Assuming findRecord() returns a comma-separated string "id,name,lat,lon"
-                                csvWriter.append(counter + ". " + leafRecord.findRecord().toString());
+                                csvWriter.append(counter + ". " + record.toString());
                                 csvWriter.append("\n");  // New line after each record
                             }
                         } catch (IOException e) {
@@ -113,10 +113,9 @@ public class Program {
 
                             // Loop through records and write each to the file
                             int counter = 0;
-                            for (LeafEntry leafRecord : queryRecords2) {
+                            for (Record record : LeafEntry.findRecords(queryRecords2)) {
                                 counter++;
-                                // Assuming findRecord() returns a comma-separated string "id,name,lat,lon"
-                                csvWriter.append(counter + ". " + leafRecord.findRecord().toString());
+                                csvWriter.append(counter + ". " + record.toString());
                                 csvWriter.append("\n");  // New line after each record
                             }
                         } catch (IOException e) {
@@ -167,10 +166,9 @@ public class Program {
 
                             // Loop through records and write each to the file
                             int counter = 0;
-                            for (LeafEntry leafRecord : queryRecords3) {
+                            for (Record record : LeafEntry.findRecords(queryRecords3)) {
                                 counter++;
-                                // Assuming findRecord() returns a comma-separated string "id,name,lat,lon"
-                                csvWriter.append(counter + ". " + leafRecord.findRecord().toString());
+                                csvWriter.append(counter + ". " + record.toString());
                                 csvWriter.append("\n");  // New line after each record
                             }
                         } catch (IOException e) {
@@ -1,7 +1,8 @@
 package SequentialQueries;
 
-import main.java.spatialtree.Record;
-import main.java.spatialtree.*;
+import main.java.spatialtree.BoundingBox;
+import main.java.spatialtree.LeafEntry;
+import main.java.spatialtree.helper;
 
 import java.util.ArrayList;
 
@@ -29,39 +30,9 @@ public class SequentialScanBoundingBoxRangeQuery extends SequentialScanQuery{
     }
 
     /**
-     * Scans through all blocks of data sequentially, checking each record against the bounding box to determine if it qualifies.
+     * Scans the columnar copy of the data file, checking each record against the bounding box to determine if it qualifies.
      */
     private void search(){
-        int blockId = 1;
-        while(blockId < helper.getTotalBlocksInDatafile())
-        {
-            ArrayList<Record> recordsInBlock;
-            recordsInBlock = helper.readDataFile(blockId);
-            ArrayList<LeafEntry> entries = new ArrayList<>();
-
-            if (recordsInBlock != null)
-            {
-                for (Record record : recordsInBlock)
-                {
-                    ArrayList<Bounds> boundsForEachDimension = new ArrayList<>();
-                    // Since we have to do with points as records we set low and upper to be same
-                    for (int d = 0; d < helper.getDataDimensions(); d++)
-                        boundsForEachDimension.add(new Bounds(record.getCoordinate(d), record.getCoordinate(d)));
-
-                    entries.add(new LeafEntry(record.getId(), blockId, boundsForEachDimension));
-                }
-
-                for(Entry entry : entries)
-                {
-                    if(BoundingBox.checkOverlap(entry.getBoundingBox(), searchBoundingBox)){
-                        LeafEntry leafEntry = (LeafEntry) entry;
-                        qualifyingRecordIds.add(leafEntry);
-                    }
-                }
-            }
-            else
-                throw new IllegalStateException("Could not read records properly from the datafile");
-            blockId++;
-        }
+        qualifyingRecordIds.addAll(helper.getColumnarCoordinateStore().getDataInBoundingBox(searchBoundingBox));
     }
 }
@@ -75,10 +75,9 @@ public class KNN {
 
                 // Loop through records and write each to the file
                 int counter=0;
-                for (LeafEntry leafRecord : SequentialQueryRecords) {
+                for (Record record : LeafEntry.findRecords(SequentialQueryRecords)) {
                     counter++;
-                    // Assuming findRecord() returns a comma-separated string "id,name,lat,lon"
-                    csvWriter.append(counter + ". " + leafRecord.findRecord().toString());
+                    csvWriter.append(counter + ". " + record.toString());
                     csvWriter.append("\n");  // New line after each record
                 }
             } catch (IOException e) {
@@ -58,10 +58,9 @@ public class RecordDeletionBulk {
 
             // Loop through records and write each to the file
             int counter=0;
-            for (LeafEntry leafRecord : queryRecords) {
+            for (Record record : LeafEntry.findRecords(queryRecords)) {
                 counter++;
-                // Assuming findRecord() returns a comma-separated string "id,name,lat,lon"
-                csvWriter.append(counter + ". " + leafRecord.findRecordWithoutBlockId().toString());
+                csvWriter.append(counter + ". " + record.toString());
                 csvWriter.append("\n");  // New line after each record
             }
         } catch (IOException e) {
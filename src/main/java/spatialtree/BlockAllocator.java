@@ -0,0 +1,50 @@
+package main.java.spatialtree;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the blocks of a file that were released and can be written again, e.g. the blocks of the
+ * nodes eliminated by a deletion, so that new blocks reuse them before the file is extended.
+ * The free blocks are kept in a bitmap in memory; the blocks released before the file was last opened
+ * are not known to it and are only reclaimed by compacting the file.
+ */
+class BlockAllocator {
+    private final BitSet freeBlocks = new BitSet(); // Bit i is set when block i is free
+
+    /**
+     * Returns the block a new block is written to, the lowest free block if there is one,
+     * otherwise the block right after the end of the file.
+     *
+     * @param totalBlocks The current number of blocks of the file, metadata block included.
+     * @return The id of the block to write.
+     */
+    synchronized long allocate(int totalBlocks) {
+        int freeBlock = freeBlocks.nextSetBit(0);
+        if (freeBlock < 0 || freeBlock >= totalBlocks)
+            return totalBlocks;
+        freeBlocks.clear(freeBlock);
+        return freeBlock;
+    }
+
+    /**
+     * Marks a block as free, to be reused by a following allocation.
+     *
+     * @param blockId The id of the block that is no longer used.
+     */
+    synchronized void release(long blockId) {
+        if (blockId <= 0 || blockId > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Block " + blockId + " cannot be released");
+        freeBlocks.set((int) blockId);
+    }
+
+    synchronized int getFreeBlocks() {
+        return freeBlocks.cardinality();
+    }
+
+    /**
+     * Forgets every free block, used when the file is recreated, reopened or compacted.
+     */
+    synchronized void clear() {
+        freeBlocks.clear();
+    }
+}
@@ -0,0 +1,210 @@
+package main.java.spatialtree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of fixed size blocks (the datafile or the index file) accessed through a single long-lived channel.
+ * Blocks are read and written with positional operations, so the channel is opened once, shared by every
+ * caller and never moved, instead of opening a new stream for every block.
+ * When the written blocks are forced to the storage device is decided by the ForcePolicy of the store.
+ */
+public class BlockStore implements Closeable {
+
+    /**
+     * When the blocks written to a store are forced to the storage device.
+     */
+    public enum ForcePolicy {
+        NEVER, // Left to the operating system
+        ON_FLUSH, // Whenever the store is flushed, e.g. by helper.flushIndexFile or at the end of a bulk load
+        EVERY_WRITE // After every block written
+    }
+
+    private final String pathToFile;
+    private final int blockSize;
+    private volatile ForcePolicy forcePolicy;
+    private FileChannel channel; // Opened on the first access of the file
+    private volatile boolean unforcedWrites; // Whether blocks were written since the last force
+
+    BlockStore(String pathToFile, int blockSize, ForcePolicy forcePolicy) {
+        this.pathToFile = pathToFile;
+        this.blockSize = blockSize;
+        this.forcePolicy = forcePolicy;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return channel;
+    }
+
+    /**
+     * Reads a whole block of the file.
+     *
+     * @param blockId The id of the block to read.
+     * @return A new array of blockSize bytes.
+     * @throws IOException if the block cannot be read completely.
+     */
+    byte[] read(long blockId) throws IOException {
+        byte[] block = new byte[blockSize];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        FileChannel fileChannel = channel();
+        long position = blockId * blockSize;
+        while (buffer.hasRemaining())
+        {
+            int bytesRead = fileChannel.read(buffer, position);
+            if (bytesRead < 0)
+                throw new IOException("Block " + blockId + " is outside of " + pathToFile);
+            position += bytesRead;
+        }
+        return block;
+    }
+
+    /**
+     * Reads part of a block of the file.
+     *
+     * @param blockId The id of the block to read.
+     * @param offset The offset inside the block of the first byte read.
+     * @param length The number of bytes to read.
+     * @return A new array of length bytes.
+     * @throws IOException if the bytes cannot be read completely.
+     */
+    byte[] read(long blockId, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > blockSize)
+            throw new IllegalArgumentException("The read bytes must stay inside block " + blockId + " of " + pathToFile);
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        FileChannel fileChannel = channel();
+        long position = blockId * blockSize + offset;
+        while (buffer.hasRemaining())
+        {
+            int bytesRead = fileChannel.read(buffer, position);
+            if (bytesRead < 0)
+                throw new IOException("Block " + blockId + " is outside of " + pathToFile);
+            position += bytesRead;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a whole block of the file, extending the file if the block is past its end.
+     *
+     * @param blockId The id of the block to write.
+     * @param block The bytes of the block, exactly blockSize of them.
+     * @throws IOException if the block cannot be written.
+     */
+    void write(long blockId, byte[] block) throws IOException {
+        if (block.length != blockSize)
+            throw new IllegalArgumentException("A block of " + pathToFile + " must be " + blockSize + " bytes, not " + block.length);
+        write(blockId, 0, block);
+    }
+
+    /**
+     * Writes part of a block of the file, leaving the rest of the block as it is.
+     *
+     * @param blockId The id of the block to write.
+     * @param offset The offset inside the block where the bytes are written.
+     * @param bytes The bytes to write.
+     * @throws IOException if the bytes cannot be written.
+     */
+    void write(long blockId, int offset, byte[] bytes) throws IOException {
+        if (offset < 0 || offset + bytes.length > blockSize)
+            throw new IllegalArgumentException("The written bytes must stay inside block " + blockId + " of " + pathToFile);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        FileChannel fileChannel = channel();
+        long position = blockId * blockSize + offset;
+        while (buffer.hasRemaining())
+            position += fileChannel.write(buffer, position);
+
+        if (forcePolicy == ForcePolicy.EVERY_WRITE)
+            fileChannel.force(false);
+        else
+            unforcedWrites = true;
+    }
+
+    /**
+     * Forces the written blocks to the storage device, if the force policy asks for it on flushes.
+     *
+     * @throws IOException if the channel cannot be forced.
+     */
+    void flush() throws IOException {
+        if (forcePolicy == ForcePolicy.ON_FLUSH)
+            force();
+    }
+
+    /**
+     * Forces every block written so far to the storage device, regardless of the force policy.
+     *
+     * @throws IOException if the channel cannot be forced.
+     */
+    synchronized void force() throws IOException {
+        if (unforcedWrites && channel != null && channel.isOpen())
+            channel.force(false);
+        unforcedWrites = false;
+    }
+
+    /**
+     * Maps a region of the file into memory for reading. A single region holds at most Integer.MAX_VALUE bytes,
+     * so a larger file is mapped in several regions, see MappedBlockFile.
+     *
+     * @param position The position in the file of the first byte of the region.
+     * @param size The bytes of the region.
+     * @return The read-only mapped region of the file.
+     * @throws IOException if the file cannot be mapped.
+     */
+    MappedByteBuffer map(long position, int size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Returns the current size of the file in bytes.
+     *
+     * @throws IOException if the size cannot be read.
+     */
+    long size() throws IOException {
+        return channel().size();
+    }
+
+    boolean exists() {
+        return Files.exists(Paths.get(pathToFile));
+    }
+
+    /**
+     * Closes the channel and deletes the file, used before a new file is written in its place.
+     *
+     * @throws IOException if the file cannot be deleted.
+     */
+    synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(Paths.get(pathToFile));
+    }
+
+    public ForcePolicy getForcePolicy() {
+        return forcePolicy;
+    }
+
+    public void setForcePolicy(ForcePolicy forcePolicy) {
+        this.forcePolicy = forcePolicy;
+    }
+
+    /**
+     * Closes the channel of the file. The channel is opened again on the next access.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null)
+        {
+            if (forcePolicy != ForcePolicy.NEVER && unforcedWrites && channel.isOpen())
+                channel.force(false);
+            channel.close();
+        }
+        channel = null;
+        unforcedWrites = false;
+    }
+}
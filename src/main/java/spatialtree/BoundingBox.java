@@ -2,51 +2,150 @@ package main.java.spatialtree;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
 
 /**
  * Represents a bounding box in the n-dimensional space.
+ * The bounds are kept in a flat array of primitives, interleaving the lower and upper value of each dimension
+ * ([lower0, upper0, lower1, upper1, ...]). The static kernels of this class work directly on such arrays
+ * and never allocate, so they can be used in the hot loops of the tree and the queries.
  */
 public class BoundingBox implements Serializable {
-    private ArrayList<Bounds> bounds; // The bounds for each dimension
-    private Double area; // Area of the BoundingBox
-    private Double margin; // Perimeter of the BoundingBox
-    private ArrayList<Double> center; // Represents tHe coordinates of the center point of the bounding box
-
-    static final int dataDimensions=helper.dataDimensions;
+    private final double[] bounds; // The interleaved lower and upper values of each dimension
+    private final double area; // Area of the BoundingBox
+    private final double margin; // Perimeter of the BoundingBox
 
     /**
-     * Constructor for the BoundingBox which initializes the bounds and calculates the area, margin, and center.
+     * Constructor for the BoundingBox which initializes the bounds and calculates the area and margin.
      *
      * @param bounds ArrayList of Bounds defining the bounding box in each dimension.
      */
 
     public BoundingBox(ArrayList<Bounds> bounds) {
+        this(toArray(bounds));
+    }
+
+    /**
+     * Constructor for the BoundingBox from an array of interleaved lower and upper values.
+     * The array is used as is, without being copied.
+     *
+     * @param bounds The interleaved lower and upper values of each dimension.
+     */
+    BoundingBox(double[] bounds) {
         this.bounds = bounds;
-        this.area = calculateArea();
-        this.margin = calculateMargin();
-        this.center = getCenter();
+        this.area = area(bounds);
+        this.margin = margin(bounds);
     }
 
     /**
-     * Getter for bounds.
+     * Creates the bounding box of a single point, whose lower and upper values are the same.
+     *
+     * @param point The coordinates of the point.
+     * @return The degenerate bounding box of the point.
+     */
+    static BoundingBox ofPoint(double[] point) {
+        double[] bounds = new double[2 * point.length];
+        for (int d = 0; d < point.length; d++)
+        {
+            bounds[2 * d] = point[d];
+            bounds[2 * d + 1] = point[d];
+        }
+        return new BoundingBox(bounds);
+    }
+
+    /**
+     * Creates the minimum bounding box that encloses the bounding boxes of the given entries.
+     *
+     * @param entries The entries to enclose.
+     * @return The minimum bounding box of the entries.
+     */
+    static BoundingBox enclosing(List<Entry> entries) {
+        if (entries.isEmpty())
+            throw new IllegalArgumentException("Entries list cannot be empty");
+        double[] bounds = entries.get(0).getBoundingBox().bounds.clone();
+        for (int i = 1; i < entries.size(); i++)
+            include(bounds, entries.get(i).getBoundingBox().bounds);
+        return new BoundingBox(bounds);
+    }
+
+    /**
+     * Creates the minimum bounding box that encloses two bounding boxes.
+     *
+     * @param boundingBoxA The first bounding box to enclose.
+     * @param boundingBoxB The second bounding box to enclose.
+     * @return The minimum bounding box of the two.
+     */
+    static BoundingBox enclosing(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
+        double[] bounds = boundingBoxA.bounds.clone();
+        include(bounds, boundingBoxB.bounds);
+        return new BoundingBox(bounds);
+    }
+
+    private static double[] toArray(ArrayList<Bounds> bounds) {
+        double[] array = new double[2 * bounds.size()];
+        for (int d = 0; d < bounds.size(); d++)
+        {
+            array[2 * d] = bounds.get(d).getLower();
+            array[2 * d + 1] = bounds.get(d).getUpper();
+        }
+        return array;
+    }
+
+    /**
+     * Getter for bounds, creating a Bounds object for each dimension.
+     * Prefer getLower and getUpper, which do not allocate.
      *
      * @return ArrayList of Bounds defining the bounding box.
      */
     ArrayList<Bounds> getBounds() {
+        ArrayList<Bounds> boundsList = new ArrayList<>(getDimensions());
+        for (int d = 0; d < getDimensions(); d++)
+            boundsList.add(new Bounds(getLower(d), getUpper(d)));
+        return boundsList;
+    }
+
+    /**
+     * Getter for the interleaved lower and upper values, used by the kernels. The array must not be modified.
+     *
+     * @return The array of the bounds.
+     */
+    double[] getBoundsArray() {
         return bounds;
     }
+
+    public int getDimensions() {
+        return bounds.length / 2;
+    }
+
+    public double getLower(int dimension) {
+        return bounds[2 * dimension];
+    }
+
+    public double getUpper(int dimension) {
+        return bounds[2 * dimension + 1];
+    }
+
+    /**
+     * Calculates the center of the bounding box.
+     *
+     * @return A new array with the center of each dimension.
+     */
+    public double[] getCenter() {
+        double[] center = new double[getDimensions()];
+        for (int d = 0; d < center.length; d++)
+            center[d] = (bounds[2 * d] + bounds[2 * d + 1]) / 2;
+        return center;
+    }
+
     /**
      * Getter for the area of the bounding box.
      *
      * @return double representing the area.
      */
     public double getArea() {
-        // If area is not yet initialized, find the area
-        if (area == null)
-            area = calculateArea();
         return area;
     }
 
@@ -56,10 +155,6 @@ public class BoundingBox implements Serializable {
      * @return double representing the margin.
      */
     public double getMargin() {
-        // If margin is not yet initialized, find the margin
-        if (margin == null)
-            margin = calculateMargin();
-
         return margin;
     }
 
@@ -84,125 +179,235 @@ public class BoundingBox implements Serializable {
      */
     public double findMinDistanceFromPoint(ArrayList<Double> point){
         double minDistance = 0;
-        // For every dimension find the minimum distance
-        double rd;
-        for (int d = 0; d < dataDimensions; d++)
+        for (int d = 0; d < getDimensions(); d++)
         {
-            if(getBounds().get(d).getLower() > point.get(d))
-                rd = getBounds().get(d).getLower();
-            else if (getBounds().get(d).getUpper() < point.get(d))
-                rd = getBounds().get(d).getUpper();
-            else
-                rd = point.get(d);
-
-            minDistance += Math.pow(point.get(d) - rd,2);
+            double gap = axisGap(bounds[2 * d], bounds[2 * d + 1], point.get(d));
+            minDistance += gap * gap;
         }
         return sqrt(minDistance);
     }
 
     /**
-     * Calculates the center of this bounding box.
+     * Calculates the minimum distance between this bounding box and a given point.
      *
-     * @return ArrayList of Double representing the center coordinates.
+     * @param point The coordinates of the point.
+     * @return double representing the minimum distance.
      */
+    public double findMinDistanceFromPoint(double[] point){
+        return sqrt(minDistanceSquared(bounds, point));
+    }
 
-    private ArrayList<Double> getCenter() {
-        // If center is not yet initialized, find the center and return it
-        if (center == null)
-        {
-            center = new ArrayList<>();
+    /**
+     * Checks if two bounding boxes overlap.
+     *
+     * @param boundingBoxA First bounding box.
+     * @param boundingBoxB Second bounding box.
+     * @return boolean indicating whether the bounding boxes overlap.
+     */
 
-            for (int d = 0; d < dataDimensions; d++)
-                center.add((bounds.get(d).getUpper()+bounds.get(d).getLower())/2);
-        }
-        return center;
+    public static boolean checkOverlap(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
+        return overlaps(boundingBoxA.bounds, boundingBoxB.bounds);
     }
+
     /**
-     * Calculates the margin (perimeter) of this bounding box.
+     * Checks if the first bounding box fully contains the second one.
      *
-     * @return double representing the margin.
+     * @param outer The enclosing bounding box.
+     * @param inner The enclosed bounding box.
+     * @return boolean indicating whether inner lies inside outer.
      */
+    public static boolean checkContainment(BoundingBox outer, BoundingBox inner) {
+        return contains(outer.bounds, inner.bounds);
+    }
 
-    private double calculateMargin() {
-        double sum = 0;
-        for (int d = 0; d <dataDimensions; d++)
-            sum += abs(bounds.get(d).getUpper() - bounds.get(d).getLower());
-        return sum;
+    /**
+     * Checks if the minimum distance between two bounding boxes is at most a given distance.
+     * With a distance of zero this is the same as checking if they overlap.
+     *
+     * @param boundingBoxA First bounding box.
+     * @param boundingBoxB Second bounding box.
+     * @param distance The maximum distance allowed between the bounding boxes.
+     * @return boolean indicating whether the bounding boxes are within the distance.
+     */
+    public static boolean checkWithinDistance(BoundingBox boundingBoxA, BoundingBox boundingBoxB, double distance) {
+        if (distance == 0)
+            return overlaps(boundingBoxA.bounds, boundingBoxB.bounds);
+        return boxDistanceSquared(boundingBoxA.bounds, boundingBoxB.bounds) <= distance * distance;
     }
 
     /**
-     * Calculates the area (volume in multi-dimensions) of this bounding box.
+     * Calculates the overlap value between two bounding boxes.
      *
-     * @return double representing the area.
+     * @param boundingBoxA First bounding box.
+     * @param boundingBoxB Second bounding box.
+     * @return double representing the overlap value.
      */
 
-    private double calculateArea() {
-        double productOfEdges = 1;
-        for (int d = 0; d < dataDimensions; d++)
-            productOfEdges = productOfEdges * (bounds.get(d).getUpper() - bounds.get(d).getLower());
-        return abs(productOfEdges);
+    static double calculateOverlapValue(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
+        return overlapArea(boundingBoxA.bounds, boundingBoxB.bounds);
     }
 
     /**
-     * Checks if two bounding boxes overlap.
+     * Calculates the Euclidean distance between the centers of two bounding boxes.
      *
      * @param boundingBoxA First bounding box.
      * @param boundingBoxB Second bounding box.
-     * @return boolean indicating whether the bounding boxes overlap.
+     * @return double representing the distance.
      */
+    static double findDistanceBetweenBoundingBoxes(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
+        return sqrt(centerDistanceSquared(boundingBoxA.bounds, boundingBoxB.bounds));
+    }
 
-    public static boolean checkOverlap(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
-        // For every dimension find the intersection point
-        //  return false if they do not overlap
-        for (int d = 0; d < dataDimensions; d++)
+    // ---------------------------------------------------------------------------------------------
+    // Kernels working on arrays of interleaved lower and upper values
+
+    /**
+     * Distance along one axis between a value and the interval [lower, upper], zero if the value lies inside.
+     */
+    private static double axisGap(double lower, double upper, double value) {
+        if (value < lower)
+            return lower - value;
+        if (value > upper)
+            return value - upper;
+        return 0;
+    }
+
+    /**
+     * Checks if two boxes overlap, touching boxes are considered overlapping.
+     */
+    static boolean overlaps(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i += 2)
         {
-            double overlapD = Math.min(boundingBoxA.getBounds().get(d).getUpper(), boundingBoxB.getBounds().get(d).getUpper())
-                    - Math.max(boundingBoxA.getBounds().get(d).getLower(), boundingBoxB.getBounds().get(d).getLower());
+            if (Math.min(a[i + 1], b[i + 1]) - Math.max(a[i], b[i]) < 0)
+                return false;
+        }
+        return true;
+    }
 
-            if (overlapD < 0)
+    /**
+     * Checks if box outer fully contains box inner.
+     */
+    static boolean contains(double[] outer, double[] inner) {
+        for (int i = 0; i < outer.length; i += 2)
+        {
+            if (inner[i] < outer[i] || inner[i + 1] > outer[i + 1])
                 return false;
         }
         return true;
     }
 
     /**
-     * Calculates the overlap value between two bounding boxes.
-     *
-     * @param boundingBoxA First bounding box.
-     * @param boundingBoxB Second bounding box.
-     * @return double representing the overlap value.
+     * Squared minimum distance between a box and a point.
      */
+    static double minDistanceSquared(double[] box, double[] point) {
+        double sum = 0;
+        for (int d = 0; d < point.length; d++)
+        {
+            double gap = axisGap(box[2 * d], box[2 * d + 1], point[d]);
+            sum += gap * gap;
+        }
+        return sum;
+    }
 
-    static double calculateOverlapValue(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
-        double overlapValue = 1;
-        // For every dimension find the intersection point
-        for (int d = 0; d < dataDimensions; d++)
+    /**
+     * Squared minimum distance between two boxes, zero if they overlap.
+     */
+    static double boxDistanceSquared(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i += 2)
+        {
+            double gap = Math.max(0, Math.max(a[i] - b[i + 1], b[i] - a[i + 1]));
+            sum += gap * gap;
+        }
+        return sum;
+    }
+
+    /**
+     * Squared Euclidean distance between the centers of two boxes.
+     */
+    static double centerDistanceSquared(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i += 2)
         {
-            double overlapD = Math.min(boundingBoxA.getBounds().get(d).getUpper(), boundingBoxB.getBounds().get(d).getUpper())
-                    - Math.max(boundingBoxA.getBounds().get(d).getLower(), boundingBoxB.getBounds().get(d).getLower());
+            double difference = (a[i] + a[i + 1]) / 2 - (b[i] + b[i + 1]) / 2;
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * Area (volume in multi-dimensions) of a box.
+     */
+    static double area(double[] box) {
+        double productOfEdges = 1;
+        for (int i = 0; i < box.length; i += 2)
+            productOfEdges *= box[i + 1] - box[i];
+        return abs(productOfEdges);
+    }
+
+    /**
+     * Margin (sum of the edges) of a box.
+     */
+    static double margin(double[] box) {
+        double sum = 0;
+        for (int i = 0; i < box.length; i += 2)
+            sum += abs(box[i + 1] - box[i]);
+        return sum;
+    }
 
+    /**
+     * Area of the intersection of two boxes, zero if they do not overlap.
+     */
+    static double overlapArea(double[] a, double[] b) {
+        double overlapValue = 1;
+        for (int i = 0; i < a.length; i += 2)
+        {
+            double overlapD = Math.min(a[i + 1], b[i + 1]) - Math.max(a[i], b[i]);
             if (overlapD < 0)
                 return 0; // No overlap, return 0
-            else
-                overlapValue = overlapD*overlapValue;
+            overlapValue *= overlapD;
         }
         return overlapValue;
     }
 
     /**
-     * Calculates the Euclidean distance between the centers of two bounding boxes.
-     *
-     * @param boundingBoxA First bounding box.
-     * @param boundingBoxB Second bounding box.
-     * @return double representing the distance.
+     * Area of the intersection between the union of boxes a and toAdd, and box other.
+     * Equivalent to overlapArea(union(a, toAdd), other) without creating the union.
      */
-    static double findDistanceBetweenBoundingBoxes(BoundingBox boundingBoxA, BoundingBox boundingBoxB) {
-        double distance = 0;
-        // For every dimension find the intersection point
-        for (int d = 0; d < dataDimensions; d++)
+    static double unionOverlapArea(double[] a, double[] toAdd, double[] other) {
+        double overlapValue = 1;
+        for (int i = 0; i < a.length; i += 2)
+        {
+            double lower = Math.min(a[i], toAdd[i]);
+            double upper = Math.max(a[i + 1], toAdd[i + 1]);
+            double overlapD = Math.min(upper, other[i + 1]) - Math.max(lower, other[i]);
+            if (overlapD < 0)
+                return 0;
+            overlapValue *= overlapD;
+        }
+        return overlapValue;
+    }
+
+    /**
+     * Area enlargement needed for box a to also enclose box toAdd.
+     */
+    static double areaEnlargement(double[] a, double[] toAdd) {
+        double unionArea = 1;
+        for (int i = 0; i < a.length; i += 2)
+            unionArea *= Math.max(a[i + 1], toAdd[i + 1]) - Math.min(a[i], toAdd[i]);
+        return abs(unionArea) - area(a);
+    }
+
+    /**
+     * Enlarges box target in place, so that it also encloses box toInclude.
+     */
+    static void include(double[] target, double[] toInclude) {
+        for (int i = 0; i < target.length; i += 2)
         {
-            distance += Math.pow(boundingBoxA.getCenter().get(d) - boundingBoxB.getCenter().get(d),2);
+            if (toInclude[i] < target[i])
+                target[i] = toInclude[i];
+            if (toInclude[i + 1] > target[i + 1])
+                target[i + 1] = toInclude[i + 1];
         }
-        return sqrt(distance);
     }
 }
@@ -1,191 +1,523 @@
 package main.java.spatialtree;
 
+import queries.BatchBoundingBoxRangeQuery;
 import queries.BoundingBoxRangeQuery;
+import queries.IncrementalNearestNeighboursQuery;
 import queries.NearestNeighboursQuery;
 import queries.SkylineQuery;
+import queries.SpatialJoinQuery;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
 
-import static main.java.spatialtree.helper.RecordSorterX;
-
+/**
+ * Represents an R*-tree that is built bottom-up at once from all the records of the datafile (bulk loading),
+ * packing the entries into nodes as full as possible.
+ */
 public class BulkLoadingRStarTree {
 
+    /**
+     * The strategies available for ordering and grouping the entries into nodes.
+     */
+    public enum PackingStrategy {
+        SORT_X, // Sorts the entries on the first dimension and cuts them into consecutive nodes
+        STR, // Sort-Tile-Recursive, tiles the entries into slabs per dimension at every level
+        HILBERT, // Sorts the entries along the Hilbert curve and cuts them into consecutive nodes
+        OMT // Overlap Minimizing Top-down, tiles the entries top-down into evenly filled subtrees
+    }
+
     private int totalLevels; // The total levels of the tree, increasing the size starting of the root, the root (top level) will always have the highest level
-    private static  int ROOT_NODE_BLOCK_ID ; // Root node will always have 1 as it's ID, in order to identify which block has the root Node
+    private static final int ROOT_NODE_BLOCK_ID = RStarTree.getRootNodeBlockId(); // Root node will always have 1 as it's ID, in order to identify which block has the root Node
     private static final int LEAF_LEVEL = 1; // Constant leaf level 1, since we are increasing the level from the root, the root (top level) will always have the highest level
+    private final PackingStrategy packingStrategy;
+    private static final ReadWriteLock treeLock = RStarTree.getTreeLock(); // The index file is guarded by the same lock for both trees
 
     /**
-     * Constructor to initialize the R*-tree and potentially bulk load data.
+     * Constructor to initialize the R*-tree and potentially bulk load data, packing the nodes with STR.
      * @param insertRecordsFromDataFile Flag to indicate whether to bulk load data from a data file during initialization.
      */
     public BulkLoadingRStarTree(boolean insertRecordsFromDataFile) {
+        this(insertRecordsFromDataFile, PackingStrategy.STR);
+    }
+
+    /**
+     * Constructor to initialize the R*-tree and potentially bulk load data.
+     * Bulk loading always starts from a new index file.
+     * @param insertRecordsFromDataFile Flag to indicate whether to bulk load data from a data file during initialization.
+     * @param packingStrategy The strategy used to group the entries into nodes.
+     */
+    public BulkLoadingRStarTree(boolean insertRecordsFromDataFile, PackingStrategy packingStrategy) {
         this.totalLevels = helper.getTotalLevelsOfTreeIndex(); // Initialise the total levels from the FileHelper class, in case there is an already existing indexFile
-        ArrayList<Record> allRecords = new ArrayList<>();
+        this.packingStrategy = packingStrategy;
         if (insertRecordsFromDataFile)
         {
-            for (int i = 1; i< helper.getTotalBlocksInDatafile(); i++)
-            {
-                ArrayList<Record> records = helper.readDataFile(i);
-                allRecords.addAll(records);
+            treeLock.writeLock().lock();
+            try {
+                createIndexFileForBulkLoading();
+
+                ArrayList<Entry> leafEntries = new ArrayList<>();
+                for (int i = 1; i< helper.getTotalBlocksInDatafile(); i++)
+                {
+                    ArrayList<Record> records = helper.readDataFileSlots(i);
+                    if (records == null)
+                        throw new IllegalStateException("Could not read records properly from the datafile");
+                    for (int slot = 0; slot < records.size(); slot++)
+                    {
+                        if (records.get(slot) != null)
+                            leafEntries.add(new LeafEntry(records.get(slot), i, slot));
+                    }
+                }
 
+                writeRoot(packingStrategy == PackingStrategy.OMT ? buildTopDown(leafEntries) : buildBottomUp(leafEntries));
+            } finally {
+                helper.getIndexBufferPool().setPinningSuspended(false);
+                treeLock.writeLock().unlock();
             }
-            RecordSorterX(allRecords);
-            List<Node> nodes= createLeafNodes(allRecords,-1);
-            Node root = bulkLoadTree(nodes);  // Build the entire tree
-            root.setBlockId(helper.getTotalBlocksInIndexFile());
-            helper.writeNewIndexFileBlock(root);
-            ROOT_NODE_BLOCK_ID=helper.getTotalBlocksInIndexFile()-1; // -1 because we incremented it in writeNewIndexFileBlock
-
         }
     }
+
     /**
-     * Creates leaf nodes from a list of records.
-     * @param records List of records to be included in the leaf nodes.
-     * @param dataFileBlockId Block ID associated with the data file.
-     * @return List of leaf nodes created from the records.
+     * Constructor to bulk load the records of the data file with bounded memory, for datasets that do not fit in the heap.
+     * The leaf entries are sorted with an external merge sort and the nodes of every level are packed
+     * in a single pass over the sorted entries, so at most maxEntriesInMemory entries are held at any time.
+     * Only the SORT_X and HILBERT strategies can be used, since they order the entries by a single key.
+     * @param packingStrategy The strategy used to order the entries, SORT_X or HILBERT.
+     * @param maxEntriesInMemory The maximum number of entries sorted in memory at once.
      */
-    private List<Node> createLeafNodes(ArrayList<Record> records, int dataFileBlockId) {
-        List<Node> nodes = new ArrayList<>();
-        ArrayList<Entry> entries = new ArrayList<>();
-        for (Record record : records) {
-            ArrayList<Bounds> recordBounds = new ArrayList<>();
-            for (int d = 0; d < helper.getDataDimensions(); d++) {
-                double coordinate = record.getCoordinate(d);
-                recordBounds.add(new Bounds(coordinate, coordinate));
-            }
-
-            entries.add(new LeafEntry(record.getId(), dataFileBlockId, recordBounds));
-            if (entries.size() == Node.getMaxEntries()) {
-                Node node = new Node(LEAF_LEVEL, new ArrayList<>(entries));
-                node.setBlockId(helper.getTotalBlocksInIndexFile());
-                helper.writeNewIndexFileBlock(node);
-                nodes.add(node);
-                entries.clear();  // Clearing the list to free up memory
+    public BulkLoadingRStarTree(PackingStrategy packingStrategy, int maxEntriesInMemory) {
+        this.packingStrategy = packingStrategy;
+        treeLock.writeLock().lock();
+        try {
+            createIndexFileForBulkLoading();
+            try (ExternalEntrySorter sortedEntries = new ExternalEntrySorter(packingStrategy, maxEntriesInMemory)) {
+                writeRoot(buildFromSortedEntries(sortedEntries));
+            } catch (java.io.IOException | java.io.UncheckedIOException e) {
+                throw new IllegalStateException("Could not sort the records of the datafile for bulk loading", e);
             }
+        } finally {
+            helper.getIndexBufferPool().setPinningSuspended(false);
+            treeLock.writeLock().unlock();
         }
+    }
 
-        if (!entries.isEmpty()) {
-            Node node = new Node(LEAF_LEVEL, entries);
-            node.setBlockId(helper.getTotalBlocksInIndexFile());
-            helper.writeNewIndexFileBlock(node);
-            nodes.add(node);
+    /**
+     * Resets the index file and reserves its first block after the metadata for the root,
+     * which is written once the tree is built. The levels of the tree are only known then too,
+     * so the buffer pool pins no other Node until the build ends, and evicts them like any other.
+     */
+    private void createIndexFileForBulkLoading() {
+        try {
+            helper.CreateIndexFile(helper.getDataDimensions(), true);
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException("Could not create a new index file for bulk loading", e);
         }
-        return nodes;
+        helper.getIndexBufferPool().setPinningSuspended(true);
+        helper.writeNewIndexFileBlock(new Node(LEAF_LEVEL));
+    }
+
+    /**
+     * Writes the root to its reserved block and the levels of the tree to the metadata.
+     */
+    private void writeRoot(Node root) {
+        root.setBlockId(ROOT_NODE_BLOCK_ID);
+        totalLevels = root.getLevel();
+        helper.updateLevelsOfTreeInIndexFile(totalLevels);
+        helper.updateIndexFileBlock(root, totalLevels);
+        helper.flushIndexFile();
+    }
+
+    public PackingStrategy getPackingStrategy() {
+        return packingStrategy;
     }
 
     /**
-     * Bulk loads an R*-tree by creating higher level nodes from a list of lower level nodes.
-     * @param leafNodes List of leaf nodes from which to start the tree construction.
-     * @return The root node after bulk loading the tree.
+     * Builds the tree level by level, starting from the leaves.
+     * On every level the entries are grouped into full nodes, which are written to the index file,
+     * and an entry for each of them is passed to the next level, until a single node, the root, remains.
+     * @param leafEntries The entries of all the records.
+     * @return The root node, not yet written to the index file.
      */
-    private Node bulkLoadTree(List<Node> leafNodes) {
+    private Node buildBottomUp(ArrayList<Entry> leafEntries) {
         int currentLevel = LEAF_LEVEL;
-        List<Node> currentLevelNodes = new ArrayList<>(leafNodes);
-        while (currentLevelNodes.size() > 1) {  // Continue until only one node remains, the root
-            List<Node> nextLevelNodes = constructHigherLevelNodes(currentLevelNodes, currentLevel);
-            for (Node node : nextLevelNodes) {
-                node.setBlockId(helper.getTotalBlocksInIndexFile());
-                helper.writeNewIndexFileBlock(node);
-            }
+        List<Entry> currentLevelEntries = leafEntries;
+        while (true)
+        {
+            List<List<Entry>> groups = pack(currentLevelEntries, currentLevel);
+            if (groups.size() <= 1)
+                return new Node(currentLevel, groups.isEmpty() ? new ArrayList<>() : new ArrayList<>(groups.get(0)));
+
+            List<Entry> nextLevelEntries = new ArrayList<>(groups.size());
+            for (List<Entry> group : groups)
+                nextLevelEntries.add(writeNode(currentLevel, group));
+            currentLevelEntries = nextLevelEntries;
             currentLevel++;
-            currentLevelNodes = nextLevelNodes;
         }
+    }
+
+    /**
+     * Builds the tree in a single pass over the sorted leaf entries.
+     * Only the node being filled on each level is kept in memory, once it is full it is written to the index file
+     * and its entry is added to the node being filled on the level above.
+     * @param sortedEntries The leaf entries, in the order they are packed.
+     * @return The root node, not yet written to the index file.
+     */
+    private Node buildFromSortedEntries(Iterator<LeafEntry> sortedEntries) {
+        ArrayList<ArrayList<Entry>> openNodes = new ArrayList<>(); // The entries of the node being filled on each level, starting from the leaves
+        while (sortedEntries.hasNext())
+            addToOpenNode(openNodes, LEAF_LEVEL, sortedEntries.next());
+        if (openNodes.isEmpty())
+            return new Node(LEAF_LEVEL);
+
+        // Writing the partially filled nodes, the one on the highest level becomes the root
+        for (int level = LEAF_LEVEL; ; level++)
+        {
+            ArrayList<Entry> entries = openNodes.get(level - 1);
+            if (level == openNodes.size())
+            {
+                if (level > LEAF_LEVEL && entries.size() == 1)
+                {
+                    // A single child would make a root with one entry, the child itself is used as the root instead
+                    // and its block is freed, to be reused by the next node written to the index file
+                    long childBlockId = entries.get(0).getChildNodeBlockId();
+                    Node child = helper.readIndexFileBlock(childBlockId);
+                    helper.freeIndexFileBlock(childBlockId);
+                    return new Node(child.getLevel(), child.getEntries());
+                }
+                return new Node(level, entries);
+            }
+            if (!entries.isEmpty())
+            {
+                addToOpenNode(openNodes, level + 1, writeNode(level, entries));
+                entries.clear();
+            }
+        }
+    }
 
-        return currentLevelNodes.get(0);  // The single remaining node is the root
+    private void addToOpenNode(ArrayList<ArrayList<Entry>> openNodes, int level, Entry entry) {
+        if (openNodes.size() < level)
+            openNodes.add(new ArrayList<>());
+        ArrayList<Entry> entries = openNodes.get(level - 1);
+        entries.add(entry);
+        if (entries.size() == Node.getMaxEntries())
+        {
+            Entry parentEntry = writeNode(level, entries);
+            entries.clear();
+            addToOpenNode(openNodes, level + 1, parentEntry);
+        }
     }
 
     /**
-     * Constructs higher level nodes from a given list of lower level nodes.
-     * @param lowerLevelNodes Nodes of the current level from which to form higher level nodes.
-     * @param currentLevel The current level of the nodes being processed.
-     * @return List of newly formed higher level nodes.
+     * Groups the entries of a level into lists of at most Node.getMaxEntries() entries based on the packing strategy.
+     * @param entries The entries of the level.
+     * @param level The level of the nodes being created.
+     * @return The groups of entries, each one forming a node.
      */
-    private List<Node> constructHigherLevelNodes(List<Node> lowerLevelNodes, int currentLevel) {
-        List<Node> higherLevelNodes = new ArrayList<>();
-        ArrayList<Entry> entries = new ArrayList<>();
+    private List<List<Entry>> pack(List<Entry> entries, int level) {
+        switch (packingStrategy)
+        {
+            case STR:
+                return tile(entries, 0, Node.getMaxEntries());
+            case HILBERT:
+                // The upper levels keep the Hilbert order of the nodes below them
+                if (level == LEAF_LEVEL)
+                    entries = sortByHilbertValue(entries);
+                return chunk(entries, Node.getMaxEntries());
+            case SORT_X:
+            default:
+                if (level == LEAF_LEVEL)
+                    entries.sort(new EntryComparator.EntryCenterComparator(0));
+                return chunk(entries, Node.getMaxEntries());
+        }
+    }
 
-        for (Node node : lowerLevelNodes) {
-            ArrayList<Bounds> nodeBounds = node.calculateBoundingBoxForNode(node.getEntries());
-            BoundingBox bb = new BoundingBox(nodeBounds);
-            Entry entry = new Entry(bb , node.getBlockId());  // Create a new Entry for the node
-            if (entries.size() == Node.getMaxEntries()) {
-                helper.updateLevelsOfTreeInIndexFile();
-                Node newNode = new Node(helper.getTotalLevelsOfTreeIndex(), new ArrayList<>(entries));
+    /**
+     * Builds the tree from the root downwards with the OMT algorithm.
+     * The height of the tree is decided first, and the entries are tiled into as many subtrees
+     * as the root needs to hold them, with the entries spread evenly over the subtrees.
+     * @param leafEntries The entries of all the records.
+     * @return The root node, not yet written to the index file.
+     */
+    private Node buildTopDown(ArrayList<Entry> leafEntries) {
+        int height = LEAF_LEVEL;
+        long capacity = Node.getMaxEntries();
+        while (capacity < leafEntries.size())
+        {
+            capacity *= Node.getMaxEntries();
+            height++;
+        }
+        return new Node(height, buildSubtreeEntries(leafEntries, height));
+    }
 
-                newNode.setBlockId(helper.getTotalBlocksInIndexFile());  // Get a new block ID for the node
+    /**
+     * Recursively builds the subtrees below a node of the given level and returns the node's entries.
+     * The node gets the fewest subtrees that can hold its entries, i.e. ceil(N / M^(level - 1)), and every subtree
+     * gets ceil(N / subtrees) or one entry less, so that the nodes of every level are filled evenly
+     * instead of leaving the remainder to the last one.
+     * @param entries The leaf entries that fall under the node.
+     * @param level The level of the node.
+     * @return The entries of the node.
+     */
+    private ArrayList<Entry> buildSubtreeEntries(List<Entry> entries, int level) {
+        if (level == LEAF_LEVEL)
+            return new ArrayList<>(entries);
+
+        long subtreeCapacity = 1;
+        for (int l = LEAF_LEVEL; l < level; l++)
+            subtreeCapacity *= Node.getMaxEntries();
+        int subtrees = (int) ((entries.size() + subtreeCapacity - 1) / subtreeCapacity);
+
+        ArrayList<Entry> nodeEntries = new ArrayList<>();
+        for (List<Entry> group : tileEvenly(entries, 0, subtrees))
+            nodeEntries.add(writeNode(level - 1, buildSubtreeEntries(group, level - 1)));
+        return nodeEntries;
+    }
 
-                helper.writeNewIndexFileBlock(newNode);
-                higherLevelNodes.add(newNode);
-                entries.clear();
-            }
-            entries.add(entry);
+    /**
+     * Writes a new node to the index file and returns the entry pointing to it.
+     * @param level The level of the node.
+     * @param entries The entries of the node.
+     * @return The entry of the parent level that refers to the node.
+     */
+    private Entry writeNode(int level, List<Entry> entries) {
+        Node node = new Node(level, new ArrayList<>(entries));
+        helper.writeNewIndexFileBlock(node);
+        return new Entry(node);
+    }
+
+    /**
+     * Sort-Tile-Recursive partitioning of the entries into groups of the given size.
+     * The entries are sorted on the center of the given dimension and cut into slabs, each slab
+     * is then tiled recursively on the next dimension, and on the last dimension the slabs are cut into groups.
+     * @param entries The entries to partition.
+     * @param dimension The dimension to sort on.
+     * @param groupSize The maximum size of each group.
+     * @return The groups of entries.
+     */
+    private List<List<Entry>> tile(List<Entry> entries, int dimension, int groupSize) {
+        entries.sort(new EntryComparator.EntryCenterComparator(dimension));
+        int remainingDimensions = helper.getDataDimensions() - dimension;
+        int groups = (int) Math.ceil((double) entries.size() / groupSize);
+        if (remainingDimensions <= 1 || groups <= 1)
+            return chunk(entries, groupSize);
+
+        int slabs = (int) Math.ceil(Math.pow(groups, 1.0 / remainingDimensions));
+        long slabSize = (long) groupSize * (int) Math.ceil((double) groups / slabs);
+        List<List<Entry>> tiles = new ArrayList<>();
+        for (long start = 0; start < entries.size(); start += slabSize)
+        {
+            List<Entry> slab = new ArrayList<>(entries.subList((int) start, (int) Math.min(start + slabSize, entries.size())));
+            tiles.addAll(tile(slab, dimension + 1, groupSize));
         }
+        return tiles;
+    }
 
-        if (!entries.isEmpty()) {
-            higherLevelNodes.add(new Node(currentLevel + 1, entries));
+    /**
+     * Sort-Tile-Recursive partitioning of the entries into the given number of groups, whose sizes differ by at most one.
+     * The groups are spread over the slabs of every dimension as evenly as the entries over the groups,
+     * so each slab gets the entries of the groups it holds.
+     * @param entries The entries to partition.
+     * @param dimension The dimension to sort on.
+     * @param groups The number of groups.
+     * @return The groups of entries.
+     */
+    private List<List<Entry>> tileEvenly(List<Entry> entries, int dimension, int groups) {
+        entries.sort(new EntryComparator.EntryCenterComparator(dimension));
+        int remainingDimensions = helper.getDataDimensions() - dimension;
+        if (remainingDimensions <= 1 || groups <= 1)
+            return splitEvenly(entries, groups);
+
+        int slabs = (int) Math.ceil(Math.pow(groups, 1.0 / remainingDimensions));
+        List<List<Entry>> tiles = new ArrayList<>();
+        int firstGroup = 0;
+        for (int slab = 0; slab < slabs; slab++)
+        {
+            int slabGroups = groups / slabs + (slab < groups % slabs ? 1 : 0);
+            int start = groupStart(entries.size(), groups, firstGroup);
+            int end = groupStart(entries.size(), groups, firstGroup + slabGroups);
+            tiles.addAll(tileEvenly(new ArrayList<>(entries.subList(start, end)), dimension + 1, slabGroups));
+            firstGroup += slabGroups;
         }
+        return tiles;
+    }
 
-        return higherLevelNodes;
+    /**
+     * Cuts the entries into the given number of consecutive groups, whose sizes differ by at most one.
+     */
+    private static List<List<Entry>> splitEvenly(List<Entry> entries, int groups) {
+        List<List<Entry>> splitGroups = new ArrayList<>(groups);
+        for (int group = 0; group < groups; group++)
+            splitGroups.add(entries.subList(groupStart(entries.size(), groups, group), groupStart(entries.size(), groups, group + 1)));
+        return splitGroups;
     }
 
+    /**
+     * Returns the position of the first entry of a group, when the entries are cut into groups whose sizes differ
+     * by at most one and the larger groups come first.
+     */
+    private static int groupStart(int entries, int groups, int group) {
+        return group * (entries / groups) + Math.min(group, entries % groups);
+    }
 
+    /**
+     * Cuts the entries into consecutive groups of the given size.
+     */
+    private static List<List<Entry>> chunk(List<Entry> entries, int groupSize) {
+        List<List<Entry>> groups = new ArrayList<>();
+        for (int start = 0; start < entries.size(); start += groupSize)
+            groups.add(entries.subList(start, Math.min(start + groupSize, entries.size())));
+        return groups;
+    }
+
+    /**
+     * Sorts the entries on the Hilbert value of their centers, using a grid that spans the extent of the entries.
+     * @param entries The entries to sort.
+     * @return The entries ordered along the Hilbert curve.
+     */
+    private static List<Entry> sortByHilbertValue(List<Entry> entries) {
+        if (entries.isEmpty())
+            return entries;
+        BoundingBox extent = BoundingBox.enclosing(entries);
+        ArrayList<EntryHilbertValuePair> pairs = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            pairs.add(new EntryHilbertValuePair(entry, HilbertCurve.indexOfPoint(entry.getBoundingBox().getCenter(), extent)));
+        pairs.sort(EntryHilbertValuePair::compareTo);
+
+        List<Entry> sortedEntries = new ArrayList<>(pairs.size());
+        for (EntryHilbertValuePair pair : pairs)
+            sortedEntries.add(pair.getEntry());
+        return sortedEntries;
+    }
 
     public Node getRoot() {
-        return helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        treeLock.readLock().lock();
+        try {
+            return helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 
     public ArrayList<LeafEntry> getDataInBoundingBox(BoundingBox searchBoundingBox){
-        BoundingBoxRangeQuery query = new BoundingBoxRangeQuery(searchBoundingBox);
-        return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        return getDataInBoundingBox(searchBoundingBox, null);
     }
 
-
-
-    public boolean deleteRecord(Entry targetEntry) {
-        Node node = findLeafNode(targetEntry, getRoot());
-        if (node == null){
-            return false; // Entry not found
+    public ArrayList<LeafEntry> getDataInBoundingBox(BoundingBox searchBoundingBox, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            BoundingBoxRangeQuery query = new BoundingBoxRangeQuery(searchBoundingBox);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
         }
+    }
 
-        // Attempt to remove the entry
-        boolean removed = node.getEntries().removeIf(e -> e instanceof LeafEntry && e.equals(targetEntry));
 
-        if (!removed) return false; // Entry was not in the found node
 
-        //TODO
-        // Handle potential underflow
-        if (node.getEntries().size() < Node.getMaxEntries() * 0.3) {
-            System.out.println("Underflow");
-            //handleUnderflow(node);
+    public ArrayList<ArrayList<LeafEntry>> getDataInBoundingBoxes(List<BoundingBox> searchBoundingBoxes){
+        return getDataInBoundingBoxes(searchBoundingBoxes, null);
+    }
+
+    public ArrayList<ArrayList<LeafEntry>> getDataInBoundingBoxes(List<BoundingBox> searchBoundingBoxes, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            BatchBoundingBoxRangeQuery query = new BatchBoundingBoxRangeQuery(searchBoundingBoxes);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
         }
+    }
 
-        // Node is updated, reflect changes in storage if necessary
-        helper.updateIndexFileBlock(node, totalLevels);
-        return true; // Entry successfully deleted
+    public ArrayList<LeafEntry> getDataInBoundingBoxParallel(BoundingBox searchBoundingBox){
+        return getDataInBoundingBoxParallel(searchBoundingBox, null);
     }
 
-    private Node findLeafNode(Entry targetEntry, Node node) {
-        if (node.getLevel() == LEAF_LEVEL) {
-            return node.contains(targetEntry) ? node : null;
-        } else {
-            for (Entry e : node.getEntries()) {
-                if (BoundingBox.checkOverlap(e.getBoundingBox(), targetEntry.getBoundingBox())) {
-                    Node result = findLeafNode(targetEntry, helper.readIndexFileBlock(e.getChildNodeBlockId()));
-                    if (result != null) return result;
-                }
-            }
+    public ArrayList<LeafEntry> getDataInBoundingBoxParallel(BoundingBox searchBoundingBox, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            BoundingBoxRangeQuery query = new BoundingBoxRangeQuery(searchBoundingBox, ForkJoinPool.commonPool(),
+                    BoundingBoxRangeQuery.DEFAULT_MIN_FORK_LEVEL, BoundingBoxRangeQuery.DEFAULT_SEQUENTIAL_THRESHOLD);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
         }
-        return null;
+    }
+
+    /**
+     * Compacts the index file in the same way as the R*-tree does, see RStarTree.compactIndexFile.
+     */
+    public void compactIndexFile() {
+        new RStarTree(false).compactIndexFile();
+    }
+
+    /**
+     * Deletes a record from the tree, condensing the tree afterwards in the same way as the R*-tree does,
+     * so the nodes packed by the bulk loading may get reinserted into after deletions.
+     *
+     * @param targetEntry The entry to delete.
+     * @return true if the entry was successfully deleted, false otherwise.
+     */
+    public boolean deleteRecord(Entry targetEntry) {
+        boolean deleted = new RStarTree(false).deleteRecord(targetEntry);
+        totalLevels = helper.getTotalLevelsOfTreeIndex();
+        return deleted;
     }
 
     public ArrayList<LeafEntry> getNearestNeighbours(ArrayList<Double> searchPoint, int k){
-        NearestNeighboursQuery query = new NearestNeighboursQuery(searchPoint,k);
-        return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        return getNearestNeighbours(searchPoint, k, null);
+    }
+
+    public ArrayList<LeafEntry> getNearestNeighbours(ArrayList<Double> searchPoint, int k, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            NearestNeighboursQuery query = new NearestNeighboursQuery(searchPoint,k);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    public IncrementalNearestNeighboursQuery getNearestNeighboursIterator(ArrayList<Double> searchPoint){
+        treeLock.readLock().lock();
+        try {
+            return new IncrementalNearestNeighboursQuery(searchPoint, helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    public SpatialJoinQuery getSpatialJoin(IndexFileReader otherIndexFile, double distance){
+        return getSpatialJoin(otherIndexFile, distance, null);
+    }
+
+    public SpatialJoinQuery getSpatialJoin(IndexFileReader otherIndexFile, double distance, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            return new SpatialJoinQuery(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics), helper::readIndexFileBlock,
+                    otherIndexFile.getRoot(), otherIndexFile::readIndexFileBlock, distance, statistics);
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 
     public ArrayList<LeafEntry> getSkyline(BoundingBox searchBoundingBox) {
-        SkylineQuery query = new SkylineQuery(searchBoundingBox);
-        return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        return getSkyline(searchBoundingBox, null);
+    }
+
+    public ArrayList<LeafEntry> getSkyline(BoundingBox searchBoundingBox, QueryStatistics statistics) {
+        treeLock.readLock().lock();
+        try {
+            SkylineQuery query = new SkylineQuery(searchBoundingBox);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 }
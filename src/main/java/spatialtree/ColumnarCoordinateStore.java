@@ -0,0 +1,489 @@
+package main.java.spatialtree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A columnar copy of the records of the data file, used by the sequential scans instead of decoding every block of the
+ * data file into Records. The coordinates of every dimension are kept in a contiguous array of doubles, next to arrays
+ * with the id, data file block and slot of every record, so that a scan runs branch free loops over primitive arrays
+ * and only creates LeafEntries for the qualifying records. When the JVM is started with --add-modules jdk.incubator.vector
+ * the loops are run by the VectorizedScanKernels, written with the Vector API, and otherwise by scalar loops that the JIT
+ * compiles to tight and, where it can, vectorized code.
+ * The columns are kept in memory and in a sidecar file of the data file, so that they are built from the data file only once.
+ * The sidecar is a header followed by segments, each holding the columns of the records of a range of data file blocks:
+ * blocks appended to the data file are added as a new segment the next time the store is used, while an update or
+ * deletion of a record in place deletes the store, which is then built again from the whole data file.
+ * <pre>
+ * header : magic (int), dimensions (int), blocks of the data file covered (int), metadata block included
+ * segment: first data file block (int), blocks (int), records (int), then the record ids (long per record),
+ *          data file block ids (int per record), slots (int per record) and the coordinates of every dimension (double per record)
+ * </pre>
+ */
+public class ColumnarCoordinateStore {
+    private static final int MAGIC = 0x434F4C53; // "COLS"
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int SEGMENT_HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int CHUNK = 1024; // The records filtered at a time by the scans
+    private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private final Path path;
+    private int dimensions;
+    private int coveredDataFileBlocks; // 0 while the store is not loaded
+    private long sidecarBytes; // The end of the last segment counted by the header of the sidecar
+    private int size;
+    private long[] ids = new long[0];
+    private int[] dataFileBlockIds = new int[0];
+    private int[] slots = new int[0];
+    private double[][] coordinates = new double[0][0]; // One column per dimension
+    private volatile boolean vectorized = VECTOR_API_AVAILABLE;
+
+    ColumnarCoordinateStore(String pathToFile) {
+        this.path = Paths.get(pathToFile);
+    }
+
+    /**
+     * Brings the store up to date with the data file: loads the sidecar if it is not loaded yet
+     * and adds the records of the blocks appended to the data file since it was written.
+     *
+     * @param totalBlocksInDatafile The blocks of the data file, metadata block included.
+     * @param dataDimensions The dimensions of the records.
+     * @throws IOException if the sidecar cannot be read or written.
+     */
+    synchronized void synchronize(int totalBlocksInDatafile, int dataDimensions) throws IOException {
+        if (coveredDataFileBlocks == 0 || dimensions != dataDimensions)
+            load(dataDimensions);
+        if (coveredDataFileBlocks > totalBlocksInDatafile)
+        {
+            delete(); // Left behind by a larger data file
+            load(dataDimensions);
+        }
+        if (coveredDataFileBlocks < totalBlocksInDatafile)
+            appendSegment(totalBlocksInDatafile);
+    }
+
+    /**
+     * Deletes the sidecar and empties the store, so that it is built again from the data file when it is next used.
+     *
+     * @throws IOException if the sidecar cannot be deleted.
+     */
+    synchronized void delete() throws IOException {
+        clear(dimensions);
+        sidecarBytes = 0;
+        Files.deleteIfExists(path);
+    }
+
+    private void clear(int dimensions) {
+        this.dimensions = dimensions;
+        coveredDataFileBlocks = 0;
+        size = 0;
+        ids = new long[0];
+        dataFileBlockIds = new int[0];
+        slots = new int[0];
+        coordinates = new double[dimensions][0];
+    }
+
+    /**
+     * Loads the segments of the sidecar that are covered by its header, starting a new sidecar
+     * if there is none or it belongs to a data file of other dimensions.
+     */
+    private void load(int dataDimensions) throws IOException {
+        clear(dataDimensions);
+        if (Files.exists(path))
+        {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = read(channel, 0, HEADER_BYTES);
+                if (header.getInt() == MAGIC && header.getInt() == dataDimensions)
+                {
+                    int headerDataFileBlocks = header.getInt();
+                    long position = HEADER_BYTES;
+                    int segmentDataFileBlocks = 1;
+                    while (segmentDataFileBlocks < headerDataFileBlocks)
+                    {
+                        ByteBuffer segmentHeader = read(channel, position, SEGMENT_HEADER_BYTES);
+                        int firstDataFileBlock = segmentHeader.getInt();
+                        int blocks = segmentHeader.getInt();
+                        int records = segmentHeader.getInt();
+                        if (firstDataFileBlock != segmentDataFileBlocks || blocks <= 0 || records < 0)
+                            break;
+                        position += SEGMENT_HEADER_BYTES;
+                        readColumns(read(channel, position, records * recordBytes()), records);
+                        position += (long) records * recordBytes();
+                        segmentDataFileBlocks += blocks;
+                    }
+                    if (segmentDataFileBlocks == headerDataFileBlocks)
+                    {
+                        coveredDataFileBlocks = headerDataFileBlocks;
+                        sidecarBytes = position;
+                        return;
+                    }
+                }
+            } catch (EOFException e) {
+                // A sidecar cut short by a crash, it is written again below
+            }
+        }
+        clear(dataDimensions);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(channel, 1);
+        }
+        coveredDataFileBlocks = 1;
+        sidecarBytes = HEADER_BYTES;
+    }
+
+    /**
+     * Adds the records of the data file blocks the store does not cover yet as a new segment of the sidecar.
+     * The segment is written before the header counts its blocks, so that a crash in between leaves the sidecar as it was,
+     * and it overwrites whatever a previous crash left after the last counted segment.
+     */
+    private void appendSegment(int totalBlocksInDatafile) throws IOException {
+        int firstRecord = size;
+        try {
+            appendSegment(firstRecord, totalBlocksInDatafile);
+        } catch (IOException | RuntimeException e) {
+            size = firstRecord; // Dropping the records of the segment, they are read again by the next attempt
+            throw e;
+        }
+        coveredDataFileBlocks = totalBlocksInDatafile;
+    }
+
+    private void appendSegment(int firstRecord, int totalBlocksInDatafile) throws IOException {
+        for (int blockId = coveredDataFileBlocks; blockId < totalBlocksInDatafile; blockId++)
+        {
+            ArrayList<Record> blockRecords = helper.readDataFileSlots(blockId);
+            if (blockRecords == null)
+                throw new IllegalStateException("Could not read block " + blockId + " of the datafile");
+            for (int slot = 0; slot < blockRecords.size(); slot++)
+            {
+                if (blockRecords.get(slot) != null)
+                    add(blockRecords.get(slot), blockId, slot);
+            }
+        }
+        int records = size - firstRecord;
+        ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER_BYTES + records * recordBytes());
+        segment.putInt(coveredDataFileBlocks);
+        segment.putInt(totalBlocksInDatafile - coveredDataFileBlocks);
+        segment.putInt(records);
+        segment.asLongBuffer().put(ids, firstRecord, records);
+        segment.position(segment.position() + records * Long.BYTES);
+        segment.asIntBuffer().put(dataFileBlockIds, firstRecord, records);
+        segment.position(segment.position() + records * Integer.BYTES);
+        segment.asIntBuffer().put(slots, firstRecord, records);
+        segment.position(segment.position() + records * Integer.BYTES);
+        for (double[] column : coordinates)
+        {
+            segment.asDoubleBuffer().put(column, firstRecord, records);
+            segment.position(segment.position() + records * Double.BYTES);
+        }
+        segment.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            long position = sidecarBytes;
+            while (segment.hasRemaining())
+                position += channel.write(segment, position);
+            channel.truncate(position);
+            channel.force(false);
+            writeHeader(channel, totalBlocksInDatafile);
+            channel.force(false);
+            sidecarBytes = position;
+        }
+    }
+
+    private void writeHeader(FileChannel channel, int dataFileBlocks) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC);
+        header.putInt(dimensions);
+        header.putInt(dataFileBlocks);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        return buffer.flip();
+    }
+
+    private int recordBytes() {
+        return Long.BYTES + 2 * Integer.BYTES + dimensions * Double.BYTES;
+    }
+
+    private void readColumns(ByteBuffer segment, int records) {
+        ensureCapacity(size + records);
+        segment.asLongBuffer().get(ids, size, records);
+        segment.position(segment.position() + records * Long.BYTES);
+        segment.asIntBuffer().get(dataFileBlockIds, size, records);
+        segment.position(segment.position() + records * Integer.BYTES);
+        segment.asIntBuffer().get(slots, size, records);
+        segment.position(segment.position() + records * Integer.BYTES);
+        for (double[] column : coordinates)
+        {
+            segment.asDoubleBuffer().get(column, size, records);
+            segment.position(segment.position() + records * Double.BYTES);
+        }
+        size += records;
+    }
+
+    private void add(Record record, int dataFileBlockId, int slot) {
+        ensureCapacity(size + 1);
+        double[] recordCoordinates = record.getCoordinates();
+        ids[size] = record.getId();
+        dataFileBlockIds[size] = dataFileBlockId;
+        slots[size] = slot;
+        for (int d = 0; d < dimensions; d++)
+            coordinates[d][size] = recordCoordinates[d];
+        size++;
+    }
+
+    /**
+     * Grows the columns to hold at least the given records. The columns are replaced rather than changed in place,
+     * so that a scan running on the columns it started with is not affected.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length)
+            return;
+        int newCapacity = Math.max(capacity, 2 * ids.length);
+        ids = Arrays.copyOf(ids, newCapacity);
+        dataFileBlockIds = Arrays.copyOf(dataFileBlockIds, newCapacity);
+        slots = Arrays.copyOf(slots, newCapacity);
+        double[][] newCoordinates = new double[dimensions][];
+        for (int d = 0; d < dimensions; d++)
+            newCoordinates[d] = Arrays.copyOf(coordinates[d], newCapacity);
+        coordinates = newCoordinates;
+    }
+
+    /**
+     * Returns whether the JVM was started with the jdk.incubator.vector module, which the vectorized scans need.
+     */
+    public static boolean isVectorApiAvailable() {
+        return VECTOR_API_AVAILABLE;
+    }
+
+    /**
+     * Returns whether the scans run the loops written with the Vector API rather than the scalar ones.
+     */
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * Chooses between the loops written with the Vector API, used by default when it is available, and the scalar ones.
+     *
+     * @param vectorized Whether the scans should use the Vector API.
+     * @throws IllegalStateException if the Vector API is asked for but the jdk.incubator.vector module is not available.
+     */
+    public void setVectorized(boolean vectorized) {
+        if (vectorized && !VECTOR_API_AVAILABLE)
+            throw new IllegalStateException("The Vector API needs the JVM to be started with --add-modules jdk.incubator.vector");
+        this.vectorized = vectorized;
+    }
+
+    /**
+     * Returns the records in the store.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds every record inside a bounding box, records on its boundary included.
+     * Each chunk of records is filtered a vector of records at a time, or by the scalar loops one dimension at a time
+     * into a mask, so that the loop over a column has no branches.
+     *
+     * @param searchBoundingBox The bounding box of the query.
+     * @return The leaf entries of the records inside the bounding box, in the order of the data file.
+     */
+    public ArrayList<LeafEntry> getDataInBoundingBox(BoundingBox searchBoundingBox) {
+        Columns columns = snapshot();
+        double[] bounds = searchBoundingBox.getBoundsArray();
+        if (bounds.length != 2 * columns.coordinates.length)
+            throw new IllegalArgumentException("The bounding box has " + bounds.length / 2 + " dimensions instead of " + columns.coordinates.length);
+
+        boolean useVectorApi = vectorized;
+        ArrayList<LeafEntry> qualifyingEntries = new ArrayList<>();
+        byte[] mask = new byte[CHUNK];
+        int[] selected = new int[CHUNK];
+        for (int start = 0; start < columns.size; start += CHUNK)
+        {
+            int length = Math.min(CHUNK, columns.size - start);
+            int found = useVectorApi
+                    ? VectorizedScanKernels.selectInBoundingBox(columns.coordinates, bounds, start, length, selected)
+                    : selectInBoundingBox(columns.coordinates, bounds, start, length, mask, selected);
+            for (int i = 0; i < found; i++)
+                qualifyingEntries.add(columns.leafEntry(selected[i]));
+        }
+        return qualifyingEntries;
+    }
+
+    private static int selectInBoundingBox(double[][] coordinates, double[] bounds, int start, int length, byte[] mask, int[] selected) {
+        Arrays.fill(mask, 0, length, (byte) 1);
+        for (int d = 0; d < coordinates.length; d++)
+        {
+            double[] column = coordinates[d];
+            double lower = bounds[2 * d];
+            double upper = bounds[2 * d + 1];
+            for (int i = 0; i < length; i++)
+            {
+                double value = column[start + i];
+                mask[i] &= (byte) ((value >= lower ? 1 : 0) & (value <= upper ? 1 : 0));
+            }
+        }
+        int found = 0;
+        for (int i = 0; i < length; i++)
+        {
+            if (mask[i] != 0)
+                selected[found++] = start + i;
+        }
+        return found;
+    }
+
+    /**
+     * Finds the k records closest to a point. The squared distances of each chunk of records are accumulated one
+     * dimension at a time, a vector of records at a time when the Vector API is used, and only the records closer than the current k-th nearest are pushed to a bounded max-heap.
+     *
+     * @param searchPoint The coordinates of the point.
+     * @param k The number of neighbours.
+     * @return The leaf entries of the k nearest records, closest first.
+     */
+    public ArrayList<LeafEntry> getNearestNeighbours(double[] searchPoint, int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("Parameter 'k' for the nearest neighbours must be a positive integer.");
+        Columns columns = snapshot();
+        if (searchPoint.length != columns.coordinates.length)
+            throw new IllegalArgumentException("The point has " + searchPoint.length + " dimensions instead of " + columns.coordinates.length);
+
+        int neighbours = Math.min(k, columns.size);
+        double[] heapDistances = new double[neighbours]; // Max-heap of the squared distances of the nearest records found so far
+        int[] heapPositions = new int[neighbours];
+        int heapSize = 0;
+        boolean useVectorApi = vectorized;
+        double[] distances = new double[CHUNK];
+        for (int start = 0; start < columns.size && neighbours > 0; start += CHUNK)
+        {
+            int length = Math.min(CHUNK, columns.size - start);
+            if (useVectorApi)
+                VectorizedScanKernels.squaredDistances(columns.coordinates, searchPoint, start, length, distances);
+            else
+                squaredDistances(columns.coordinates, searchPoint, start, length, distances);
+            for (int i = 0; i < length; i++)
+            {
+                if (heapSize < neighbours)
+                {
+                    heapDistances[heapSize] = distances[i];
+                    heapPositions[heapSize] = start + i;
+                    siftUp(heapDistances, heapPositions, heapSize++);
+                }
+                else if (distances[i] < heapDistances[0])
+                {
+                    heapDistances[0] = distances[i];
+                    heapPositions[0] = start + i;
+                    siftDown(heapDistances, heapPositions, heapSize);
+                }
+            }
+        }
+
+        // Taking the farthest out of the heap first, so the entries are filled from the end
+        LeafEntry[] nearestEntries = new LeafEntry[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--)
+        {
+            nearestEntries[i] = columns.leafEntry(heapPositions[0]);
+            heapDistances[0] = heapDistances[i];
+            heapPositions[0] = heapPositions[i];
+            siftDown(heapDistances, heapPositions, i);
+        }
+        return new ArrayList<>(Arrays.asList(nearestEntries));
+    }
+
+    private static void squaredDistances(double[][] coordinates, double[] point, int start, int length, double[] distances) {
+        Arrays.fill(distances, 0, length, 0);
+        for (int d = 0; d < coordinates.length; d++)
+        {
+            double[] column = coordinates[d];
+            double value = point[d];
+            for (int i = 0; i < length; i++)
+            {
+                double difference = column[start + i] - value;
+                distances[i] += difference * difference;
+            }
+        }
+    }
+
+    private static void siftUp(double[] heapDistances, int[] heapPositions, int i) {
+        while (i > 0)
+        {
+            int parent = (i - 1) / 2;
+            if (heapDistances[parent] >= heapDistances[i])
+                return;
+            swap(heapDistances, heapPositions, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(double[] heapDistances, int[] heapPositions, int heapSize) {
+        int i = 0;
+        while (true)
+        {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && heapDistances[left] > heapDistances[largest])
+                largest = left;
+            if (right < heapSize && heapDistances[right] > heapDistances[largest])
+                largest = right;
+            if (largest == i)
+                return;
+            swap(heapDistances, heapPositions, largest, i);
+            i = largest;
+        }
+    }
+
+    private static void swap(double[] heapDistances, int[] heapPositions, int i, int j) {
+        double distance = heapDistances[i];
+        heapDistances[i] = heapDistances[j];
+        heapDistances[j] = distance;
+        int position = heapPositions[i];
+        heapPositions[i] = heapPositions[j];
+        heapPositions[j] = position;
+    }
+
+    private synchronized Columns snapshot() {
+        return new Columns(size, ids, dataFileBlockIds, slots, coordinates);
+    }
+
+    /**
+     * The columns of the store as they were when a scan started.
+     */
+    private static class Columns {
+        private final int size;
+        private final long[] ids;
+        private final int[] dataFileBlockIds;
+        private final int[] slots;
+        private final double[][] coordinates;
+
+        Columns(int size, long[] ids, int[] dataFileBlockIds, int[] slots, double[][] coordinates) {
+            this.size = size;
+            this.ids = ids;
+            this.dataFileBlockIds = dataFileBlockIds;
+            this.slots = slots;
+            this.coordinates = coordinates;
+        }
+
+        LeafEntry leafEntry(int position) {
+            double[] point = new double[coordinates.length];
+            for (int d = 0; d < coordinates.length; d++)
+                point[d] = coordinates[d][position];
+            return new LeafEntry(ids[position], dataFileBlockIds[position], slots[position], BoundingBox.ofPoint(point));
+        }
+    }
+}
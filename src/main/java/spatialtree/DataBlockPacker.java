@@ -0,0 +1,47 @@
+package main.java.spatialtree;
+
+import java.util.ArrayList;
+
+/**
+ * Collects records into the block of the data file that is being filled, keeping track of the exact size
+ * the block will have once encoded as a slotted page: its header plus the slot and the bytes of every record.
+ */
+class DataBlockPacker {
+    private ArrayList<Record> blockRecords = new ArrayList<>();
+    private int blockBytes = DataPageCodec.HEADER_BYTES; // The encoded size of the block with the records added so far
+
+    /**
+     * Adds a record to the block, if the block still has room for it.
+     *
+     * @param record The record to add.
+     * @return false if the record does not fit, in which case the block is left unchanged.
+     */
+    boolean add(Record record) {
+        int recordBytes = DataPageCodec.bytesWithSlot(record);
+        if (blockBytes + recordBytes > helper.BLOCK_SIZE)
+        {
+            if (blockRecords.isEmpty())
+                throw new IllegalStateException("Record " + record.getId() + " does not fit in a block of " + helper.BLOCK_SIZE + " bytes");
+            return false;
+        }
+        blockRecords.add(record);
+        blockBytes += recordBytes;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return blockRecords.isEmpty();
+    }
+
+    /**
+     * Returns the records of the filled block and starts a new empty one.
+     *
+     * @return The records of the block.
+     */
+    ArrayList<Record> takeBlock() {
+        ArrayList<Record> filledBlock = blockRecords;
+        blockRecords = new ArrayList<>();
+        blockBytes = DataPageCodec.HEADER_BYTES;
+        return filledBlock;
+    }
+}
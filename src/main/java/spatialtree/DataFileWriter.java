@@ -0,0 +1,42 @@
+package main.java.spatialtree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Appends blocks to the data file through its block store.
+ * The metadata block is written once, when the writer is closed, instead of after every block,
+ * and so are the locations of the appended records to the record id index.
+ */
+class DataFileWriter implements Closeable {
+    private final BlockStore dataFileStore = helper.storeOf(helper.PATH_TO_DATAFILE);
+    private final int firstBlockId = helper.getTotalBlocksInDatafile();
+    private final RecordIdIndex.Locations locations = new RecordIdIndex.Locations();
+
+    /**
+     * Encodes the records into a new block and appends it to the data file.
+     *
+     * @param blockRecords The records of the block.
+     * @return The id of the written block.
+     * @throws IOException if the block cannot be written.
+     */
+    int append(ArrayList<Record> blockRecords) throws IOException {
+        int blockId = helper.getTotalBlocksInDatafile();
+        dataFileStore.write(blockId, helper.encodeDataFileBlock(blockRecords));
+        helper.updateMetaData(helper.PATH_TO_DATAFILE);
+        locations.addBlock(blockRecords, blockId);
+        return blockId;
+    }
+
+    /**
+     * Writes the metadata of the data file, indexes the appended records and flushes the store of the data file.
+     */
+    @Override
+    public void close() throws IOException {
+        helper.flushMetaData();
+        if (locations.size() > 0)
+            helper.indexDataFileBlocks(locations, firstBlockId);
+        dataFileStore.flush();
+    }
+}
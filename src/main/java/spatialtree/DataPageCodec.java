@@ -0,0 +1,305 @@
+package main.java.spatialtree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the blocks of the data file as slotted pages.
+ * A block starts with a header and a directory of slots, one per record, while the records themselves are packed
+ * from the end of the block towards the directory. A record is addressed by its block and slot, so it is decoded
+ * on its own from the offset its slot points to, without touching the other records of the block, and it can be
+ * updated or deleted in place. A deleted record leaves its slot empty, so the slots of the other records never change.
+ * <pre>
+ * header : slot count (int), offset of the first byte of the record area (int)
+ * slots  : for every slot, the offset (unsigned short) and length (unsigned short) of its record, length 0 if empty
+ * records: id (long), coordinates (double per dimension), name length (unsigned short, NULL_NAME for null), name (UTF-8)
+ * </pre>
+ */
+final class DataPageCodec {
+    static final int HEADER_BYTES = 2 * Integer.BYTES; // slot count, start of the record area
+    static final int SLOT_BYTES = 2 * Short.BYTES; // offset, length
+    private static final int NULL_NAME = 0xFFFF; // The name length of a record without a name
+    private static final int MAX_NAME_BYTES = NULL_NAME - 1;
+
+    private DataPageCodec() {
+    }
+
+    /**
+     * Returns the bytes a record occupies in the record area of a block, without its slot.
+     *
+     * @param record The record.
+     * @return The encoded size of the record.
+     */
+    static int recordBytes(Record record) {
+        return Long.BYTES + helper.dataDimensions * Double.BYTES + Short.BYTES + nameBytes(record).length;
+    }
+
+    /**
+     * Returns the bytes a record takes from the free space of a block, its slot included.
+     *
+     * @param record The record.
+     * @return The encoded size of the record and its slot.
+     */
+    static int bytesWithSlot(Record record) {
+        return SLOT_BYTES + recordBytes(record);
+    }
+
+    private static byte[] nameBytes(Record record) {
+        if (record.getName() == null)
+            return new byte[0];
+        byte[] name = record.getName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES)
+            throw new IllegalArgumentException("The name of record " + record.getId() + " is longer than " + MAX_NAME_BYTES + " bytes");
+        return name;
+    }
+
+    /**
+     * Encodes a list of records into a new block of the data file, each record getting the slot of its position in the list.
+     *
+     * @param blockRecords The records of the block.
+     * @return A byte array of BLOCK_SIZE bytes holding the records.
+     */
+    static byte[] encode(List<Record> blockRecords) {
+        int bytes = HEADER_BYTES;
+        for (Record record : blockRecords)
+            bytes += bytesWithSlot(record);
+        if (bytes > helper.BLOCK_SIZE)
+            throw new IllegalStateException("The " + blockRecords.size() + " records do not fit in a block of " + helper.BLOCK_SIZE + " bytes");
+
+        byte[] block = new byte[helper.BLOCK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        int recordAreaStart = helper.BLOCK_SIZE;
+        for (int slot = 0; slot < blockRecords.size(); slot++)
+        {
+            Record record = blockRecords.get(slot);
+            int length = recordBytes(record);
+            recordAreaStart -= length;
+            writeRecord(buffer, recordAreaStart, record);
+            writeSlot(buffer, slot, recordAreaStart, length);
+        }
+        buffer.putInt(0, blockRecords.size());
+        buffer.putInt(Integer.BYTES, recordAreaStart);
+        return block;
+    }
+
+    /**
+     * Decodes the records of a block.
+     *
+     * @param block The buffer holding the block, positioned at its start.
+     * @return The records of the block in the order of their slots, without the empty slots.
+     */
+    static ArrayList<Record> decode(ByteBuffer block) {
+        ArrayList<Record> records = decodeSlots(block);
+        records.removeIf(record -> record == null);
+        return records;
+    }
+
+    /**
+     * Decodes the records of a block keeping them at the index of their slot.
+     *
+     * @param block The buffer holding the block, positioned at its start.
+     * @return The record of every slot of the block, null for the empty slots.
+     */
+    static ArrayList<Record> decodeSlots(ByteBuffer block) {
+        ByteBuffer page = block.slice();
+        int slotCount = slotCount(page);
+        ArrayList<Record> records = new ArrayList<>(slotCount);
+        for (int slot = 0; slot < slotCount; slot++)
+            records.add(decodeRecord(page, slot));
+        return records;
+    }
+
+    /**
+     * Decodes a single record of a block, reading only its slot and its bytes.
+     *
+     * @param block The buffer holding the block, positioned at its start.
+     * @param slot The slot of the record.
+     * @return The record, or null if the slot is empty or outside of the directory.
+     */
+    static Record decodeRecord(ByteBuffer block, int slot) {
+        ByteBuffer page = block.position() == 0 ? block : block.slice();
+        if (slot < 0 || slot >= slotCount(page))
+            return null;
+        int length = slotLength(page, slot);
+        if (length == 0)
+            return null;
+        return readRecord(page, slotOffset(page, slot));
+    }
+
+    static int slotCount(ByteBuffer page) {
+        int slotCount = page.getInt(0);
+        if (slotCount < 0 || HEADER_BYTES + slotCount * SLOT_BYTES > page.limit())
+            throw new IllegalStateException("Corrupted data block with " + slotCount + " slots");
+        return slotCount;
+    }
+
+    static int slotOffset(ByteBuffer page, int slot) {
+        return Short.toUnsignedInt(page.getShort(HEADER_BYTES + slot * SLOT_BYTES));
+    }
+
+    static int slotLength(ByteBuffer page, int slot) {
+        return Short.toUnsignedInt(page.getShort(HEADER_BYTES + slot * SLOT_BYTES + Short.BYTES));
+    }
+
+    /**
+     * Decodes a record from its bytes.
+     *
+     * @param page The buffer holding the record.
+     * @param offset The offset of the record in the buffer.
+     * @return The decoded record.
+     */
+    static Record readRecord(ByteBuffer page, int offset) {
+        long id = page.getLong(offset);
+        offset += Long.BYTES;
+        ArrayList<Double> coordinates = new ArrayList<>(helper.dataDimensions);
+        for (int d = 0; d < helper.dataDimensions; d++)
+        {
+            coordinates.add(page.getDouble(offset));
+            offset += Double.BYTES;
+        }
+        int nameLength = Short.toUnsignedInt(page.getShort(offset));
+        offset += Short.BYTES;
+        String name = null;
+        if (nameLength != NULL_NAME)
+        {
+            byte[] nameBytes = new byte[nameLength];
+            page.get(offset, nameBytes);
+            name = new String(nameBytes, StandardCharsets.UTF_8);
+        }
+        return new Record(id, name, coordinates);
+    }
+
+    private static void writeRecord(ByteBuffer page, int offset, Record record) {
+        double[] coordinates = record.getCoordinates();
+        if (coordinates.length != helper.dataDimensions)
+            throw new IllegalArgumentException("Record " + record.getId() + " has " + coordinates.length + " coordinates instead of " + helper.dataDimensions);
+        page.putLong(offset, record.getId());
+        offset += Long.BYTES;
+        for (double coordinate : coordinates)
+        {
+            page.putDouble(offset, coordinate);
+            offset += Double.BYTES;
+        }
+        byte[] name = nameBytes(record);
+        page.putShort(offset, (short) (record.getName() == null ? NULL_NAME : name.length));
+        page.put(offset + Short.BYTES, name);
+    }
+
+    private static void writeSlot(ByteBuffer page, int slot, int offset, int length) {
+        page.putShort(HEADER_BYTES + slot * SLOT_BYTES, (short) offset);
+        page.putShort(HEADER_BYTES + slot * SLOT_BYTES + Short.BYTES, (short) length);
+    }
+
+    /**
+     * Replaces the record of a slot. The record is rewritten in place when it is not longer than the old one,
+     * otherwise it is written to the free space of the block, compacting the record area first if needed.
+     *
+     * @param block The bytes of the block, changed in place.
+     * @param slot The slot of the record.
+     * @param record The new record.
+     * @return false if the slot is empty or the record does not fit in the block, in which case the block is left unchanged.
+     */
+    static boolean update(byte[] block, int slot, Record record) {
+        ByteBuffer page = ByteBuffer.wrap(block);
+        if (slot < 0 || slot >= slotCount(page) || slotLength(page, slot) == 0)
+            return false;
+        int length = recordBytes(record);
+        if (length <= slotLength(page, slot))
+        {
+            writeRecord(page, slotOffset(page, slot), record);
+            writeSlot(page, slot, slotOffset(page, slot), length);
+            return true;
+        }
+        if (freeBytes(page) + slotLength(page, slot) < length)
+            return false;
+        if (freeBytes(page) < length)
+        {
+            writeSlot(page, slot, slotOffset(page, slot), 0); // The old record is dropped by the compaction
+            compact(page);
+        }
+        int recordAreaStart = page.getInt(Integer.BYTES) - length;
+        writeRecord(page, recordAreaStart, record);
+        writeSlot(page, slot, recordAreaStart, length);
+        page.putInt(Integer.BYTES, recordAreaStart);
+        return true;
+    }
+
+    /**
+     * Adds a record to a block in a new slot, compacting the record area first if needed.
+     *
+     * @param block The bytes of the block, changed in place.
+     * @param record The record to add.
+     * @return The slot of the record, or -1 if it does not fit in the block, in which case the block is left unchanged.
+     */
+    static int append(byte[] block, Record record) {
+        ByteBuffer page = ByteBuffer.wrap(block);
+        int slotCount = slotCount(page);
+        int length = recordBytes(record);
+        if (freeBytes(page) < SLOT_BYTES + length)
+        {
+            int usedBytes = 0;
+            for (int slot = 0; slot < slotCount; slot++)
+                usedBytes += slotLength(page, slot);
+            if (HEADER_BYTES + (slotCount + 1) * SLOT_BYTES + usedBytes + length > page.limit())
+                return -1;
+            compact(page);
+        }
+        int recordAreaStart = page.getInt(Integer.BYTES) - length;
+        writeRecord(page, recordAreaStart, record);
+        writeSlot(page, slotCount, recordAreaStart, length);
+        page.putInt(0, slotCount + 1);
+        page.putInt(Integer.BYTES, recordAreaStart);
+        return slotCount;
+    }
+
+    /**
+     * Deletes the record of a slot, leaving the slot empty. Its bytes are reclaimed by the next compaction of the block.
+     *
+     * @param block The bytes of the block, changed in place.
+     * @param slot The slot of the record.
+     * @return false if the slot was already empty.
+     */
+    static boolean delete(byte[] block, int slot) {
+        ByteBuffer page = ByteBuffer.wrap(block);
+        if (slot < 0 || slot >= slotCount(page) || slotLength(page, slot) == 0)
+            return false;
+        writeSlot(page, slot, slotOffset(page, slot), 0);
+        return true;
+    }
+
+    /**
+     * Returns the bytes between the slot directory and the record area.
+     */
+    private static int freeBytes(ByteBuffer page) {
+        return page.getInt(Integer.BYTES) - (HEADER_BYTES + slotCount(page) * SLOT_BYTES);
+    }
+
+    /**
+     * Packs the records of the non empty slots against the end of the block, so that the bytes of
+     * deleted and moved records become free space. The records keep their slots.
+     */
+    private static void compact(ByteBuffer page) {
+        int slotCount = slotCount(page);
+        byte[][] records = new byte[slotCount][];
+        for (int slot = 0; slot < slotCount; slot++)
+        {
+            int length = slotLength(page, slot);
+            if (length == 0)
+                continue;
+            records[slot] = new byte[length];
+            page.get(slotOffset(page, slot), records[slot]);
+        }
+        int recordAreaStart = page.limit();
+        for (int slot = 0; slot < slotCount; slot++)
+        {
+            if (records[slot] == null)
+                continue;
+            recordAreaStart -= records[slot].length;
+            page.put(recordAreaStart, records[slot]);
+            writeSlot(page, slot, recordAreaStart, records[slot].length);
+        }
+        page.putInt(Integer.BYTES, recordAreaStart);
+    }
+}
@@ -47,6 +47,11 @@ public class Entry implements Serializable {
         return boundingBox;
     }
 
+    /**
+     * Returns the bounds of the entry's bounding box as a list of Bounds, allocated on every call.
+     *
+     * @return ArrayList of Bounds, one for each dimension.
+     */
     public ArrayList<Bounds> getBoundingBoxArray() {
         return boundingBox.getBounds();
     }
@@ -60,7 +65,7 @@ public class Entry implements Serializable {
      * @param entries The entries to be enclosed by the bounding box.
      */
     void adjustBBToFitEntries(ArrayList<Entry> entries){
-        boundingBox = new BoundingBox(Bounds.findMinimumBounds(entries));
+        boundingBox = BoundingBox.enclosing(entries);
     }
     /**
      * Adjusts the bounding box to include another entry's bounding box.
@@ -68,7 +73,7 @@ public class Entry implements Serializable {
      * @param entryToInclude The entry to be included in the bounding box.
      */
     void adjustBBToFitEntry(Entry entryToInclude){
-        boundingBox = new BoundingBox(Bounds.findMinimumBounds(boundingBox,entryToInclude.getBoundingBox()));
+        boundingBox = BoundingBox.enclosing(boundingBox,entryToInclude.getBoundingBox());
     }
 
     public boolean isLeaf() {
@@ -8,6 +8,8 @@ import java.util.List;
 /**
  * A class containing multiple comparators for sorting or comparing Entry objects based on various criteria.
  * These are used in the context of managing entries in the R*-tree.
+ * Comparison values that are cheap to compute are calculated on the fly with the BoundingBox kernels,
+ * instead of being boxed into maps.
  */
 public class EntryComparator {
     /**
@@ -15,40 +17,44 @@ public class EntryComparator {
      */
     static class EntryBoundComparator implements Comparator<Entry>
     {
-        // Hash-map  used for mapping the comparison value of the Entries during the compare method
-        // Key of the hash-map is the given Entry
-        // Value of the hash-map is the given Entry's bound (either upper or lower)
-        private HashMap<Entry,Double> entryComparisonMap;
+        private final int boundIndex; // Position of the compared bound in the interleaved bounds array
 
         /**
-         * Constructs the comparator by mapping each entry to its bound value for comparison.
+         * Constructs the comparator for the given bound of a dimension.
          *
-         * @param entriesToCompare A list of entries to compare.
          * @param dimension        The dimension along which to compare the entries.
          * @param compareByUpper   Whether to compare by the upper bound (true) or lower bound (false).
          */
-        EntryBoundComparator(List<Entry> entriesToCompare, int dimension, boolean compareByUpper)
+        EntryBoundComparator(int dimension, boolean compareByUpper)
         {
-            // Initialising hash-map
-            this.entryComparisonMap = new HashMap<>();
-            // If the comparison is based on the upper bound
-            if (compareByUpper)
-            {
-                for (Entry entry : entriesToCompare)
-                    entryComparisonMap.put(entry,entry.getBoundingBox().getBounds().get(dimension).getUpper());
-            }
-            // else if the comparison is based on the lower bound
-            else
-            {
-                for (Entry entry : entriesToCompare)
-                    entryComparisonMap.put(entry,entry.getBoundingBox().getBounds().get(dimension).getLower());
-            }
+            this.boundIndex = compareByUpper ? 2 * dimension + 1 : 2 * dimension;
         }
 
         @Override
         public int compare(Entry entryA, Entry entryB)
         {
-            return Double.compare(entryComparisonMap.get(entryA),entryComparisonMap.get(entryB));
+            return Double.compare(entryA.getBoundingBox().getBoundsArray()[boundIndex], entryB.getBoundingBox().getBoundsArray()[boundIndex]);
+        }
+    }
+    /**
+     * A comparator that compares two entries based on the center of their bounding box in a dimension.
+     */
+    static class EntryCenterComparator implements Comparator<Entry>
+    {
+        private final int dimension; // The dimension along which to compare the entries
+
+        EntryCenterComparator(int dimension)
+        {
+            this.dimension = dimension;
+        }
+
+        @Override
+        public int compare(Entry entryA, Entry entryB)
+        {
+            BoundingBox boundingBoxA = entryA.getBoundingBox();
+            BoundingBox boundingBoxB = entryB.getBoundingBox();
+            return Double.compare(boundingBoxA.getLower(dimension) + boundingBoxA.getUpper(dimension),
+                    boundingBoxB.getLower(dimension) + boundingBoxB.getUpper(dimension));
         }
     }
     /**
@@ -57,36 +63,20 @@ public class EntryComparator {
      */
     static class EntryAreaEnlargementComparator implements Comparator<Entry>
     {
-        // Hash-map used for mapping the comparison value of the Entries during the compare method
-        // First value of the ArrayList is the area of the bounding box
-        // Second value of the ArrayList is the area enlargement of the specific Entry
-        private HashMap<Entry,ArrayList<Double>> entryComparisonMap;
+        private final double[] boundsToAdd; // The bounds of the bounding box to add
 
-        EntryAreaEnlargementComparator(List<Entry> entriesToCompare, BoundingBox boundingBoxToAdd)
+        EntryAreaEnlargementComparator(BoundingBox boundingBoxToAdd)
         {
-            // Initialising Hash-map
-            this.entryComparisonMap = new HashMap<>();
-            for (Entry entry : entriesToCompare)
-            {
-                BoundingBox entryNewBB = new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(),boundingBoxToAdd));
-                ArrayList<Double> values = new ArrayList<>();
-                values.add(entry.getBoundingBox().getArea()); // First value of the ArrayList is the area of the bounding box
-                double areaEnlargement = entryNewBB.getArea() - entry.getBoundingBox().getArea();
-                if (areaEnlargement < 0)
-                    throw new IllegalStateException("The enlargement cannot be a negative number");
-                values.add(areaEnlargement); // Second value of the ArrayList is the area enlargement of the specific Entry
-                entryComparisonMap.put(entry,values);
-            }
-
+            this.boundsToAdd = boundingBoxToAdd.getBoundsArray();
         }
 
         @Override
         public int compare(Entry entryA, Entry entryB) {
-            double areaEnlargementA = entryComparisonMap.get(entryA).get(1);
-            double areaEnlargementB = entryComparisonMap.get(entryB).get(1);
+            double areaEnlargementA = BoundingBox.areaEnlargement(entryA.getBoundingBox().getBoundsArray(), boundsToAdd);
+            double areaEnlargementB = BoundingBox.areaEnlargement(entryB.getBoundingBox().getBoundsArray(), boundsToAdd);
             // Resolve ties by choosing the entry with the rectangle of smallest area
             if (areaEnlargementA == areaEnlargementB)
-                return Double.compare(entryComparisonMap.get(entryA).get(0),entryComparisonMap.get(entryB).get(0));
+                return Double.compare(entryA.getBoundingBox().getArea(),entryB.getBoundingBox().getArea());
             else
                 return Double.compare(areaEnlargementA,areaEnlargementB);
         }
@@ -97,8 +87,9 @@ public class EntryComparator {
      */
     static class EntryOverlapEnlargementComparator implements Comparator<Entry>
     {
-        private BoundingBox boundingBoxToAdd; // The bounding box to add
-        private ArrayList<Entry> nodeEntries; // All the entries of the Node
+        private final double[] boundsToAdd; // The bounds of the bounding box to add
+        private final ArrayList<Entry> nodeEntries; // All the entries of the Node
+        private final EntryAreaEnlargementComparator areaEnlargementComparator; // Used to resolve ties
 
         // Hash-map used for mapping the comparison value of the Entries during the compare method
         // Key of the hash-map is the given Entry
@@ -106,17 +97,15 @@ public class EntryComparator {
         private HashMap<Entry,Double> entryComparisonMap;
         EntryOverlapEnlargementComparator(List<Entry> entriesToCompare, BoundingBox boundingBoxToAdd, ArrayList<Entry> nodeEntries)
         {
-            this.boundingBoxToAdd = boundingBoxToAdd;
+            this.boundsToAdd = boundingBoxToAdd.getBoundsArray();
             this.nodeEntries = nodeEntries;
+            this.areaEnlargementComparator = new EntryAreaEnlargementComparator(boundingBoxToAdd);
 
             // Initialising Hash-map
             this.entryComparisonMap = new HashMap<>();
             for (Entry entry : entriesToCompare)
             {
-                double overlapEntry = calculateEntryOverlapValue(entry, entry.getBoundingBox());
-                Entry newEntry = new Entry(new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(),boundingBoxToAdd))); // The entry's bounding box after it includes the new bounding box
-                double overlapNewEntry = calculateEntryOverlapValue(entry, newEntry.getBoundingBox()); // Using the previous entry signature in order to check for equality
-                double overlapEnlargementEntry = overlapNewEntry - overlapEntry ;
+                double overlapEnlargementEntry = calculateEntryOverlapEnlargement(entry);
 
                 if (overlapEnlargementEntry < 0)
                     throw new IllegalStateException("The enlargement cannot be a negative number");
@@ -132,24 +121,27 @@ public class EntryComparator {
             // Resolve ties by choosing the entry whose rectangle needs least area enlargement, then
             // the entry with the rectangle of smallest area (which is included in the EntryAreaEnlargementComparator)
             if (overlapEnlargementEntryA == overlapEnlargementEntryB)
-            {   ArrayList<Entry> entriesToCompare = new ArrayList<>();
-                entriesToCompare.add(entryA);
-                entriesToCompare.add(entryB);
-                return new EntryAreaEnlargementComparator(entriesToCompare,boundingBoxToAdd).compare(entryA,entryB);
-            }
+                return areaEnlargementComparator.compare(entryA,entryB);
             else
                 return Double.compare(overlapEnlargementEntryA,overlapEnlargementEntryB);
         }
 
-        // Calculates and returns the overlap value of the given entry with the other node entries
-        double calculateEntryOverlapValue(Entry entry, BoundingBox boundingBox){
-            double sum = 0;
+        // Calculates and returns how much the overlap of the given entry with the other node entries
+        // grows when its bounding box includes the new bounding box
+        double calculateEntryOverlapEnlargement(Entry entry){
+            double[] entryBounds = entry.getBoundingBox().getBoundsArray();
+            double overlapEntry = 0;
+            double overlapNewEntry = 0;
             for (Entry nodeEntry : nodeEntries)
             {
                 if (nodeEntry != entry)
-                    sum += BoundingBox.calculateOverlapValue(boundingBox,nodeEntry.getBoundingBox());
+                {
+                    double[] nodeEntryBounds = nodeEntry.getBoundingBox().getBoundsArray();
+                    overlapEntry += BoundingBox.overlapArea(entryBounds, nodeEntryBounds);
+                    overlapNewEntry += BoundingBox.unionOverlapArea(entryBounds, boundsToAdd, nodeEntryBounds);
+                }
             }
-            return sum;
+            return overlapNewEntry - overlapEntry;
         }
     }
     /**
@@ -157,23 +149,17 @@ public class EntryComparator {
      */
     static class EntryDistanceFromCenterComparator implements Comparator<Entry>
     {
-        // Hash-map  used for mapping the comparison value of the Entries during the compare method
-        // Key of the hash-map is the given Entry
-        // Value of the hash-map is the given Entry's BoundingBox distance from the given BoundingBox
-        private HashMap<Entry,Double> entryComparisonMap;
+        private final double[] bounds; // The bounds of the bounding box whose center is used
 
 
-        EntryDistanceFromCenterComparator(List<Entry>entriesToCompare, BoundingBox boundingBox) {
-            // Initialising Hash-map
-            this.entryComparisonMap = new HashMap<>();
-
-            for (Entry entry : entriesToCompare)
-                entryComparisonMap.put(entry,BoundingBox.findDistanceBetweenBoundingBoxes(entry.getBoundingBox(),boundingBox));
+        EntryDistanceFromCenterComparator(BoundingBox boundingBox) {
+            this.bounds = boundingBox.getBoundsArray();
         }
         @Override
         public int compare(Entry entryA, Entry entryB)
         {
-            return Double.compare(entryComparisonMap.get(entryA),entryComparisonMap.get(entryB));
+            return Double.compare(BoundingBox.centerDistanceSquared(entryA.getBoundingBox().getBoundsArray(), bounds),
+                    BoundingBox.centerDistanceSquared(entryB.getBoundingBox().getBoundsArray(), bounds));
         }
     }
     /**
@@ -181,22 +167,16 @@ public class EntryComparator {
      */
     public static class EntryDistanceFromPointComparator implements Comparator<Entry>
     {
-        // Hash-map  used for mapping the comparison value of the Entries during the compare method
-        // Key of the hash-map is the given Entry
-        // Value of the hash-map is the given Entry's BoundingBox distance from the given point
-        private HashMap<Entry,Double> entryComparisonMap;
+        private final double[] point; // The coordinates of the point
 
-        public EntryDistanceFromPointComparator(List<Entry> entriesToCompare, ArrayList<Double> point) {
-            // Initialising Hash-map
-            this.entryComparisonMap = new HashMap<>();
-
-            for (Entry entry : entriesToCompare)
-                entryComparisonMap.put(entry,entry.getBoundingBox().findMinDistanceFromPoint(point));
+        public EntryDistanceFromPointComparator(double[] point) {
+            this.point = point;
         }
         @Override
         public int compare(Entry entryA, Entry entryB)
         {
-            return Double.compare(entryComparisonMap.get(entryA),entryComparisonMap.get(entryB));
+            return Double.compare(BoundingBox.minDistanceSquared(entryA.getBoundingBox().getBoundsArray(), point),
+                    BoundingBox.minDistanceSquared(entryB.getBoundingBox().getBoundsArray(), point));
         }
     }
 }
@@ -0,0 +1,33 @@
+package main.java.spatialtree;
+/**
+ * Class used to pair an Entry object with the Hilbert value of its bounding box's center.
+ * This pairing is used for sorting entries along the Hilbert curve when bulk loading the tree.
+ */
+class EntryHilbertValuePair implements Comparable<EntryHilbertValuePair> {
+    private Entry entry; // The Entry object
+    private long hilbertValue; // The position of the entry's center on the Hilbert curve
+
+    /**
+     * Constructor for the EntryHilbertValuePair class.
+     *
+     * @param entry The Entry object.
+     * @param hilbertValue The Hilbert value associated with the entry.
+     */
+    EntryHilbertValuePair(Entry entry, long hilbertValue) {
+        this.entry = entry;
+        this.hilbertValue = hilbertValue;
+    }
+
+    Entry getEntry() {
+        return entry;
+    }
+
+    long getHilbertValue() {
+        return hilbertValue;
+    }
+
+    @Override
+    public int compareTo(EntryHilbertValuePair pairB) {
+        return Long.compare(this.hilbertValue, pairB.hilbertValue);
+    }
+}
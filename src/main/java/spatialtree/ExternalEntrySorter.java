@@ -0,0 +1,271 @@
+package main.java.spatialtree;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the leaf entries of all the records of the datafile with an external merge sort,
+ * so that a tree can be bulk loaded from datasets that do not fit in memory.
+ * The records are read block by block and collected into runs of at most maxEntriesInMemory entries,
+ * each run is sorted and written to a temporary file, and the runs are then merged while being iterated.
+ * Only one run and a read buffer per run are ever held in memory.
+ * Entries are ordered by a single key, either the x coordinate (SORT_X) or the Hilbert value (HILBERT).
+ */
+class ExternalEntrySorter implements Iterator<LeafEntry>, Closeable {
+    private static final int RUN_BUFFER_SIZE = 64 * 1024; // Bytes buffered for each run file while writing or merging
+
+    private final BulkLoadingRStarTree.PackingStrategy packingStrategy;
+    private final int maxEntriesInMemory; // The maximum number of entries of a single run
+    private final int dimensions;
+    private final ArrayList<Path> runFiles = new ArrayList<>();
+    private final PriorityQueue<RunReader> mergeQueue = new PriorityQueue<>();
+    private BoundingBox extent; // The extent of all the records, used for the Hilbert grid
+
+    /**
+     * Constructor of the sorter, which reads the whole datafile and writes its sorted runs.
+     *
+     * @param packingStrategy The order of the entries, SORT_X or HILBERT.
+     * @param maxEntriesInMemory The maximum number of entries kept in memory while creating a run.
+     * @throws IOException if a run file cannot be written or read.
+     */
+    ExternalEntrySorter(BulkLoadingRStarTree.PackingStrategy packingStrategy, int maxEntriesInMemory) throws IOException {
+        if (packingStrategy != BulkLoadingRStarTree.PackingStrategy.SORT_X && packingStrategy != BulkLoadingRStarTree.PackingStrategy.HILBERT)
+            throw new IllegalArgumentException("External sorting only supports the SORT_X and HILBERT packing strategies");
+        if (maxEntriesInMemory <= 0)
+            throw new IllegalArgumentException("The entries kept in memory must be a positive number");
+        this.packingStrategy = packingStrategy;
+        this.maxEntriesInMemory = maxEntriesInMemory;
+        this.dimensions = helper.getDataDimensions();
+
+        try {
+            if (packingStrategy == BulkLoadingRStarTree.PackingStrategy.HILBERT)
+                extent = findExtentOfDataFile();
+            writeSortedRuns();
+            for (Path runFile : runFiles)
+            {
+                RunReader runReader = new RunReader(runFile);
+                if (runReader.advance())
+                    mergeQueue.add(runReader);
+                else
+                    runReader.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the bounding box of all the records of the datafile, reading one block at a time.
+     */
+    private BoundingBox findExtentOfDataFile() {
+        double[] bounds = null;
+        for (int i = 1; i < helper.getTotalBlocksInDatafile(); i++)
+        {
+            for (Record record : readDataFileBlock(i))
+            {
+                if (record == null)
+                    continue;
+                double[] recordBounds = BoundingBox.ofPoint(record.getCoordinates()).getBoundsArray();
+                if (bounds == null)
+                    bounds = recordBounds;
+                else
+                    BoundingBox.include(bounds, recordBounds);
+            }
+        }
+        return bounds == null ? null : new BoundingBox(bounds);
+    }
+
+    /**
+     * Reads the datafile block by block, writing a sorted run every time maxEntriesInMemory entries are collected.
+     */
+    private void writeSortedRuns() throws IOException {
+        ArrayList<SortEntry> run = new ArrayList<>();
+        for (int i = 1; i < helper.getTotalBlocksInDatafile(); i++)
+        {
+            ArrayList<Record> records = readDataFileBlock(i);
+            for (int slot = 0; slot < records.size(); slot++)
+            {
+                Record record = records.get(slot);
+                if (record == null)
+                    continue;
+                double[] point = record.getCoordinates();
+                run.add(new SortEntry(sortKey(point), record.getId(), i, slot, point));
+                if (run.size() == maxEntriesInMemory)
+                {
+                    writeRun(run);
+                    run.clear();
+                }
+            }
+        }
+        if (!run.isEmpty())
+            writeRun(run);
+    }
+
+    /**
+     * Reads a block of the datafile keeping every record at the index of its slot, null for the empty slots.
+     */
+    private static ArrayList<Record> readDataFileBlock(int blockId) {
+        ArrayList<Record> records = helper.readDataFileSlots(blockId);
+        if (records == null)
+            throw new IllegalStateException("Could not read records properly from the datafile");
+        return records;
+    }
+
+    /**
+     * Calculates the key a point is sorted by.
+     * The x coordinate is mapped to a long that keeps the order of the doubles.
+     */
+    private long sortKey(double[] point) {
+        if (packingStrategy == BulkLoadingRStarTree.PackingStrategy.HILBERT)
+            return HilbertCurve.indexOfPoint(point, extent);
+        long bits = Double.doubleToLongBits(point[0]);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * Sorts the run and writes it to a new temporary file, next to the index file.
+     */
+    private void writeRun(ArrayList<SortEntry> run) throws IOException {
+        run.sort(null);
+        Path directory = Paths.get(helper.PATH_TO_INDEXFILE).toAbsolutePath().getParent();
+        Path runFile = Files.createTempFile(directory, "bulkload-run-", ".tmp");
+        runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), RUN_BUFFER_SIZE))) {
+            for (SortEntry sortEntry : run)
+            {
+                out.writeLong(sortEntry.key);
+                out.writeLong(sortEntry.recordId);
+                out.writeInt(sortEntry.dataFileBlockId);
+                out.writeShort(sortEntry.slot);
+                for (double coordinate : sortEntry.point)
+                    out.writeDouble(coordinate);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !mergeQueue.isEmpty();
+    }
+
+    /**
+     * Returns the next entry in sorted order, taking the smallest head of all the runs.
+     */
+    @Override
+    public LeafEntry next() {
+        RunReader runReader = mergeQueue.poll();
+        if (runReader == null)
+            throw new NoSuchElementException();
+        LeafEntry leafEntry = new LeafEntry(runReader.head.recordId, runReader.head.dataFileBlockId, runReader.head.slot, BoundingBox.ofPoint(runReader.head.point));
+        try {
+            if (runReader.advance())
+                mergeQueue.add(runReader);
+            else
+                runReader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return leafEntry;
+    }
+
+    int getNumberOfRuns() {
+        return runFiles.size();
+    }
+
+    /**
+     * Closes the readers of the runs and deletes the run files.
+     */
+    @Override
+    public void close() {
+        for (RunReader runReader : mergeQueue)
+            runReader.close();
+        mergeQueue.clear();
+        for (Path runFile : runFiles)
+        {
+            try {
+                Files.deleteIfExists(runFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * An entry of a run, holding what is needed to create its LeafEntry.
+     */
+    private static class SortEntry implements Comparable<SortEntry> {
+        private final long key;
+        private final long recordId;
+        private final int dataFileBlockId;
+        private final int slot;
+        private final double[] point;
+
+        SortEntry(long key, long recordId, int dataFileBlockId, int slot, double[] point) {
+            this.key = key;
+            this.recordId = recordId;
+            this.dataFileBlockId = dataFileBlockId;
+            this.slot = slot;
+            this.point = point;
+        }
+
+        @Override
+        public int compareTo(SortEntry entryB) {
+            return Long.compare(this.key, entryB.key);
+        }
+    }
+
+    /**
+     * Reads the entries of a run file sequentially, keeping the next one as the head of the run.
+     */
+    private class RunReader implements Comparable<RunReader> {
+        private final DataInputStream in;
+        private SortEntry head;
+
+        RunReader(Path runFile) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), RUN_BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next entry of the run into the head.
+         * @return false if the run has no more entries.
+         */
+        boolean advance() throws IOException {
+            long key;
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                head = null;
+                return false;
+            }
+            long recordId = in.readLong();
+            int dataFileBlockId = in.readInt();
+            int slot = in.readUnsignedShort();
+            double[] point = new double[dimensions];
+            for (int d = 0; d < dimensions; d++)
+                point[d] = in.readDouble();
+            head = new SortEntry(key, recordId, dataFileBlockId, slot, point);
+            return true;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader runReaderB) {
+            return head.compareTo(runReaderB.head);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package main.java.spatialtree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * The metadata stored in block 0 of the data file and the index file.
+ * Block 0 holds two copies of the header, which are written alternately, each one carrying a generation number
+ * and a checksum. When reading, the valid copy with the highest generation is used, so a write of the header
+ * that gets interrupted by a crash leaves the previous copy intact.
+ * <pre>
+ * magic (int), format version (int), generation (long), dimensions (int), block size (int),
+ * total blocks (int), total levels (int), root block id (long), CRC32 of the previous fields (long)
+ * </pre>
+ */
+final class FileHeader {
+    static final int MAGIC = 0x52545245; // "RTRE"
+    static final int FORMAT_VERSION = 1;
+    static final int COPY_BYTES = 4 + 4 + 8 + 4 + 4 + 4 + 4 + 8 + 8;
+    private static final int SECOND_COPY_OFFSET = helper.BLOCK_SIZE / 2;
+
+    final long generation; // Increased on every write of the header
+    final int dimensions;
+    final int blockSize;
+    final int totalBlocks;
+    final int totalLevels; // Only used by the index file
+    final long rootBlockId; // Only used by the index file
+
+    FileHeader(long generation, int dimensions, int blockSize, int totalBlocks, int totalLevels, long rootBlockId) {
+        this.generation = generation;
+        this.dimensions = dimensions;
+        this.blockSize = blockSize;
+        this.totalBlocks = totalBlocks;
+        this.totalLevels = totalLevels;
+        this.rootBlockId = rootBlockId;
+    }
+
+    /**
+     * Returns the offset in block 0 of the copy that a header of the given generation is written to.
+     */
+    static int copyOffset(long generation) {
+        return generation % 2 == 0 ? SECOND_COPY_OFFSET : 0;
+    }
+
+    /**
+     * Encodes this header into a single copy, to be written at copyOffset(generation) of block 0.
+     *
+     * @return The COPY_BYTES bytes of the copy.
+     */
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(generation);
+        buffer.putInt(dimensions);
+        buffer.putInt(blockSize);
+        buffer.putInt(totalBlocks);
+        buffer.putInt(totalLevels);
+        buffer.putLong(rootBlockId);
+        buffer.putLong(checksum(buffer.array(), 0, COPY_BYTES - 8));
+        return buffer.array();
+    }
+
+    /**
+     * Decodes block 0 of a file, returning the newest valid copy of the header.
+     * Files written before the header had checksums, whose metadata is a serialized list, are still read.
+     *
+     * @param block The bytes of block 0.
+     * @return The decoded header.
+     */
+    static FileHeader decode(byte[] block) {
+        FileHeader first = decodeCopy(block, 0);
+        FileHeader second = decodeCopy(block, SECOND_COPY_OFFSET);
+        if (first != null && (second == null || first.generation > second.generation))
+            return first;
+        if (second != null)
+            return second;
+        if ((block[0] & 0xFF) == 0xAC && (block[1] & 0xFF) == 0xED) // Java serialization stream
+            return decodeLegacy(block);
+        throw new IllegalStateException("Neither copy of the file's Meta Data Block is valid");
+    }
+
+    private static FileHeader decodeCopy(byte[] block, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(block, offset, COPY_BYTES);
+        if (buffer.getInt() != MAGIC)
+            return null;
+        int formatVersion = buffer.getInt();
+        if (formatVersion != FORMAT_VERSION)
+            throw new IllegalStateException("Unsupported Meta Data Block format version " + formatVersion);
+        FileHeader header = new FileHeader(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+        if (buffer.getLong() != checksum(block, offset, COPY_BYTES - 8))
+            return null; // Torn or corrupted copy
+        return header;
+    }
+
+    /**
+     * Decodes the metadata of the older format, a serialized list of [dimensions, block size, total blocks, (levels)].
+     */
+    private static FileHeader decodeLegacy(byte[] block) {
+        try {
+            byte[] lengthInBytes = helper.serialize(0);
+            System.arraycopy(block, 0, lengthInBytes, 0, lengthInBytes.length);
+            byte[] dataInBlock = new byte[(Integer) helper.deserialize(lengthInBytes)];
+            System.arraycopy(block, lengthInBytes.length, dataInBlock, 0, dataInBlock.length);
+            ArrayList<Integer> metaData = (ArrayList<Integer>) helper.deserialize(dataInBlock);
+            return new FileHeader(0, metaData.get(0), metaData.get(1), metaData.get(2),
+                    metaData.size() > 3 ? metaData.get(3) : 0, RStarTree.getRootNodeBlockId());
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read the file's Meta Data Block properly", e);
+        }
+    }
+
+    private static long checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+}
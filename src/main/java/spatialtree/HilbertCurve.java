@@ -0,0 +1,90 @@
+package main.java.spatialtree;
+
+/**
+ * Maps points of the n-dimensional space to their position on a Hilbert space-filling curve.
+ * Uses John Skilling's transpose algorithm ("Programming the Hilbert curve", 2004),
+ * which works for any number of dimensions.
+ */
+final class HilbertCurve {
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * Returns the number of bits per dimension used, so that the whole Hilbert value fits in a long.
+     *
+     * @param dimensions The number of dimensions.
+     * @return The bits of each coordinate of the grid.
+     */
+    static int bitsPerDimension(int dimensions) {
+        return Math.min(31, 63 / dimensions);
+    }
+
+    /**
+     * Calculates the Hilbert value of a point, using a grid that spans the given extent
+     * with the maximum number of cells per dimension.
+     *
+     * @param point The coordinates of the point.
+     * @param extent The bounding box covering every point that is going to be compared.
+     * @return The position of the point on the Hilbert curve.
+     */
+    static long indexOfPoint(double[] point, BoundingBox extent) {
+        int bits = bitsPerDimension(point.length);
+        long cellsPerDimension = (1L << bits) - 1;
+        long[] cells = new long[point.length];
+        for (int d = 0; d < point.length; d++)
+        {
+            double width = extent.getUpper(d) - extent.getLower(d);
+            cells[d] = width == 0 ? 0 : (long) ((point[d] - extent.getLower(d)) / width * cellsPerDimension);
+        }
+        return index(cells, bits);
+    }
+
+    /**
+     * Calculates the Hilbert value of a point whose coordinates are cells of a grid
+     * of 2^bits cells per dimension.
+     *
+     * @param cells The grid coordinates of the point, overwritten during the calculation.
+     * @param bits The bits of each grid coordinate.
+     * @return The position of the point on the Hilbert curve.
+     */
+    static long index(long[] cells, int bits) {
+        int n = cells.length;
+        long m = 1L << (bits - 1);
+
+        // Inverse undo of the excess work
+        for (long q = m; q > 1; q >>= 1)
+        {
+            long p = q - 1;
+            for (int i = 0; i < n; i++)
+            {
+                if ((cells[i] & q) != 0)
+                    cells[0] ^= p; // Invert
+                else
+                {
+                    // Exchange
+                    long t = (cells[0] ^ cells[i]) & p;
+                    cells[0] ^= t;
+                    cells[i] ^= t;
+                }
+            }
+        }
+
+        // Gray encode
+        for (int i = 1; i < n; i++)
+            cells[i] ^= cells[i - 1];
+        long t = 0;
+        for (long q = m; q > 1; q >>= 1)
+            if ((cells[n - 1] & q) != 0)
+                t ^= q - 1;
+        for (int i = 0; i < n; i++)
+            cells[i] ^= t;
+
+        // Interleaving the transposed bits, most significant first
+        long hilbertValue = 0;
+        for (int b = bits - 1; b >= 0; b--)
+            for (int i = 0; i < n; i++)
+                hilbertValue = (hilbertValue << 1) | ((cells[i] >> b) & 1);
+        return hilbertValue;
+    }
+}
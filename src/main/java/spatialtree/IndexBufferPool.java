@@ -0,0 +1,342 @@
+package main.java.spatialtree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded buffer pool holding the decoded Nodes of the index file, keyed by their block id.
+ * The root and the upper levels of the tree are pinned and never evicted, while the rest of the
+ * Nodes are replaced based on the chosen eviction policy. While a tree is bulk loaded its height is not known
+ * until the root is written, so pinning is suspended and only the reserved block of the root is kept.
+ * Updated Nodes are only marked as dirty and are written back to the index file when they get
+ * evicted or when the pool is flushed. While the write-ahead log is enabled the dirty Nodes are never evicted
+ * (no-steal), so that the index file only changes at checkpoints, and the pool may grow past its capacity until the next one.
+ * The pool is shared by every traversal of the tree, so its operations are synchronized.
+ */
+public class IndexBufferPool {
+
+    /**
+     * The replacement policies supported by the buffer pool.
+     */
+    public enum EvictionPolicy {
+        LRU, // Evicts the least recently used Node
+        CLOCK // Evicts the first Node found without its reference bit set (second chance)
+    }
+
+    /**
+     * A frame of the buffer pool, holding a Node and its bookkeeping flags.
+     */
+    private static class Frame {
+        private Node node;
+        private boolean dirty; // Whether the Node was changed since it was last written to the index file
+        private boolean referenced; // Reference bit used by the CLOCK policy
+        private boolean pinned; // Whether the Node is in the pinned levels of the tree
+
+        Frame(Node node, boolean dirty) {
+            this.node = node;
+            this.dirty = dirty;
+            this.referenced = true;
+        }
+    }
+
+    static final int DEFAULT_CAPACITY = 256; // Nodes kept in memory, pinned ones excluded
+    static final int DEFAULT_PINNED_LEVELS = 2; // The root and the level right below it
+
+    private final int capacity; // The maximum number of unpinned Nodes kept in the pool
+    private final int pinnedLevels; // How many levels, counting from the root, are never evicted
+    private final EvictionPolicy evictionPolicy;
+    private final LinkedHashMap<Long, Frame> frames; // With LRU ordered by access, with CLOCK ordered by insertion
+    private boolean noSteal; // Whether dirty Nodes are kept until the pool is flushed instead of being evicted
+    private int unpinnedFrames; // The frames holding Nodes outside of the pinned levels
+    private int dirtyFrames; // The frames holding Nodes not written to the index file yet
+    private int pinnedForLevels; // The levels of the tree the pinned flags of the frames were set for
+    private boolean pinningSuspended; // Whether only the root is pinned, while a tree of unknown height is built
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    /**
+     * Creates a buffer pool for the index file.
+     *
+     * @param capacity The maximum number of unpinned Nodes kept in the pool.
+     * @param evictionPolicy The policy used to choose which Node gets evicted.
+     * @param pinnedLevels The number of top levels of the tree that are never evicted.
+     */
+    public IndexBufferPool(int capacity, EvictionPolicy evictionPolicy, int pinnedLevels) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity of the buffer pool must be a positive integer");
+        if (pinnedLevels < 0)
+            throw new IllegalArgumentException("The pinned levels of the buffer pool cannot be a negative number");
+        this.capacity = capacity;
+        this.evictionPolicy = evictionPolicy;
+        this.pinnedLevels = pinnedLevels;
+        this.frames = new LinkedHashMap<>(16, 0.75f, evictionPolicy == EvictionPolicy.LRU);
+    }
+
+    /**
+     * Returns the cached Node of the given block, or null if the block is not in the pool.
+     *
+     * @param blockId The block id of the Node.
+     * @return The cached Node or null.
+     */
+    synchronized Node get(long blockId) {
+        Frame frame = frames.get(blockId);
+        if (frame == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        frame.referenced = true;
+        return frame.node;
+    }
+
+    /**
+     * Places a Node in the pool, evicting another Node if the pool is full.
+     *
+     * @param node The Node to cache.
+     * @param dirty Whether the Node still has to be written to the index file.
+     */
+    synchronized void put(Node node, boolean dirty) {
+        updatePinnedFrames();
+        Frame frame = frames.get(node.getBlockId());
+        if (frame != null)
+        {
+            frame.node = node;
+            if (dirty && !frame.dirty)
+            {
+                frame.dirty = true;
+                dirtyFrames++;
+            }
+            frame.referenced = true;
+            setPinned(frame, isPinned(node));
+            return;
+        }
+        frame = new Frame(node, dirty);
+        if (dirty)
+            dirtyFrames++;
+        frame.pinned = isPinned(node);
+        if (!frame.pinned)
+            unpinnedFrames++;
+        frames.put(node.getBlockId(), frame);
+        if (unpinnedFrames > capacity)
+            evict();
+    }
+
+    /**
+     * Writes every dirty Node of the pool to the index file.
+     */
+    synchronized void flush() {
+        for (Frame frame : frames.values())
+            writeBack(frame);
+    }
+
+    /**
+     * Returns the dirty Nodes of the pool, i.e. the ones the next flush writes to the index file.
+     *
+     * @return The dirty Nodes, in the order of the pool.
+     */
+    synchronized ArrayList<Node> getDirtyNodes() {
+        ArrayList<Node> dirtyNodes = new ArrayList<>();
+        for (Frame frame : frames.values())
+            if (frame.dirty)
+                dirtyNodes.add(frame.node);
+        return dirtyNodes;
+    }
+
+    /**
+     * Returns how many Nodes of the pool are dirty, kept as a running count since it is checked on every commit
+     * of the write-ahead log, while the pool may hold every Node changed since the last checkpoint.
+     */
+    synchronized int getDirtyNodeCount() {
+        return dirtyFrames;
+    }
+
+    /**
+     * Sets whether dirty Nodes may be evicted, which writes them to the index file before the pool is flushed.
+     *
+     * @param noSteal true to keep the dirty Nodes in the pool until it is flushed.
+     */
+    synchronized void setNoSteal(boolean noSteal) {
+        this.noSteal = noSteal;
+    }
+
+    /**
+     * Suspends or resumes the pinning of the top levels of the tree. A bulk load builds the tree bottom up and only
+     * sets its levels once the root is written, so until then the levels of the Nodes cannot tell which ones are near the root,
+     * and pinning them by the levels of the index file would keep every Node of the build in the pool.
+     *
+     * @param pinningSuspended true to pin only the root, false to pin the top levels again.
+     */
+    synchronized void setPinningSuspended(boolean pinningSuspended) {
+        this.pinningSuspended = pinningSuspended;
+        pinnedForLevels = -1; // The flags of every frame are set again
+        updatePinnedFrames();
+    }
+
+    /**
+     * Drops the Node of a block without writing it back, used when the block is freed,
+     * so that a stale copy of it never overwrites the block once it is reused.
+     *
+     * @param blockId The block id of the Node.
+     */
+    synchronized void discard(long blockId) {
+        Frame frame = frames.remove(blockId);
+        if (frame == null)
+            return;
+        if (!frame.pinned)
+            unpinnedFrames--;
+        if (frame.dirty)
+            dirtyFrames--;
+    }
+
+    /**
+     * Drops every Node of the pool without writing it back, used when the index file is recreated.
+     */
+    synchronized void clear() {
+        frames.clear();
+        unpinnedFrames = 0;
+        dirtyFrames = 0;
+    }
+
+    private void writeBack(Frame frame) {
+        if (frame.dirty)
+        {
+            helper.writeIndexFileBlockToDisk(frame.node);
+            frame.dirty = false;
+            dirtyFrames--;
+            writeBacks++;
+        }
+    }
+
+    private boolean isPinned(Node node) {
+        return node.getBlockId() == RStarTree.getRootNodeBlockId()
+                || (!pinningSuspended && node.getLevel() > helper.getTotalLevelsOfTreeIndex() - pinnedLevels);
+    }
+
+    private void setPinned(Frame frame, boolean pinned) {
+        if (frame.pinned != pinned)
+            unpinnedFrames += pinned ? -1 : 1;
+        frame.pinned = pinned;
+    }
+
+    /**
+     * Sets the pinned flags of the frames again when the tree has grown or shrunk since they were set,
+     * which is the only time they change, so that the count of unpinned frames is kept without scanning the pool on every put.
+     */
+    private void updatePinnedFrames() {
+        int totalLevels = helper.getTotalLevelsOfTreeIndex();
+        if (totalLevels == pinnedForLevels)
+            return;
+        for (Frame frame : frames.values())
+            setPinned(frame, isPinned(frame.node));
+        pinnedForLevels = totalLevels;
+    }
+
+    /**
+     * Evicts one unpinned Node from the pool based on the eviction policy.
+     * Under LRU the eldest entry of the access ordered map is the victim, under CLOCK the
+     * entries are scanned in insertion order and the ones with their reference bit set get a second chance.
+     */
+    private void evict() {
+        if (evictionPolicy == EvictionPolicy.CLOCK)
+        {
+            ArrayList<Frame> secondChance = new ArrayList<>();
+            Iterator<Map.Entry<Long, Frame>> iterator = frames.entrySet().iterator();
+            Frame victim = null;
+            while (iterator.hasNext())
+            {
+                Frame frame = iterator.next().getValue();
+                if (frame.pinned || (noSteal && frame.dirty))
+                    continue;
+                if (frame.referenced)
+                {
+                    // Clearing the reference bit and moving the frame behind the clock's hand
+                    frame.referenced = false;
+                    iterator.remove();
+                    secondChance.add(frame);
+                    continue;
+                }
+                iterator.remove();
+                victim = frame;
+                break;
+            }
+            for (Frame frame : secondChance)
+                frames.put(frame.node.getBlockId(), frame);
+            // Every frame had its reference bit set, the hand went full circle
+            if (victim == null)
+                victim = removeFirstUnpinned();
+            release(victim);
+            return;
+        }
+        release(removeFirstUnpinned());
+    }
+
+    private Frame removeFirstUnpinned() {
+        Iterator<Map.Entry<Long, Frame>> iterator = frames.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Frame frame = iterator.next().getValue();
+            if (!frame.pinned && !(noSteal && frame.dirty))
+            {
+                iterator.remove();
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private void release(Frame victim) {
+        if (victim == null)
+            return;
+        unpinnedFrames--;
+        writeBack(victim);
+        evictions++;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public int getPinnedLevels() {
+        return pinnedLevels;
+    }
+
+    public synchronized int getCachedNodes() {
+        return frames.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    /**
+     * Resets the hit, miss, eviction and write-back counters.
+     */
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        writeBacks = 0;
+    }
+}
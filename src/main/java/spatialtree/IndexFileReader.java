@@ -0,0 +1,155 @@
+package main.java.spatialtree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only access to an index file other than the one the trees are built on, e.g. a copy saved with
+ * helper.saveIndexFileAs, so that operations over two trees such as a spatial join can read the nodes of both.
+ * The file must hold data of the same dimensions as the current index file.
+ * Its nodes are decoded straight from the file, without going through the buffer pool of the index file.
+ * The leaf entries of a saved copy point into the data file saved along with it, so their records are read with
+ * findRecord and findRecords from that copy of the data file, not with the methods of LeafEntry, which read the
+ * current data file. Without a saved data file only the record ids of the leaf entries are valid.
+ */
+public class IndexFileReader implements Closeable {
+    private final String pathToIndexFile;
+    private final BlockStore indexFileStore;
+    private final int totalLevels;
+    private final BlockStore dataFileStore; // The data file saved with the index file, null if there is none
+    private final BlockStore recordIdIndexStore;
+    private final RecordSource savedDataFile;
+
+    /**
+     * Opens an index file and reads its metadata.
+     *
+     * @param pathToIndexFile The path of the index file.
+     * @throws IOException if the metadata of the file cannot be read.
+     */
+    public IndexFileReader(String pathToIndexFile) throws IOException {
+        this.pathToIndexFile = pathToIndexFile;
+        this.indexFileStore = new BlockStore(pathToIndexFile, helper.BLOCK_SIZE, BlockStore.ForcePolicy.NEVER);
+        if (!indexFileStore.exists())
+            throw new IllegalArgumentException("There is no index file at " + pathToIndexFile);
+        FileHeader header = FileHeader.decode(indexFileStore.read(0));
+        if (header.blockSize != helper.BLOCK_SIZE)
+            throw new IllegalStateException("Block size read was not of " + helper.BLOCK_SIZE + " bytes");
+        if (header.dimensions != helper.getDataDimensions())
+            throw new IllegalStateException("The index file " + pathToIndexFile + " holds data of " + header.dimensions
+                    + " dimensions instead of " + helper.getDataDimensions());
+        if (header.rootBlockId != RStarTree.getRootNodeBlockId())
+            throw new IllegalStateException("The root of the index file is expected in block " + RStarTree.getRootNodeBlockId());
+        this.totalLevels = header.totalLevels;
+
+        String pathToDataFile = helper.savedDataFileOf(pathToIndexFile);
+        BlockStore savedDataFileStore = new BlockStore(pathToDataFile, helper.BLOCK_SIZE, BlockStore.ForcePolicy.NEVER);
+        if (!savedDataFileStore.exists())
+        {
+            this.dataFileStore = null;
+            this.recordIdIndexStore = null;
+            this.savedDataFile = null;
+            return;
+        }
+        this.dataFileStore = savedDataFileStore;
+        this.recordIdIndexStore = new BlockStore(helper.recordIdIndexOf(pathToDataFile), helper.BLOCK_SIZE, BlockStore.ForcePolicy.NEVER);
+        RecordIdIndex recordIdIndex = new RecordIdIndex(recordIdIndexStore);
+        if (!recordIdIndex.open(FileHeader.decode(dataFileStore.read(0)).totalBlocks))
+            throw new IllegalStateException("The record id index saved with " + pathToIndexFile + " does not cover its data file");
+        this.savedDataFile = new RecordSource() {
+            @Override
+            public ByteBuffer readBlock(int blockId) throws IOException {
+                return ByteBuffer.wrap(dataFileStore.read(blockId));
+            }
+
+            @Override
+            public RecordIdIndex getRecordIdIndex() {
+                return recordIdIndex;
+            }
+        };
+    }
+
+    /**
+     * Reads a specific block of the file, interpreting it as a Node object.
+     *
+     * @param blockId The block ID to read.
+     * @return The Node object decoded from the specified block, or null if it cannot be read.
+     */
+    public Node readIndexFileBlock(long blockId) {
+        try {
+            return NodePageCodec.decode(indexFileStore.read(blockId));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a specific block of the file in the same way, recording it as a block read from disk, since the file has no buffer pool.
+     *
+     * @param blockId The block ID to read.
+     * @param statistics The statistics of the query reading the block, or null if they are not collected.
+     * @return The Node object decoded from the specified block, or null if it cannot be read.
+     */
+    public Node readIndexFileBlock(long blockId, QueryStatistics statistics) {
+        Node node = readIndexFileBlock(blockId);
+        if (node != null && statistics != null)
+            statistics.blockRead(false, NodePageCodec.encodedBytes(node));
+        return node;
+    }
+
+    /**
+     * Retrieves the Record of a leaf entry of this index file from the data file saved with it.
+     *
+     * @param leafEntry A leaf entry of this index file.
+     * @return The Record if found, null otherwise.
+     */
+    public Record findRecord(LeafEntry leafEntry) {
+        return findRecords(Collections.singletonList(leafEntry)).get(0);
+    }
+
+    /**
+     * Retrieves the Records of leaf entries of this index file from the data file saved with it,
+     * reading each of its blocks once, as LeafEntry.findRecords does for the current data file.
+     *
+     * @param leafEntries Leaf entries of this index file.
+     * @return The Records in the order of the entries, null for an entry whose record is not found.
+     */
+    public ArrayList<Record> findRecords(List<LeafEntry> leafEntries) {
+        if (savedDataFile == null)
+            throw new IllegalStateException("No data file was saved with " + pathToIndexFile + ", only the record ids of its entries are valid");
+        return new RecordMaterializer(null, savedDataFile).materialize(leafEntries, RecordMaterializer.Order.RESULT);
+    }
+
+    /**
+     * Returns whether a data file was saved with the index file, so that the records of its entries can be read.
+     */
+    public boolean hasDataFile() {
+        return savedDataFile != null;
+    }
+
+    public Node getRoot() {
+        return readIndexFileBlock(RStarTree.getRootNodeBlockId());
+    }
+
+    public int getTotalLevels() {
+        return totalLevels;
+    }
+
+    public String getPathToIndexFile() {
+        return pathToIndexFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        indexFileStore.close();
+        if (dataFileStore != null)
+        {
+            dataFileStore.close();
+            recordIdIndexStore.close();
+        }
+    }
+}
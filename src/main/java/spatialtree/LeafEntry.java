@@ -1,21 +1,53 @@
 package main.java.spatialtree;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a leaf node entry in an R*-tree.
  * A LeafEntry extends the generic Entry class by including specific metadata
- * such as the record ID and the datafile block ID
- * where the actual spatial record is stored.
+ * such as the record ID, the datafile block ID where the actual spatial record is stored
+ * and the slot of the record in that block.
  */
 public class LeafEntry extends Entry {
+    static final int UNKNOWN_SLOT = -1; // The slot of an entry created without it, whose record is found through its id
     private long recordId;
     private int dataFileBlockId; // The id of the block which the record is saved in the datafile
+    private int slot; // The slot of the record in its datafile block
 
     public LeafEntry(long recordId, int dataFileBlockId, ArrayList<Bounds> recordBounds) {
         super(new BoundingBox(recordBounds));
         this.recordId = recordId;
         this.dataFileBlockId = dataFileBlockId;
+        this.slot = UNKNOWN_SLOT;
+    }
+
+    LeafEntry(long recordId, int dataFileBlockId, int slot, BoundingBox recordBoundingBox) {
+        super(recordBoundingBox);
+        this.recordId = recordId;
+        this.dataFileBlockId = dataFileBlockId;
+        this.slot = slot;
+    }
+
+    /**
+     * Creates the leaf entry of a point record, whose bounding box has the same lower and upper value in every dimension.
+     *
+     * @param record The record to create the entry for.
+     * @param dataFileBlockId The id of the datafile block that holds the record.
+     * @param slot The slot of the record in the datafile block.
+     */
+    public LeafEntry(Record record, int dataFileBlockId, int slot) {
+        this(record.getId(), dataFileBlockId, slot, BoundingBox.ofPoint(record.getCoordinates()));
+    }
+
+    /**
+     * Creates the leaf entry of a point record whose slot is not known.
+     *
+     * @param record The record to create the entry for.
+     * @param dataFileBlockId The id of the datafile block that holds the record.
+     */
+    public LeafEntry(Record record, int dataFileBlockId) {
+        this(record, dataFileBlockId, UNKNOWN_SLOT);
     }
 
     public long getRecordId() {
@@ -26,62 +58,48 @@ public class LeafEntry extends Entry {
         return dataFileBlockId;
     }
 
+    int getSlot() {
+        return slot;
+    }
+
     /**
-     * Retrieves the Record by iterating the block from the datafile using the block ID.
+     * Retrieves the Record by decoding only its slot of the datafile block, using the block ID and the slot.
+     * Without a slot, or when the record was moved by an update, it is found through the record id index instead.
      * This is used to print the actual records for testing purposes
      * @return The Record if found, null otherwise.
      */
     public Record findRecord(){
-        ArrayList<Record> records = helper.readDataFile(this.getDataFileBlockId());
-        if (records != null && !records.isEmpty()) {
-
-            for (Record record : records) {
-                if(record.getId() == this.recordId ){
-                    return record;
-                }
-            }
-        } else {
-            System.out.println("No records found in Block " + this.getDataFileBlockId() + ".");
+        if (slot != UNKNOWN_SLOT)
+        {
+            Record record = helper.readRecord(dataFileBlockId, slot);
+            if (record != null && record.getId() == recordId)
+                return record;
         }
-        return null;
-
+        return findRecordWithoutBlockId();
     }
 
     /**
-     * Searches for the Record across all blocks in the data file.
-     * This method does not rely on the block ID and is used in the
-     * BulkLoaded implementation, as we can't hold the
-     * blockID in the BulkLoad
-     *This is used to print the actual records for testing purposes
+     * Retrieves the Record through the record id index of the data file, without relying on the block ID.
+     * This is used to print the actual records for testing purposes
      * @return The Record if found, null otherwise.
      */
     public Record findRecordWithoutBlockId(){
-        ArrayList<Record> records = new ArrayList<>();
-        for (int blockId = 1; blockId <= helper.getTotalBlocksInDatafile(); blockId++) {
-            records=helper.readDataFile(blockId);
-            for (Record record : records) {
-                if(record.getId() == this.recordId ){
-                    return record;
-                }
-            }
-        }
-
-
-
-
-        if (records != null && !records.isEmpty()) {
-
-            for (Record record : records) {
-                if(record.getId() == this.recordId ){
-                    return record;
-                }
-            }
-        } else {
-            System.out.println("No records found in Block " + this.getDataFileBlockId() + ".");
-        }
-        return null;
+        Record record = helper.readRecord(this.recordId);
+        if (record == null)
+            System.out.println("No record found with id " + this.recordId + ".");
+        return record;
+    }
 
+    /**
+     * Retrieves the Records of a list of leaf entries in a batch, reading each block of the data file once
+     * instead of once per entry, e.g. to write the results of a query to a file.
+     * @param leafEntries The leaf entries whose records are retrieved.
+     * @return The Records in the order of the entries, null for an entry whose record is not found.
+     */
+    public static ArrayList<Record> findRecords(List<LeafEntry> leafEntries){
+        return new RecordMaterializer().materialize(leafEntries, RecordMaterializer.Order.RESULT);
     }
+
     @Override
     public boolean isLeaf() {
         return true; // This is a leaf node
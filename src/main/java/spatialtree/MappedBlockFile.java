@@ -0,0 +1,78 @@
+package main.java.spatialtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Read-only memory mapped view of a block file (datafile or index file).
+ * Blocks are returned as slices of the mapped region, so reading a block needs neither a system call
+ * nor a copy into a new byte array.
+ * A mapped region holds at most Integer.MAX_VALUE bytes, so the file is mapped in windows of a fixed number of
+ * whole blocks, each mapped on the first read of one of its blocks, and a block is found in the window of its id.
+ * The file keeps being written through the usual helper methods; when a block past the end of the
+ * current mapping of its window is requested, the window is mapped again to cover the new size of the file.
+ */
+class MappedBlockFile {
+    private static final int DEFAULT_WINDOW_BLOCKS = Integer.MAX_VALUE / helper.BLOCK_SIZE;
+
+    private final BlockStore blockStore; // The store whose channel the file is mapped through
+    private final int windowBlocks; // The blocks of every window, the last window of the file may map fewer
+    private MappedByteBuffer[] windows = new MappedByteBuffer[0]; // Window i maps the blocks from i * windowBlocks, null until it is read
+
+    MappedBlockFile(BlockStore blockStore) {
+        this(blockStore, DEFAULT_WINDOW_BLOCKS);
+    }
+
+    /**
+     * Creates a view mapping the file in windows of the given blocks, smaller ones than the default being used by the tests.
+     */
+    MappedBlockFile(BlockStore blockStore, int windowBlocks) {
+        if (windowBlocks <= 0 || (long) windowBlocks * helper.BLOCK_SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A window must map between 1 and " + DEFAULT_WINDOW_BLOCKS + " blocks");
+        this.blockStore = blockStore;
+        this.windowBlocks = windowBlocks;
+    }
+
+    /**
+     * Returns the given block as a read-only buffer sliced out of the window mapping it.
+     *
+     * @param blockId The id of the block to read.
+     * @return A buffer positioned at the start of the block, with BLOCK_SIZE bytes remaining.
+     * @throws IOException if the file cannot be mapped.
+     */
+    synchronized ByteBuffer readBlock(long blockId) throws IOException {
+        if (blockId < 0)
+            throw new IllegalArgumentException("Block " + blockId + " is outside of the mapped file");
+        int window = Math.toIntExact(blockId / windowBlocks);
+        int blockStart = (int) (blockId % windowBlocks) * helper.BLOCK_SIZE;
+        if (window >= windows.length || windows[window] == null || blockStart + helper.BLOCK_SIZE > windows[window].capacity())
+            remap(window);
+        if (blockStart + helper.BLOCK_SIZE > windows[window].capacity())
+            throw new IllegalStateException("Block " + blockId + " is outside of the mapped file");
+
+        ByteBuffer block = windows[window].duplicate();
+        block.position(blockStart);
+        block.limit(blockStart + helper.BLOCK_SIZE);
+        return block.slice();
+    }
+
+    /**
+     * Maps a window again, so that the blocks appended to it since its last mapping become visible.
+     */
+    private void remap(int window) throws IOException {
+        if (window >= windows.length)
+            windows = Arrays.copyOf(windows, window + 1);
+        long windowStart = (long) window * windowBlocks * helper.BLOCK_SIZE;
+        long windowBytes = Math.min((long) windowBlocks * helper.BLOCK_SIZE, Math.max(0, blockStore.size() - windowStart));
+        windows[window] = blockStore.map(windowStart, (int) windowBytes);
+    }
+
+    /**
+     * Releases the mapped windows, used when the file gets deleted or recreated.
+     */
+    synchronized void close() {
+        windows = new MappedByteBuffer[0];
+    }
+}
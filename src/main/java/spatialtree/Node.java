@@ -2,7 +2,6 @@ package main.java.spatialtree;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 /**
  * Represents a node in an R*-tree, which may contain either further nodes or leaf entries.
  */
@@ -33,7 +32,7 @@ import java.util.Collections;
         this.entries = entries;
     }
 
-    void setBlockId(int blockId) {
+    void setBlockId(long blockId) {
         this.blockId = blockId;
     }
 
@@ -45,7 +44,11 @@ import java.util.Collections;
         return MAX_ENTRIES;
     }
 
-    long getBlockId() {
+    static int getMinEntries() {
+        return MIN_ENTRIES;
+    }
+
+    public long getBlockId() {
         return blockId;
     }
 
@@ -76,34 +79,14 @@ import java.util.Collections;
         return chooseSplitIndex(splitAxisDistributions);
     }
 
+    /**
+     * Calculates the minimum bounds that enclose the given entries.
+     *
+     * @param entries The entries to enclose.
+     * @return An ArrayList of Bounds, one for each dimension.
+     */
     public ArrayList<Bounds> calculateBoundingBoxForNode(ArrayList<Entry> entries) {
-        if (entries.isEmpty()) {
-            throw new IllegalArgumentException("Entries list cannot be empty");
-        }
-
-        // Get the dimensionality from the first entry
-        int dimensions = helper.getDataDimensions();
-        ArrayList<Bounds> combinedBounds = new ArrayList<>(Collections.nCopies(dimensions, null));
-
-        // Initialize combinedBounds with extreme values to be reduced in the loops
-        for (int i = 0; i < dimensions; i++) {
-            combinedBounds.set(i, new Bounds(-Double.MAX_VALUE, Double.MAX_VALUE));
-        }
-
-        // Calculate minimum and maximum for each dimension across all entries
-        for (Entry entry : entries) {
-
-            ArrayList<Bounds> entryBounds = entry.getBoundingBoxArray();
-            for (int d = 0; d < dimensions; d++) {
-                Bounds currentBounds = entryBounds.get(d);
-                Bounds existingBounds = combinedBounds.get(d);
-                double newLower = Math.min(existingBounds.getLower(), currentBounds.getLower());
-                double newUpper = Math.max(existingBounds.getUpper(), currentBounds.getUpper());
-                combinedBounds.set(d, new Bounds(newLower, newUpper));
-            }
-        }
-
-        return combinedBounds;
+        return BoundingBox.enclosing(entries).getBounds();
     }
 
 
@@ -127,8 +110,8 @@ import java.util.Collections;
                 entriesSortedByUpper.add(entry);
             }
 
-            entriesSortedByLower.sort(new EntryComparator.EntryBoundComparator(entriesSortedByLower,d,false));
-            entriesSortedByUpper.sort(new EntryComparator.EntryBoundComparator(entriesSortedByUpper,d,true));
+            entriesSortedByLower.sort(new EntryComparator.EntryBoundComparator(d,false));
+            entriesSortedByUpper.sort(new EntryComparator.EntryBoundComparator(d,true));
 
             ArrayList<ArrayList<Entry>> sortedEntries = new ArrayList<>();
             sortedEntries.add(entriesSortedByLower);
@@ -149,8 +132,8 @@ import java.util.Collections;
                     for (int j = (MIN_ENTRIES -1)+k; j < entries.size(); j++)
                         secondGroup.add(sortedEntryList.get(j));
 
-                    BoundingBox bbFirstGroup = new BoundingBox(Bounds.findMinimumBounds(firstGroup));
-                    BoundingBox bbSecondGroup = new BoundingBox(Bounds.findMinimumBounds(secondGroup));
+                    BoundingBox bbFirstGroup = BoundingBox.enclosing(firstGroup);
+                    BoundingBox bbSecondGroup = BoundingBox.enclosing(secondGroup);
 
                     Distribution distribution = new Distribution(new DistributionGroup(firstGroup,bbFirstGroup), new DistributionGroup(secondGroup,bbSecondGroup));
                     distributions.add(distribution);
@@ -0,0 +1,180 @@
+package main.java.spatialtree;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes the Nodes of the index file to and from fixed-layout binary blocks.
+ * Every block holds a header followed by the entries of the Node stored in columns,
+ * so a Node can be decoded with bulk reads into primitive arrays:
+ * <pre>
+ * header  : level (int), entry count (int), block id (long)
+ * bounds  : for every entry, the lower and upper value of each dimension (double)
+ * ids     : for every entry, the child node block id, or the record id on the leaf level (long)
+ * leaf ids: on the leaf level only, for every entry the datafile block id (int)
+ * slots   : on the leaf level only, for every entry the slot of the record in its datafile block (unsigned short, NO_SLOT if unknown)
+ * </pre>
+ */
+final class NodePageCodec {
+    static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES; // level, entry count, block id
+    private static final int NO_SLOT = 0xFFFF; // The encoded slot of a leaf entry whose slot is unknown
+
+    private NodePageCodec() {
+    }
+
+    /**
+     * Returns the size in bytes that a single entry occupies in a block.
+     * Leaf entries are the largest ones since they also hold the datafile block id and slot.
+     *
+     * @param dimensions The number of dimensions of the data.
+     * @return The bytes needed for one entry.
+     */
+    static int bytesPerEntry(int dimensions) {
+        return 2 * dimensions * Double.BYTES + Long.BYTES + Integer.BYTES + Short.BYTES;
+    }
+
+    /**
+     * Calculates how many entries fit in a block of the index file.
+     * One slot is kept free, since a Node is written to the file holding M+1 entries
+     * right before its overflow treatment takes place.
+     *
+     * @param dimensions The number of dimensions of the data.
+     * @return The maximum number of entries of a Node.
+     */
+    static int maxEntriesPerPage(int dimensions) {
+        return (helper.BLOCK_SIZE - HEADER_BYTES) / bytesPerEntry(dimensions) - 1;
+    }
+
+    /**
+     * Returns the bytes of its block that a Node occupies, which are the bytes read when the block is decoded.
+     *
+     * @param node The decoded Node.
+     * @return The bytes of the header and the entries of the Node.
+     */
+    static int encodedBytes(Node node) {
+        int entryCount = node.getEntries().size();
+        int bytes = HEADER_BYTES + entryCount * (2 * helper.dataDimensions * Double.BYTES + Long.BYTES);
+        if (node.getLevel() == RStarTree.getLeafLevel())
+            bytes += entryCount * (Integer.BYTES + Short.BYTES);
+        return bytes;
+    }
+
+    /**
+     * Encodes a Node into a block of the index file.
+     *
+     * @param node The Node to encode.
+     * @return A byte array of BLOCK_SIZE bytes holding the Node.
+     */
+    static byte[] encode(Node node) {
+        int dimensions = helper.dataDimensions;
+        ArrayList<Entry> entries = node.getEntries();
+        int entryCount = entries.size();
+        if (HEADER_BYTES + entryCount * bytesPerEntry(dimensions) > helper.BLOCK_SIZE)
+            throw new IllegalStateException("Node with " + entryCount + " entries does not fit in a block of " + helper.BLOCK_SIZE + " bytes");
+
+        boolean isLeaf = node.getLevel() == RStarTree.getLeafLevel();
+        byte[] block = new byte[helper.BLOCK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        buffer.putInt(node.getLevel());
+        buffer.putInt(entryCount);
+        buffer.putLong(node.getBlockId());
+
+        DoubleBuffer boundsSection = buffer.asDoubleBuffer();
+        for (Entry entry : entries)
+            boundsSection.put(entry.getBoundingBox().getBoundsArray(), 0, 2 * dimensions);
+        buffer.position(buffer.position() + boundsSection.position() * Double.BYTES);
+
+        for (Entry entry : entries)
+        {
+            if (isLeaf)
+            {
+                if (!(entry instanceof LeafEntry))
+                    throw new IllegalStateException("A Node of the leaf level can only hold leaf entries");
+                buffer.putLong(((LeafEntry) entry).getRecordId());
+            }
+            else
+                buffer.putLong(entry.getChildNodeBlockId());
+        }
+
+        if (isLeaf)
+        {
+            for (Entry entry : entries)
+                buffer.putInt(((LeafEntry) entry).getDataFileBlockId());
+            for (Entry entry : entries)
+            {
+                int slot = ((LeafEntry) entry).getSlot();
+                buffer.putShort((short) (slot == LeafEntry.UNKNOWN_SLOT ? NO_SLOT : slot));
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * Decodes a block of the index file back into a Node.
+     *
+     * @param block The bytes of the block.
+     * @return The decoded Node.
+     */
+    static Node decode(byte[] block) {
+        return decode(ByteBuffer.wrap(block));
+    }
+
+    /**
+     * Decodes a block of the index file back into a Node, reading it from the buffer's current position.
+     *
+     * @param buffer The buffer holding the block, e.g. a slice of the memory mapped index file.
+     * @return The decoded Node.
+     */
+    static Node decode(ByteBuffer buffer) {
+        int dimensions = helper.dataDimensions;
+        int blockLength = buffer.remaining();
+        int level = buffer.getInt();
+        int entryCount = buffer.getInt();
+        long blockId = buffer.getLong();
+        if (entryCount < 0 || HEADER_BYTES + entryCount * bytesPerEntry(dimensions) > blockLength)
+            throw new IllegalStateException("Corrupted index block " + blockId + " with " + entryCount + " entries");
+
+        boolean isLeaf = level == RStarTree.getLeafLevel();
+
+        double[] packedBounds = new double[entryCount * dimensions * 2];
+        buffer.asDoubleBuffer().get(packedBounds);
+        buffer.position(buffer.position() + packedBounds.length * Double.BYTES);
+
+        long[] ids = new long[entryCount];
+        buffer.asLongBuffer().get(ids);
+        buffer.position(buffer.position() + ids.length * Long.BYTES);
+
+        int[] dataFileBlockIds = null;
+        short[] slots = null;
+        if (isLeaf)
+        {
+            dataFileBlockIds = new int[entryCount];
+            buffer.asIntBuffer().get(dataFileBlockIds);
+            buffer.position(buffer.position() + dataFileBlockIds.length * Integer.BYTES);
+            slots = new short[entryCount];
+            buffer.asShortBuffer().get(slots);
+        }
+
+        ArrayList<Entry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++)
+        {
+            int offset = i * dimensions * 2;
+            BoundingBox boundingBox = new BoundingBox(Arrays.copyOfRange(packedBounds, offset, offset + dimensions * 2));
+
+            if (isLeaf)
+            {
+                int slot = Short.toUnsignedInt(slots[i]);
+                entries.add(new LeafEntry(ids[i], dataFileBlockIds[i], slot == NO_SLOT ? LeafEntry.UNKNOWN_SLOT : slot, boundingBox));
+            }
+            else
+                entries.add(new Entry(boundingBox, ids[i]));
+        }
+
+        Node node = new Node(level, entries);
+        node.setBlockId(blockId);
+        return node;
+    }
+}
@@ -0,0 +1,118 @@
+package main.java.spatialtree;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Creates the data file straight from an OSM XML file, without ever holding all of its records in memory.
+ * The ingestion runs in three stages connected by bounded queues:
+ * a reader thread parses the nodes of the file into records, a packing thread fills blocks up to their exact
+ * encoded size, and the calling thread appends the filled blocks to the data file through a single open channel.
+ * The queues keep every stage busy while bounding the records that are in memory at any time.
+ */
+public class OsmIngestionPipeline {
+    private static final int OSM_DATA_DIMENSIONS = 2; // The nodes of an OSM file have a latitude and a longitude
+    private static final int RECORD_QUEUE_CAPACITY = 8192; // Records parsed but not yet packed into a block
+    private static final int BLOCK_QUEUE_CAPACITY = 16; // Blocks packed but not yet written to the data file
+    private static final long END_MARKER_WAIT_MILLIS = 100; // How long an end marker waits for room before the failures are checked again
+
+    // Markers placed at the end of the queues, after the last record and block
+    private static final Record END_OF_RECORDS = new Record(-1, "", new ArrayList<>());
+    private static final ArrayList<Record> END_OF_BLOCKS = new ArrayList<>();
+
+    /**
+     * Creates a new data file holding the nodes of an OSM file.
+     * @param filePath The path to the OSM file.
+     * @param onlyNamedNodes Whether only the nodes that have a name are written.
+     * @return The number of records written to the data file.
+     */
+    public static long ingest(String filePath, boolean onlyNamedNodes) {
+        BlockingQueue<Record> recordQueue = new ArrayBlockingQueue<>(RECORD_QUEUE_CAPACITY);
+        BlockingQueue<ArrayList<Record>> blockQueue = new ArrayBlockingQueue<>(BLOCK_QUEUE_CAPACITY);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread readerThread = new Thread(() -> {
+            try (OsmNodeReader reader = new OsmNodeReader(filePath, onlyNamedNodes)) {
+                Record record;
+                while ((record = reader.nextRecord()) != null)
+                    recordQueue.put(record);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                putEndMarker(recordQueue, END_OF_RECORDS, failure);
+            }
+        }, "osm-reader");
+
+        Thread packingThread = new Thread(() -> {
+            try {
+                DataBlockPacker blockPacker = new DataBlockPacker();
+                Record record;
+                while ((record = recordQueue.take()) != END_OF_RECORDS)
+                {
+                    if (!blockPacker.add(record))
+                    {
+                        blockQueue.put(blockPacker.takeBlock());
+                        blockPacker.add(record);
+                    }
+                }
+                if (!blockPacker.isEmpty())
+                    blockQueue.put(blockPacker.takeBlock());
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                putEndMarker(blockQueue, END_OF_BLOCKS, failure);
+            }
+        }, "osm-block-packer");
+
+        long totalRecords = 0;
+        try {
+            helper.resetDataFile(OSM_DATA_DIMENSIONS);
+            readerThread.setDaemon(true);
+            packingThread.setDaemon(true);
+            readerThread.start();
+            packingThread.start();
+
+            try (DataFileWriter dataFileWriter = new DataFileWriter()) {
+                ArrayList<Record> blockRecords;
+                while ((blockRecords = blockQueue.take()) != END_OF_BLOCKS)
+                {
+                    dataFileWriter.append(blockRecords);
+                    totalRecords += blockRecords.size();
+                }
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            // Stopping the other stages in case the writer failed while they wait on a full queue
+            readerThread.interrupt();
+            packingThread.interrupt();
+        }
+
+        if (failure.get() != null)
+            throw new IllegalStateException("Could not ingest " + filePath + " into the data file", failure.get());
+        return totalRecords;
+    }
+
+    /**
+     * Places the end marker at the end of a queue. Once a stage has failed, or the thread was interrupted because the
+     * writer stopped, the consuming stage may never drain the queue again, so the marker does not wait for room:
+     * the elements left in the queue are dropped instead, since a failed ingestion writes none of them.
+     */
+    private static <T> void putEndMarker(BlockingQueue<T> queue, T endMarker, AtomicReference<Throwable> failure) {
+        try {
+            while (failure.get() == null && !Thread.currentThread().isInterrupted())
+            {
+                if (queue.offer(endMarker, END_MARKER_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // This thread is the only producer of the queue, so clearing it leaves room for the marker
+        queue.clear();
+        queue.offer(endMarker);
+    }
+}
@@ -0,0 +1,81 @@
+package main.java.spatialtree;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Reads the nodes of an OSM XML file one at a time using StAX, turning each of them into a Record.
+ * Only the current node is kept in memory, so files of any size can be read.
+ */
+class OsmNodeReader implements AutoCloseable {
+    private final InputStream in;
+    private final XMLStreamReader reader;
+    private final boolean onlyNamedNodes; // Whether the nodes without a name are skipped
+
+    /**
+     * Opens the OSM file for reading.
+     * @param filePath The path to the OSM file.
+     * @param onlyNamedNodes Whether only the nodes that have a name are turned into records.
+     */
+    OsmNodeReader(String filePath, boolean onlyNamedNodes) throws FileNotFoundException, XMLStreamException {
+        this.in = new FileInputStream(filePath);
+        this.reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+        this.onlyNamedNodes = onlyNamedNodes;
+    }
+
+    /**
+     * Reads the next node of the file.
+     * @return The Record of the next node, or null if there are no more nodes.
+     */
+    Record nextRecord() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && "node".equals(reader.getLocalName())) {
+                long id = Long.parseLong(reader.getAttributeValue(null, "id"));
+                double lat = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+                double lon = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+                ArrayList<Double> coordinates = new ArrayList<>();
+                coordinates.add(lat);
+                coordinates.add(lon);
+
+                String name = "";  // Initialize name as empty
+                boolean hasName = false;
+
+                // Move to the next element within the node
+                while (reader.hasNext() && !hasName) {
+                    event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT && "tag".equals(reader.getLocalName())) {
+                        String key = reader.getAttributeValue(null, "k");
+                        if ("name".equals(key)) {
+                            name = reader.getAttributeValue(null, "v");
+                            hasName = true;  // Found the name, can stop processing inner loop
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "node".equals(reader.getLocalName())) {
+                        break;  // If end of the node element, stop the inner loop
+                    }
+                }
+
+                if (!onlyNamedNodes || !name.isEmpty())
+                    return new Record(id, name, coordinates);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+            in.close();
+        } catch (XMLStreamException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package main.java.spatialtree;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects what an execution of a query did, so that a slow query can be explained: the nodes visited on every level,
+ * the blocks served by the buffer pool and the ones read from the index file, the bytes decoded, the entries tested
+ * against the query, the subtrees pruned without being read and the time spent in each phase of the query.
+ * A query only collects statistics when it is given an object of this class, so the queries without one pay nothing.
+ * The parallel range query updates the same object from several threads, so its methods are synchronized.
+ */
+public class QueryStatistics {
+    private long[] nodesVisitedPerLevel = new long[0]; // Index i holds the nodes visited on level i
+    private long blocksFromCache;
+    private long blocksFromDisk;
+    private long bytesDecoded;
+    private long entriesTested;
+    private long subtreesPruned;
+    private long recordsReturned;
+    private final LinkedHashMap<String, Long> phaseNanos = new LinkedHashMap<>(); // The time of each phase, in the order they first ran
+
+    /**
+     * Records the visit of a node.
+     *
+     * @param node The node visited.
+     */
+    public synchronized void nodeVisited(Node node) {
+        int level = node.getLevel();
+        if (level >= nodesVisitedPerLevel.length)
+            nodesVisitedPerLevel = Arrays.copyOf(nodesVisitedPerLevel, level + 1);
+        nodesVisitedPerLevel[level]++;
+    }
+
+    /**
+     * Records the read of a block of the index file.
+     *
+     * @param fromCache Whether the block was served by the buffer pool instead of being read and decoded.
+     * @param bytes The bytes decoded for a block that was not cached.
+     */
+    synchronized void blockRead(boolean fromCache, int bytes) {
+        if (fromCache)
+            blocksFromCache++;
+        else
+        {
+            blocksFromDisk++;
+            bytesDecoded += bytes;
+        }
+    }
+
+    public synchronized void entriesTested(int entries) {
+        entriesTested += entries;
+    }
+
+    public synchronized void subtreesPruned(int subtrees) {
+        subtreesPruned += subtrees;
+    }
+
+    public synchronized void recordsReturned(int records) {
+        recordsReturned += records;
+    }
+
+    /**
+     * Adds time to a phase of the query, e.g. the traversal of the tree.
+     *
+     * @param phase The name of the phase.
+     * @param nanos The nanoseconds spent in the phase.
+     */
+    public synchronized void addPhaseTime(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Returns the nodes visited on every level.
+     *
+     * @return An array whose index i holds the nodes visited on level i, index 0 is unused since the leaves are on level 1.
+     */
+    public synchronized long[] getNodesVisitedPerLevel() {
+        return nodesVisitedPerLevel.clone();
+    }
+
+    public synchronized long getNodesVisited() {
+        long nodesVisited = 0;
+        for (long levelNodes : nodesVisitedPerLevel)
+            nodesVisited += levelNodes;
+        return nodesVisited;
+    }
+
+    public synchronized long getBlocksFromCache() {
+        return blocksFromCache;
+    }
+
+    public synchronized long getBlocksFromDisk() {
+        return blocksFromDisk;
+    }
+
+    public synchronized long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    public synchronized long getEntriesTested() {
+        return entriesTested;
+    }
+
+    public synchronized long getSubtreesPruned() {
+        return subtreesPruned;
+    }
+
+    public synchronized long getRecordsReturned() {
+        return recordsReturned;
+    }
+
+    /**
+     * Returns the time spent in each phase of the query.
+     *
+     * @return The nanoseconds of each phase, in the order the phases first ran.
+     */
+    public synchronized Map<String, Long> getPhaseNanos() {
+        return new LinkedHashMap<>(phaseNanos);
+    }
+
+    /**
+     * Describes the execution in a few lines, like the EXPLAIN ANALYZE of a database.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder description = new StringBuilder();
+        description.append("Nodes visited: ").append(getNodesVisited());
+        for (int level = nodesVisitedPerLevel.length - 1; level >= 1; level--)
+            description.append(level == nodesVisitedPerLevel.length - 1 ? " (" : ", ").append("level ").append(level).append(": ").append(nodesVisitedPerLevel[level]);
+        if (nodesVisitedPerLevel.length > 1)
+            description.append(")");
+        description.append(System.lineSeparator());
+        description.append("Blocks from cache: ").append(blocksFromCache).append(", from disk: ").append(blocksFromDisk)
+                .append(", bytes decoded: ").append(bytesDecoded).append(System.lineSeparator());
+        description.append("Entries tested: ").append(entriesTested).append(", subtrees pruned: ").append(subtreesPruned)
+                .append(", records returned: ").append(recordsReturned);
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet())
+            description.append(System.lineSeparator()).append("Time of ").append(phase.getKey()).append(": ")
+                    .append(phase.getValue() / 1_000_000.0).append(" ms");
+        return description.toString();
+    }
+}
@@ -1,14 +1,24 @@
 package main.java.spatialtree;
 
+import queries.BatchBoundingBoxRangeQuery;
 import queries.BoundingBoxRangeQuery;
+import queries.IncrementalNearestNeighboursQuery;
 import queries.NearestNeighboursQuery;
 import queries.SkylineQuery;
+import queries.SpatialJoinQuery;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents an R*-tree for spatial data indexing.
+ * Queries can run from many threads at the same time, while insertions and deletions run one at a time,
+ * excluding the queries for as long as they modify the tree, through a read-write lock on the index file.
  */
 public class RStarTree {
 
@@ -18,6 +28,7 @@ public class RStarTree {
     private static final int LEAF_LEVEL = 1; // Constant leaf level 1, since we are increasing the level from the root, the root (top level) will always have the highest level
     private static final int CHOOSE_SUBTREE_P_ENTRIES = 35;
     private static final int REINSERT_P_ENTRIES = (int) (0.30 * Node.getMaxEntries()); // Setting p to 30% of max entries
+    private static final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock(); // Shared by the queries, exclusive for the insertions and deletions
     /**
      * Constructs an R*-tree, optionally initializing it by inserting records from a data file.
      * @param insertRecordsFromDataFile If true, initializes the tree with records from a data file.
@@ -27,27 +38,40 @@ public class RStarTree {
         int counter=0;
         if (insertRecordsFromDataFile)
         {
-            helper.writeNewIndexFileBlock(new Node(1)); // Initialising the root node
-            // Adding the data of datafile in the RStarTree (to the indexFile)
-            for (int i = 1; i< helper.getTotalBlocksInDatafile(); i++)
-            {
-                ArrayList<Record> records = helper.readDataFile(i);
-                counter+=records.size();
-                if (records != null)
+            treeLock.writeLock().lock();
+            try {
+                helper.writeNewIndexFileBlock(new Node(1)); // Initialising the root node
+                // Adding the data of datafile in the RStarTree (to the indexFile)
+                for (int i = 1; i< helper.getTotalBlocksInDatafile(); i++)
                 {
-                    for (Record record : records) {
-                        insertRecord(record, i);
+                    ArrayList<Record> records = helper.readDataFileSlots(i);
+                    if (records != null)
+                    {
+                        for (int slot = 0; slot < records.size(); slot++) {
+                            if (records.get(slot) == null)
+                                continue; // An empty slot of a deleted record
+                            insertIntoTree(records.get(slot), i, slot);
+                            counter++;
+                        }
                     }
-                }
-                else
-                    throw new IllegalStateException("Could not read records properly from the datafile");
-            }System.out.println("SIZE OF RECORDS: " + counter);
+                    else
+                        throw new IllegalStateException("Could not read records properly from the datafile");
+                }System.out.println("SIZE OF RECORDS: " + counter);
+                helper.flushIndexFile(); // Writing the Nodes left dirty in the buffer pool
+            } finally {
+                treeLock.writeLock().unlock();
+            }
         }
 
     }
 
     public Node getRoot() {
-        return helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        treeLock.readLock().lock();
+        try {
+            return helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 
     static int getRootNodeBlockId() {
@@ -58,21 +82,78 @@ public class RStarTree {
         return LEAF_LEVEL;
     }
 
+    /**
+     * Returns the lock guarding the index file, held for reading by the queries and for writing by the
+     * insertions and deletions. Callers can hold its read lock to run several queries on the same state of the tree.
+     *
+     * @return The read-write lock of the tree.
+     */
+    public static ReadWriteLock getTreeLock() {
+        return treeLock;
+    }
+
+    /**
+     * Inserts a record of the data file into the tree, waiting for the running queries to finish.
+     * The changed nodes are left in the buffer pool until helper.flushIndexFile is called, unless synchronous commits
+     * are enabled, or with the write-ahead log enabled the insertion is committed to the log.
+     *
+     * @param record The record to insert.
+     * @param datafileBlockId The block ID of the data file where the record is stored.
+     */
+    public void insertRecord(Record record, int datafileBlockId) {
+        insertRecord(record, datafileBlockId, LeafEntry.UNKNOWN_SLOT);
+    }
+
+    /**
+     * Inserts a record of the data file into the tree in the same way, along with the slot of the record
+     * in its block, so that the record can later be decoded on its own.
+     *
+     * @param record The record to insert.
+     * @param datafileBlockId The block ID of the data file where the record is stored.
+     * @param slot The slot of the record in the block.
+     */
+    public void insertRecord(Record record, int datafileBlockId, int slot) {
+        treeLock.writeLock().lock();
+        try {
+            LeafEntry leafEntry = new LeafEntry(record, datafileBlockId, slot);
+            insertIntoTree(leafEntry);
+            helper.logInsertion(leafEntry);
+            helper.commitIndexFile();
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts again the leaf entry of an insertion read from the write-ahead log, while the index file is recovered.
+     *
+     * @param leafEntry The leaf entry of the inserted record.
+     */
+    void redoInsertion(LeafEntry leafEntry) {
+        treeLock.writeLock().lock();
+        try {
+            insertIntoTree(leafEntry);
+            helper.commitIndexFile();
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
 
     /**
      * Inserts a record into the tree at the leaf level.
      *
      * @param record The record to insert.
      * @param datafileBlockId The block ID of the data file where the record is stored.
+     * @param slot The slot of the record in the block.
      */
-    private void insertRecord(Record record, int datafileBlockId) {
-        ArrayList<Bounds> boundsForEachDimension = new ArrayList<>();
-        // Since we have to do with points as records we set low and upper to be same
-        for (int d = 0; d < helper.getDataDimensions(); d++)
-            boundsForEachDimension.add(new Bounds(record.getCoordinate(d),record.getCoordinate(d)));
+    private void insertIntoTree(Record record, int datafileBlockId, int slot) {
+        // Since we have to do with points as records the entry's lower and upper bounds are the same
+        insertIntoTree(new LeafEntry(record, datafileBlockId, slot));
+    }
 
+    private void insertIntoTree(LeafEntry leafEntry) {
         levelsInserted = new boolean[totalLevels];
-        insert(null, null, new LeafEntry(record.getId(), datafileBlockId, boundsForEachDimension), LEAF_LEVEL); // Inserting on leaf level since it's a new record
+        insert(null, null, leafEntry, LEAF_LEVEL); // Inserting on leaf level since it's a new record
     }
 
     /**
@@ -83,8 +164,77 @@ public class RStarTree {
      * @return A list of leaf entries within the bounding box.
      */
     public ArrayList<LeafEntry> getDataInBoundingBox(BoundingBox searchBoundingBox){
-        BoundingBoxRangeQuery query = new BoundingBoxRangeQuery(searchBoundingBox);
-        return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        return getDataInBoundingBox(searchBoundingBox, null);
+    }
+    /**
+     * Executes the range query in the same way, collecting what it did into the given statistics, to explain its cost.
+     *
+     * @param statistics The statistics the query adds to, or null if they are not collected.
+     * @see #getDataInBoundingBox(BoundingBox)
+     */
+    public ArrayList<LeafEntry> getDataInBoundingBox(BoundingBox searchBoundingBox, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            BoundingBoxRangeQuery query = new BoundingBoxRangeQuery(searchBoundingBox);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+    /**
+     * Retrieves, for each of a batch of bounding boxes, the leaf entries that fall within it, with a single traversal of the tree.
+     * Batch bounding box range query
+     *
+     * @param searchBoundingBoxes The bounding boxes to query against.
+     * @return For each bounding box, in the given order, a list of leaf entries within it.
+     */
+    public ArrayList<ArrayList<LeafEntry>> getDataInBoundingBoxes(List<BoundingBox> searchBoundingBoxes){
+        return getDataInBoundingBoxes(searchBoundingBoxes, null);
+    }
+    /**
+     * Executes the batch range query in the same way, collecting what it did into the given statistics, to explain its cost.
+     *
+     * @param statistics The statistics the query adds to, or null if they are not collected.
+     * @see #getDataInBoundingBoxes(List)
+     */
+    public ArrayList<ArrayList<LeafEntry>> getDataInBoundingBoxes(List<BoundingBox> searchBoundingBoxes, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            BatchBoundingBoxRangeQuery query = new BatchBoundingBoxRangeQuery(searchBoundingBoxes);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+    /**
+     * Retrieves all leaf entries that fall within a specified bounding box, searching the tree in parallel
+     * on the common ForkJoinPool.
+     * Bounding box range query
+     *
+     * @param searchBoundingBox The bounding box to query against.
+     * @return A list of leaf entries within the bounding box.
+     */
+    public ArrayList<LeafEntry> getDataInBoundingBoxParallel(BoundingBox searchBoundingBox){
+        return getDataInBoundingBoxParallel(searchBoundingBox, null);
+    }
+    /**
+     * Executes the parallel range query in the same way, collecting what it did into the given statistics, to explain its cost.
+     *
+     * @param statistics The statistics the query adds to, or null if they are not collected.
+     * @see #getDataInBoundingBoxParallel(BoundingBox)
+     */
+    public ArrayList<LeafEntry> getDataInBoundingBoxParallel(BoundingBox searchBoundingBox, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            BoundingBoxRangeQuery query = new BoundingBoxRangeQuery(searchBoundingBox, ForkJoinPool.commonPool(),
+                    BoundingBoxRangeQuery.DEFAULT_MIN_FORK_LEVEL, BoundingBoxRangeQuery.DEFAULT_SEQUENTIAL_THRESHOLD);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
     /**
      * Retrieves all leaf entries that form the skyline within a specified bounding box.
@@ -94,8 +244,23 @@ public class RStarTree {
      * @return A list of leaf entries that are part of the skyline.
      */
     public ArrayList<LeafEntry> getSkyline(BoundingBox searchBoundingBox) {
-        SkylineQuery query = new SkylineQuery(searchBoundingBox);
-        return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        return getSkyline(searchBoundingBox, null);
+    }
+    /**
+     * Executes the skyline query in the same way, collecting what it did into the given statistics, to explain its cost.
+     *
+     * @param statistics The statistics the query adds to, or null if they are not collected.
+     * @see #getSkyline(BoundingBox)
+     */
+    public ArrayList<LeafEntry> getSkyline(BoundingBox searchBoundingBox, QueryStatistics statistics) {
+        treeLock.readLock().lock();
+        try {
+            SkylineQuery query = new SkylineQuery(searchBoundingBox);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
     /**
      * Retrieves the nearest neighbors to a specified point.
@@ -106,8 +271,65 @@ public class RStarTree {
      * @return A list of leaf entries representing the nearest neighbors.
      */
     public ArrayList<LeafEntry> getNearestNeighbours(ArrayList<Double> searchPoint, int k){
-        NearestNeighboursQuery query = new NearestNeighboursQuery(searchPoint,k);
-        return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        return getNearestNeighbours(searchPoint, k, null);
+    }
+    /**
+     * Executes the nearest neighbours query in the same way, collecting what it did into the given statistics, to explain its cost.
+     *
+     * @param statistics The statistics the query adds to, or null if they are not collected.
+     * @see #getNearestNeighbours(ArrayList, int)
+     */
+    public ArrayList<LeafEntry> getNearestNeighbours(ArrayList<Double> searchPoint, int k, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            NearestNeighboursQuery query = new NearestNeighboursQuery(searchPoint,k);
+            query.setStatistics(statistics);
+            return query.getQueryRecords(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics));
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+    /**
+     * Returns an iterator over the records of the tree in increasing distance from a specified point.
+     * Incremental K-NN query, the neighbours are found while they are requested
+     *
+     * @param searchPoint The point to find neighbors near.
+     * @return An iterator returning the nearest neighbours one at a time, closest first.
+     */
+    public IncrementalNearestNeighboursQuery getNearestNeighboursIterator(ArrayList<Double> searchPoint){
+        treeLock.readLock().lock();
+        try {
+            return new IncrementalNearestNeighboursQuery(searchPoint, helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID));
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+    /**
+     * Joins the records of the tree with the records of the tree of another index file.
+     * Spatial join, the pairs are found while they are requested
+     *
+     * @param otherIndexFile The index file of the other tree.
+     * @param distance The maximum distance between two joined records, or 0 to join the records that intersect.
+     * @return An iterator returning the joined pairs of records, the first one of this tree and the second one of the other,
+     *         whose record is read with the findRecord or findRecords of the other index file.
+     */
+    public SpatialJoinQuery getSpatialJoin(IndexFileReader otherIndexFile, double distance){
+        return getSpatialJoin(otherIndexFile, distance, null);
+    }
+    /**
+     * Joins the trees in the same way, collecting what the join did into the given statistics until it is exhausted.
+     *
+     * @param statistics The statistics the join adds to, or null if they are not collected.
+     * @see #getSpatialJoin(IndexFileReader, double)
+     */
+    public SpatialJoinQuery getSpatialJoin(IndexFileReader otherIndexFile, double distance, QueryStatistics statistics){
+        treeLock.readLock().lock();
+        try {
+            return new SpatialJoinQuery(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID, statistics), helper::readIndexFileBlock,
+                    otherIndexFile.getRoot(), otherIndexFile::readIndexFileBlock, distance, statistics);
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
     /**
      * Recursively inserts a data entry into the tree, possibly causing a split of nodes.
@@ -211,8 +433,7 @@ public class RStarTree {
                 ArrayList<EntryAreaEnlargementPair> entryAreaEnlargementPairs = new ArrayList<>();
                 for (Entry entry: node.getEntries())
                 {
-                    BoundingBox newBoundingBoxA = new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(),boundingBoxToAdd));
-                    double areaEnlargementA = newBoundingBoxA.getArea() - entry.getBoundingBox().getArea();
+                    double areaEnlargementA = BoundingBox.areaEnlargement(entry.getBoundingBox().getBoundsArray(), boundingBoxToAdd.getBoundsArray());
                     entryAreaEnlargementPairs.add(new EntryAreaEnlargementPair(entry,areaEnlargementA));
                 }
                 entryAreaEnlargementPairs.sort(EntryAreaEnlargementPair::compareTo);
@@ -234,8 +455,7 @@ public class RStarTree {
         ArrayList<EntryAreaEnlargementPair> entryAreaEnlargementPairs = new ArrayList<>();
         for (Entry entry: node.getEntries())
         {
-            BoundingBox newBoundingBoxA = new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(),boundingBoxToAdd));
-            double areaEnlargementA = newBoundingBoxA.getArea() - entry.getBoundingBox().getArea();
+            double areaEnlargementA = BoundingBox.areaEnlargement(entry.getBoundingBox().getBoundsArray(), boundingBoxToAdd.getBoundsArray());
             entryAreaEnlargementPairs.add(new EntryAreaEnlargementPair(entry,areaEnlargementA));
         }
 
@@ -274,7 +494,6 @@ public class RStarTree {
         if (childNode.getBlockId() != ROOT_NODE_BLOCK_ID)
         {
             helper.updateIndexFileBlock(childNode,totalLevels);
-            splitNode.setBlockId(helper.getTotalBlocksInIndexFile());
             helper.writeNewIndexFileBlock(splitNode);
 
             // Propagate the overflow treatment upwards, to fit the entry on the caller's level Node
@@ -286,9 +505,7 @@ public class RStarTree {
         // Else if OverflowTreatment caused a split of the root, create a new root
 
         // Creating two Node-blocks for the split
-        childNode.setBlockId(helper.getTotalBlocksInIndexFile());
         helper.writeNewIndexFileBlock(childNode);
-        splitNode.setBlockId(helper.getTotalBlocksInIndexFile());
         helper.writeNewIndexFileBlock(splitNode);
 
         // Updating the root Node-block with the new root Node
@@ -318,7 +535,7 @@ public class RStarTree {
 
         // RI2: Sort the items in INCREASING order (since then we use close reinsert)
         // of their distances computed in RI1
-        childNode.getEntries().sort(new EntryComparator.EntryDistanceFromCenterComparator(childNode.getEntries(),parentEntry.getBoundingBox()));
+        childNode.getEntries().sort(new EntryComparator.EntryDistanceFromCenterComparator(parentEntry.getBoundingBox()));
         ArrayList<Entry> removedEntries = new ArrayList<>(childNode.getEntries().subList(childNode.getEntries().size()-REINSERT_P_ENTRIES,childNode.getEntries().size()));
 
         // RI3: Remove the last p items from N (since then we use close reinsert) and adjust the bounding rectangle of N
@@ -340,53 +557,185 @@ public class RStarTree {
     }
 
     /**
-     * Attempts to delete a record from the tree.
+     * Compacts the index file, removing the blocks left unused by deletions and storing the nodes level by level.
+     * This is an offline compaction: the whole file is rewritten under the write lock of the tree, so every query
+     * and update waits until it ends, which takes time in proportion to the size of the tree. Running it from another
+     * thread does not let the queries go on meanwhile, so run it when the tree can pause, e.g. once
+     * helper.getFreeBlocksInIndexFile() grows past a chosen share of the file. Incremental kNN and join iterators
+     * started before it fail on their next step, since every block is renumbered.
+     */
+    public void compactIndexFile() {
+        treeLock.writeLock().lock();
+        try {
+            helper.compactIndexFile();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not compact the index file", e);
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes a record from the tree, condensing the tree afterwards.
+     * Nodes left with fewer than the minimum entries are eliminated and their entries are reinserted
+     * at the level they were found, the bounding boxes of the remaining ancestors are tightened to fit
+     * their entries and a root left with a single child is replaced by that child.
+     * The changed nodes are committed in the same way as those of an insertion (see insertRecord).
      *
      * @param targetEntry The entry to delete.
      * @return true if the entry was successfully deleted, false otherwise.
      */
     public boolean deleteRecord(Entry targetEntry) {
-        Node node = findLeafNode(targetEntry, getRoot());
-        if (node == null){
-            return false; // Entry not found
+        treeLock.writeLock().lock();
+        try {
+            // D1: Find the leaf containing the record, along with the path of nodes from the root to it
+            ArrayList<Node> pathNodes = new ArrayList<>();
+            ArrayList<Entry> pathEntries = new ArrayList<>(); // pathEntries.get(i) is the entry of pathNodes.get(i) pointing to pathNodes.get(i+1)
+            if (!findLeafPath(targetEntry, helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID), pathNodes, pathEntries))
+                return false; // Entry not found
+
+            // D2: Remove the record from the leaf
+            Node leafNode = pathNodes.get(pathNodes.size() - 1);
+            leafNode.getEntries().removeIf(e -> e instanceof LeafEntry && e.equals(targetEntry));
+            helper.updateIndexFileBlock(leafNode, totalLevels);
+
+            // D3: Propagate the changes upwards
+            condenseTree(pathNodes, pathEntries);
+
+            // D4: Shorten the tree while the root has a single child
+            shortenTree();
+
+            helper.logDeletion((LeafEntry) targetEntry); // Only a leaf entry can have been found
+            helper.commitIndexFile();
+            return true; // Entry successfully deleted
+        } finally {
+            treeLock.writeLock().unlock();
         }
+    }
 
-        // Attempt to remove the entry
-        boolean removed = node.getEntries().removeIf(e -> e instanceof LeafEntry && e.equals(targetEntry));
-
-        if (!removed) return false; // Entry was not in the found node
+    /**
+     * Finds the leaf that contains the specified entry, descending only into the entries whose bounding box contains it.
+     *
+     * @param targetEntry The entry to find.
+     * @param node The node to start the search from.
+     * @param pathNodes Collects the nodes from the given one down to the leaf, if it is found.
+     * @param pathEntries Collects the entries pointing from each node of the path to the next one.
+     * @return true if the leaf was found, false otherwise.
+     */
+    private boolean findLeafPath(Entry targetEntry, Node node, ArrayList<Node> pathNodes, ArrayList<Entry> pathEntries) {
+        pathNodes.add(node);
+        if (node.getLevel() == LEAF_LEVEL)
+        {
+            for (Entry entry : node.getEntries())
+            {
+                if (entry instanceof LeafEntry && entry.equals(targetEntry))
+                    return true;
+            }
+        }
+        else
+        {
+            for (Entry entry : node.getEntries())
+            {
+                if (!BoundingBox.checkContainment(entry.getBoundingBox(), targetEntry.getBoundingBox()))
+                    continue;
+                pathEntries.add(entry);
+                if (findLeafPath(targetEntry, helper.readIndexFileBlock(entry.getChildNodeBlockId()), pathNodes, pathEntries))
+                    return true;
+                pathEntries.remove(pathEntries.size() - 1);
+            }
+        }
+        pathNodes.remove(pathNodes.size() - 1);
+        return false;
+    }
 
-        //TODO
-        // Handle potential underflow
-        if (node.getEntries().size() < Node.getMaxEntries() * 0.3) {
-            System.out.println("Underflow");
-            //handleUnderflow(node);
+    /**
+     * Condenses the tree after an entry was removed from the last node of the path.
+     * Walking up the path, every node with fewer than the minimum entries is removed from its parent and kept aside,
+     * while the entries pointing to the remaining ones are tightened to fit them. The entries of the removed nodes
+     * are then reinserted at the level of the node they were removed from.
+     *
+     * @param pathNodes The nodes from the root to the node an entry was removed from.
+     * @param pathEntries The entries pointing from each node of the path to the next one.
+     */
+    private void condenseTree(ArrayList<Node> pathNodes, ArrayList<Entry> pathEntries) {
+        ArrayList<Node> eliminatedNodes = new ArrayList<>();
+        // CT2: Walking up until the root is reached
+        for (int i = pathNodes.size() - 1; i > 0; i--)
+        {
+            Node node = pathNodes.get(i);
+            Node parentNode = pathNodes.get(i - 1);
+            Entry parentEntry = pathEntries.get(i - 1);
+            // CT3: Eliminate an under-full node
+            if (node.getEntries().size() < Node.getMinEntries())
+            {
+                parentNode.getEntries().remove(parentEntry);
+                eliminatedNodes.add(node);
+            }
+            // CT4: Adjust the covering rectangle of the node
+            else
+                parentEntry.adjustBBToFitEntries(node.getEntries());
+            helper.updateIndexFileBlock(parentNode, totalLevels);
         }
 
-        // Node is updated, reflect changes in storage if necessary
-        helper.updateIndexFileBlock(node, totalLevels);
-        return true; // Entry successfully deleted
+        // If every child of the root was eliminated, the tree starts again from an empty leaf root
+        Node root = helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        if (root.getLevel() != LEAF_LEVEL && root.getEntries().isEmpty())
+            replaceRoot(new Node(LEAF_LEVEL));
+
+        // CT6: Re-insert orphaned entries, the ones of the upper levels first
+        for (int i = eliminatedNodes.size() - 1; i >= 0; i--)
+            reinsertEntriesOf(eliminatedNodes.get(i));
     }
 
     /**
-     * Finds the leaf node that contains the specified entry.
+     * Reinserts the entries of an eliminated node at the level of the node, so that the leaves of their subtrees
+     * stay on the leaf level. When the tree has become too short to hold them there, the entries of their children are reinserted instead.
+     * The block of the node is freed once its entries are reinserted.
      *
-     * @param targetEntry The entry to find.
-     * @param node The node to start the search from.
-     * @return The leaf node containing the entry, or null if not found.
+     * @param eliminatedNode The node removed from the tree.
      */
-    private Node findLeafNode(Entry targetEntry, Node node) {
-        if (node.getLevel() == LEAF_LEVEL) {
-            return node.contains(targetEntry) ? node : null;
-        } else {
-            for (Entry e : node.getEntries()) {
-                if (BoundingBox.checkOverlap(e.getBoundingBox(), targetEntry.getBoundingBox())) {
-                    Node result = findLeafNode(targetEntry, helper.readIndexFileBlock(e.getChildNodeBlockId()));
-                    if (result != null) return result;
-                }
+    private void reinsertEntriesOf(Node eliminatedNode) {
+        if (eliminatedNode.getLevel() > totalLevels)
+        {
+            for (Entry entry : eliminatedNode.getEntries())
+                reinsertEntriesOf(helper.readIndexFileBlock(entry.getChildNodeBlockId()));
+        }
+        else
+        {
+            for (Entry entry : eliminatedNode.getEntries())
+            {
+                levelsInserted = new boolean[totalLevels];
+                insert(null, null, entry, eliminatedNode.getLevel());
             }
         }
-        return null;
+        helper.freeIndexFileBlock(eliminatedNode.getBlockId());
+    }
+
+    /**
+     * Replaces the root with its only child for as long as the root is not a leaf and has a single entry,
+     * freeing the block of the child.
+     */
+    private void shortenTree() {
+        Node root = helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        while (root.getLevel() != LEAF_LEVEL && root.getEntries().size() == 1)
+        {
+            Node childNode = helper.readIndexFileBlock(root.getEntries().get(0).getChildNodeBlockId());
+            root = new Node(childNode.getLevel(), new ArrayList<>(childNode.getEntries()));
+            replaceRoot(root);
+            helper.freeIndexFileBlock(childNode.getBlockId());
+        }
+    }
+
+    /**
+     * Writes a new root to the root's block, updating the levels of the tree to the level of the new root.
+     *
+     * @param newRoot The new root node.
+     */
+    private void replaceRoot(Node newRoot) {
+        newRoot.setBlockId(ROOT_NODE_BLOCK_ID);
+        totalLevels = newRoot.getLevel();
+        helper.updateLevelsOfTreeInIndexFile(totalLevels);
+        helper.updateIndexFileBlock(newRoot, totalLevels);
     }
 
 
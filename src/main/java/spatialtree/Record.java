@@ -24,12 +24,29 @@ public class Record implements Serializable {
         return id;
     }
 
+    public String getName() {
+        return name;
+    }
+
 
     public double getCoordinate(int dimension)
     {
         return coordinates.get(dimension);
     }
 
+    /**
+     * Returns the coordinates of the record's point as an array of primitives.
+     *
+     * @return A new array with the coordinate of each dimension.
+     */
+    public double[] getCoordinates()
+    {
+        double[] point = new double[coordinates.size()];
+        for (int d = 0; d < point.length; d++)
+            point[d] = coordinates.get(d);
+        return point;
+    }
+
     /**
      * Provides a string representation of the record, for display purposes.
      *
@@ -0,0 +1,410 @@
+package main.java.spatialtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A persistent index from the id of every record of the data file to the block that holds the record and its slot,
+ * i.e. its position in the list of records of the block, so that a record is found without scanning the data file.
+ * It is a static hash file of BLOCK_SIZE buckets: block 0 is the header and a record id hashes to one of the blocks
+ * after it, where its entry is kept sorted by record id with the other entries of the bucket. A full bucket overflows
+ * into the next one (linear probing), so a lookup reads the buckets from the one the id hashes to until it finds the id
+ * or reaches a bucket that is not full. A deleted record keeps its entry, pointing to a slot left empty, so entries are never removed.
+ * The buckets are sized for the records of the data file when the index is built, and when appended blocks fill them
+ * past MAX_LOAD_FACTOR the index is built again with twice the buckets.
+ * The header keeps how many blocks of the data file the index covers, so that an index left behind by another data file,
+ * or by a crash before its header was written, is detected and built again from the data file.
+ * <pre>
+ * header: magic (int), buckets (int), entries (long), blocks of the data file covered (int)
+ * bucket: entries (int), then for every entry: record id (long), data file block id (int), slot (int)
+ * </pre>
+ */
+class RecordIdIndex {
+    static final long NOT_FOUND = -1;
+    private static final int MAGIC = 0x52494458; // "RIDX"
+    private static final int ENTRY_BYTES = Long.BYTES + 2 * Integer.BYTES;
+    private static final int BUCKET_CAPACITY = (helper.BLOCK_SIZE - Integer.BYTES) / ENTRY_BYTES;
+    private static final double BUILD_LOAD_FACTOR = 0.5; // How full the buckets are when the index is built
+    private static final double MAX_LOAD_FACTOR = 0.8; // How full the buckets may get before the index is built again
+
+    private final BlockStore store;
+    private int buckets; // 0 while there is no index
+    private long entries;
+    private int indexedDataFileBlocks; // The blocks of the data file covered, metadata block included
+
+    RecordIdIndex(BlockStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Opens the index left behind for the data file.
+     *
+     * @param totalBlocksInDatafile The blocks of the opened data file.
+     * @return true if the index exists and covers every block of the data file, false if it has to be built.
+     */
+    synchronized boolean open(int totalBlocksInDatafile) {
+        buckets = 0;
+        if (!store.exists())
+            return false;
+        try {
+            ByteBuffer header = ByteBuffer.wrap(store.read(0));
+            if (header.getInt() != MAGIC)
+                return false;
+            int headerBuckets = header.getInt();
+            long headerEntries = header.getLong();
+            int headerDataFileBlocks = header.getInt();
+            if (headerBuckets <= 0 || headerDataFileBlocks != totalBlocksInDatafile)
+                return false;
+            buckets = headerBuckets;
+            entries = headerEntries;
+            indexedDataFileBlocks = headerDataFileBlocks;
+            return true;
+        } catch (IOException e) {
+            return false; // A missing or truncated header, the index is built again
+        }
+    }
+
+    /**
+     * Returns the blocks of the data file covered by the index, or 0 if there is no index.
+     */
+    synchronized int getIndexedDataFileBlocks() {
+        return buckets == 0 ? 0 : indexedDataFileBlocks;
+    }
+
+    synchronized long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Replaces the index with one holding the given locations, sized for them.
+     * An id found more than once, e.g. for a record moved by an update that was interrupted, keeps its last location.
+     *
+     * @param locations The locations of every record of the data file.
+     * @param totalBlocksInDatafile The blocks of the data file the locations cover.
+     * @throws IOException if the index cannot be written.
+     */
+    synchronized void build(Locations locations, int totalBlocksInDatafile) throws IOException {
+        build(locations, totalBlocksInDatafile, (int) Math.max(1, Math.ceil(locations.size / (BUILD_LOAD_FACTOR * BUCKET_CAPACITY))));
+    }
+
+    private void build(Locations allLocations, int totalBlocksInDatafile, int newBuckets) throws IOException {
+        Locations locations = withoutDuplicates(allLocations);
+        store.delete();
+        buckets = newBuckets;
+        // Placing the entries in the order of the buckets their ids hash to, so that an entry only overflows past full buckets
+        int[] byHomeBucket = orderByBucket(locations, newBuckets, i -> bucketOf(locations.recordIds[i]));
+        int[] fill = new int[newBuckets];
+        int[] targetBuckets = new int[locations.size];
+        for (int i : byHomeBucket)
+        {
+            int bucket = bucketOf(locations.recordIds[i]);
+            while (fill[bucket] == BUCKET_CAPACITY)
+                bucket = (bucket + 1) % newBuckets;
+            fill[bucket]++;
+            targetBuckets[i] = bucket;
+        }
+        int[] byTargetBucket = orderByBucket(locations, newBuckets, i -> targetBuckets[i]);
+        int next = 0;
+        for (int bucket = 0; bucket < newBuckets; bucket++)
+        {
+            Integer[] bucketEntries = new Integer[fill[bucket]];
+            for (int j = 0; j < bucketEntries.length; j++)
+                bucketEntries[j] = byTargetBucket[next++];
+            Arrays.sort(bucketEntries, (a, b) -> Long.compare(locations.recordIds[a], locations.recordIds[b]));
+            ByteBuffer block = ByteBuffer.allocate(helper.BLOCK_SIZE);
+            block.putInt(bucketEntries.length);
+            for (int i : bucketEntries)
+                block.putLong(locations.recordIds[i]).putInt(locations.dataFileBlockIds[i]).putInt(locations.slots[i]);
+            store.write(bucket + 1, block.array());
+        }
+        entries = locations.size;
+        indexedDataFileBlocks = totalBlocksInDatafile;
+        writeHeader(); // Written last, so that an index interrupted while being built is not opened
+    }
+
+    /**
+     * Returns the locations keeping only the last location of every id, or the same locations if no id is repeated.
+     */
+    private static Locations withoutDuplicates(Locations locations) {
+        long[] sortedIds = Arrays.copyOf(locations.recordIds, locations.size);
+        Arrays.sort(sortedIds);
+        HashSet<Long> repeatedIds = new HashSet<>();
+        for (int i = 1; i < sortedIds.length; i++)
+        {
+            if (sortedIds[i] == sortedIds[i - 1])
+                repeatedIds.add(sortedIds[i]);
+        }
+        if (repeatedIds.isEmpty())
+            return locations;
+        HashMap<Long, Integer> lastPositions = new HashMap<>();
+        for (int i = 0; i < locations.size; i++)
+        {
+            if (repeatedIds.contains(locations.recordIds[i]))
+                lastPositions.put(locations.recordIds[i], i);
+        }
+        Locations uniqueLocations = new Locations();
+        for (int i = 0; i < locations.size; i++)
+        {
+            Integer lastPosition = lastPositions.get(locations.recordIds[i]);
+            if (lastPosition == null || lastPosition == i)
+                uniqueLocations.add(locations.recordIds[i], locations.dataFileBlockIds[i], locations.slots[i]);
+        }
+        return uniqueLocations;
+    }
+
+    /**
+     * Counting sort of the positions of the locations by a bucket computed for each of them.
+     */
+    private static int[] orderByBucket(Locations locations, int buckets, IntUnaryOperator bucketOfLocation) {
+        int[] starts = new int[buckets + 1];
+        for (int i = 0; i < locations.size; i++)
+            starts[bucketOfLocation.applyAsInt(i) + 1]++;
+        for (int bucket = 0; bucket < buckets; bucket++)
+            starts[bucket + 1] += starts[bucket];
+        int[] order = new int[locations.size];
+        for (int i = 0; i < locations.size; i++)
+            order[starts[bucketOfLocation.applyAsInt(i)]++] = i;
+        return order;
+    }
+
+    /**
+     * Adds the locations of the records of blocks appended to the data file.
+     * Every bucket changed is read and written once, and an id already in the index gets the new location.
+     *
+     * @param locations The locations of the records of the appended blocks.
+     * @param totalBlocksInDatafile The blocks of the data file once the blocks are appended.
+     * @throws IOException if the index cannot be read or written.
+     */
+    synchronized void add(Locations locations, int totalBlocksInDatafile) throws IOException {
+        if (buckets == 0 || entries + locations.size > MAX_LOAD_FACTOR * buckets * BUCKET_CAPACITY)
+        {
+            Locations allLocations = readAll();
+            allLocations.addAll(locations);
+            int newBuckets = Math.max(2 * buckets, (int) Math.ceil(allLocations.size / (BUILD_LOAD_FACTOR * BUCKET_CAPACITY)));
+            build(allLocations, totalBlocksInDatafile, Math.max(1, newBuckets));
+            return;
+        }
+        HashMap<Integer, ByteBuffer> changedBuckets = new HashMap<>();
+        for (int i = 0; i < locations.size; i++)
+        {
+            long recordId = locations.recordIds[i];
+            int bucket = bucketOf(recordId);
+            while (true)
+            {
+                ByteBuffer block = changedBuckets.get(bucket);
+                if (block == null)
+                {
+                    block = ByteBuffer.wrap(store.read(bucket + 1));
+                    changedBuckets.put(bucket, block);
+                }
+                int count = block.getInt(0);
+                int position = search(block, count, recordId);
+                if (position >= 0)
+                {
+                    block.putInt(entryOffset(position) + Long.BYTES, locations.dataFileBlockIds[i]);
+                    block.putInt(entryOffset(position) + Long.BYTES + Integer.BYTES, locations.slots[i]);
+                    break;
+                }
+                if (count < BUCKET_CAPACITY)
+                {
+                    int insertion = -position - 1;
+                    byte[] bytes = block.array();
+                    System.arraycopy(bytes, entryOffset(insertion), bytes, entryOffset(insertion + 1), (count - insertion) * ENTRY_BYTES);
+                    block.putLong(entryOffset(insertion), recordId);
+                    block.putInt(entryOffset(insertion) + Long.BYTES, locations.dataFileBlockIds[i]);
+                    block.putInt(entryOffset(insertion) + Long.BYTES + Integer.BYTES, locations.slots[i]);
+                    block.putInt(0, count + 1);
+                    entries++;
+                    break;
+                }
+                bucket = (bucket + 1) % buckets;
+            }
+        }
+        for (Map.Entry<Integer, ByteBuffer> changedBucket : changedBuckets.entrySet())
+            store.write(changedBucket.getKey() + 1, changedBucket.getValue().array());
+        indexedDataFileBlocks = totalBlocksInDatafile;
+        writeHeader();
+    }
+
+    /**
+     * Finds the location of a record.
+     *
+     * @param recordId The id of the record.
+     * @return The location of the record, to be taken apart with dataFileBlockIdOf and slotOf, or NOT_FOUND.
+     * @throws IOException if the index cannot be read.
+     */
+    synchronized long lookup(long recordId) throws IOException {
+        return lookup(new long[]{recordId})[0];
+    }
+
+    /**
+     * Finds the locations of a batch of records, reading every bucket involved once.
+     *
+     * @param recordIds The ids of the records.
+     * @return The location of each record, in the order of the ids, NOT_FOUND for the ids that are not indexed.
+     * @throws IOException if the index cannot be read.
+     */
+    synchronized long[] lookup(long[] recordIds) throws IOException {
+        long[] found = new long[recordIds.length];
+        Arrays.fill(found, NOT_FOUND);
+        if (buckets == 0)
+            return found;
+        HashMap<Integer, ByteBuffer> readBuckets = new HashMap<>();
+        for (int i = 0; i < recordIds.length; i++)
+        {
+            int bucket = bucketOf(recordIds[i]);
+            for (int probes = 0; probes < buckets; probes++)
+            {
+                ByteBuffer block = readBuckets.get(bucket);
+                if (block == null)
+                {
+                    block = ByteBuffer.wrap(store.read(bucket + 1));
+                    readBuckets.put(bucket, block);
+                }
+                int count = block.getInt(0);
+                int position = search(block, count, recordIds[i]);
+                if (position >= 0)
+                {
+                    found[i] = location(block.getInt(entryOffset(position) + Long.BYTES), block.getInt(entryOffset(position) + Long.BYTES + Integer.BYTES));
+                    break;
+                }
+                if (count < BUCKET_CAPACITY)
+                    break;
+                bucket = (bucket + 1) % buckets;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Deletes the index, e.g. when a new data file is written.
+     *
+     * @throws IOException if the index cannot be deleted.
+     */
+    synchronized void delete() throws IOException {
+        store.delete();
+        buckets = 0;
+        entries = 0;
+        indexedDataFileBlocks = 0;
+    }
+
+    void flush() throws IOException {
+        store.flush();
+    }
+
+    static int dataFileBlockIdOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int slotOf(long location) {
+        return (int) location;
+    }
+
+    private static long location(int dataFileBlockId, int slot) {
+        return ((long) dataFileBlockId << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private int bucketOf(long recordId) {
+        long hash = recordId * 0x9E3779B97F4A7C15L; // Spreading ids that are close to each other over the buckets
+        return (int) Long.remainderUnsigned(hash ^ (hash >>> 32), buckets);
+    }
+
+    private static int entryOffset(int position) {
+        return Integer.BYTES + position * ENTRY_BYTES;
+    }
+
+    /**
+     * Binary search of a record id among the sorted entries of a bucket.
+     *
+     * @return The position of the entry, or (-(insertion position) - 1) if the id is not in the bucket.
+     */
+    private static int search(ByteBuffer block, int count, long recordId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            long middleId = block.getLong(entryOffset(middle));
+            if (middleId < recordId)
+                low = middle + 1;
+            else if (middleId > recordId)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Reads every entry of the index, used to build it again with more buckets.
+     */
+    private Locations readAll() throws IOException {
+        Locations locations = new Locations();
+        for (int bucket = 0; bucket < buckets; bucket++)
+        {
+            ByteBuffer block = ByteBuffer.wrap(store.read(bucket + 1));
+            int count = block.getInt();
+            for (int i = 0; i < count; i++)
+                locations.add(block.getLong(), block.getInt(), block.getInt());
+        }
+        return locations;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(helper.BLOCK_SIZE);
+        header.putInt(MAGIC).putInt(buckets).putLong(entries).putInt(indexedDataFileBlocks);
+        store.write(0, header.array());
+    }
+
+    /**
+     * The locations of records gathered while blocks are written to the data file, before they are added to the index.
+     */
+    static class Locations {
+        private long[] recordIds = new long[1024];
+        private int[] dataFileBlockIds = new int[1024];
+        private int[] slots = new int[1024];
+        private int size;
+
+        void add(long recordId, int dataFileBlockId, int slot) {
+            if (size == recordIds.length)
+            {
+                recordIds = Arrays.copyOf(recordIds, 2 * size);
+                dataFileBlockIds = Arrays.copyOf(dataFileBlockIds, 2 * size);
+                slots = Arrays.copyOf(slots, 2 * size);
+            }
+            recordIds[size] = recordId;
+            dataFileBlockIds[size] = dataFileBlockId;
+            slots[size] = slot;
+            size++;
+        }
+
+        /**
+         * Adds the locations of the records of a block of the data file, their slots being their positions in the block.
+         *
+         * @param blockRecords The record of every slot of the block, null for an empty slot.
+         * @param dataFileBlockId The id of the block.
+         */
+        void addBlock(ArrayList<Record> blockRecords, int dataFileBlockId) {
+            for (int slot = 0; slot < blockRecords.size(); slot++)
+            {
+                if (blockRecords.get(slot) != null)
+                    add(blockRecords.get(slot).getId(), dataFileBlockId, slot);
+            }
+        }
+
+        void addAll(Locations locations) {
+            for (int i = 0; i < locations.size; i++)
+                add(locations.recordIds[i], locations.dataFileBlockIds[i], locations.slots[i]);
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package main.java.spatialtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Turns the leaf entries of a query result into their Records, e.g. to write the result to a file.
+ * Instead of reading the data file block of every entry on its own, the entries are grouped by their data file block,
+ * the blocks are read once each in the order of the file, and only the slots of the entries are decoded from them.
+ * The blocks can be read in parallel on a ForkJoinPool, and the records are returned in the order of the result
+ * or in the order of the blocks, which can also be streamed to a consumer one block at a time.
+ * An entry whose record is not found at its block and slot, because its slot is unknown or the record was moved
+ * by an update, is found through the record id index instead.
+ */
+public class RecordMaterializer {
+
+    /**
+     * The order the records are returned in.
+     */
+    public enum Order {
+        RESULT, // The order of the leaf entries in the result
+        BLOCK // The order of the records in the data file, by block and slot
+    }
+
+    private final ForkJoinPool forkJoinPool; // The pool reading the blocks in parallel, null to read them sequentially
+    private final RecordSource recordSource; // The data file the records are read from
+    private final AtomicLong blocksRead = new AtomicLong();
+
+    /**
+     * Creates a materializer that reads the blocks sequentially.
+     */
+    public RecordMaterializer() {
+        this(null);
+    }
+
+    /**
+     * Creates a materializer that reads the blocks in parallel.
+     *
+     * @param forkJoinPool The pool reading the blocks, or null to read them sequentially.
+     */
+    public RecordMaterializer(ForkJoinPool forkJoinPool) {
+        this(forkJoinPool, helper.dataFileRecords());
+    }
+
+    /**
+     * Creates a materializer reading the records from a given data file, e.g. the one saved with an index file.
+     *
+     * @param forkJoinPool The pool reading the blocks, or null to read them sequentially.
+     * @param recordSource The data file and its record id index.
+     */
+    RecordMaterializer(ForkJoinPool forkJoinPool, RecordSource recordSource) {
+        this.forkJoinPool = forkJoinPool;
+        this.recordSource = recordSource;
+    }
+
+    /**
+     * Returns the records of the leaf entries.
+     *
+     * @param leafEntries The leaf entries of a query result.
+     * @param order The order of the returned records.
+     * @return The records, null for an entry whose record is not in the data file anymore.
+     *         In BLOCK order the position of an entry's record is that of the entry in block order.
+     */
+    public ArrayList<Record> materialize(List<LeafEntry> leafEntries, Order order) {
+        ArrayList<BlockGroup> blockGroups = groupByBlock(leafEntries);
+        Record[] records = new Record[leafEntries.size()];
+        IntStream blocks = IntStream.range(0, blockGroups.size());
+        if (forkJoinPool == null)
+            blocks.forEach(i -> blockGroups.get(i).read(leafEntries, records));
+        else
+            forkJoinPool.submit(() -> blocks.parallel().forEach(i -> blockGroups.get(i).read(leafEntries, records))).join();
+        findMovedRecords(leafEntries, records);
+
+        ArrayList<Record> materializedRecords = new ArrayList<>(records.length);
+        if (order == Order.RESULT)
+        {
+            for (Record record : records)
+                materializedRecords.add(record);
+        }
+        else
+        {
+            for (BlockGroup blockGroup : blockGroups)
+            {
+                for (int position : blockGroup.positions)
+                    materializedRecords.add(records[position]);
+            }
+        }
+        return materializedRecords;
+    }
+
+    /**
+     * Streams the records of the leaf entries in BLOCK order, reading one block at a time,
+     * so that only the records of a single block are held in memory however large the result is.
+     * The records of entries that are not found at their block and slot are streamed last.
+     *
+     * @param leafEntries The leaf entries of a query result.
+     * @param consumer Receives every record that is still in the data file.
+     */
+    public void stream(List<LeafEntry> leafEntries, Consumer<Record> consumer) {
+        Record[] records = new Record[leafEntries.size()];
+        ArrayList<Integer> missingPositions = new ArrayList<>();
+        for (BlockGroup blockGroup : groupByBlock(leafEntries))
+        {
+            blockGroup.read(leafEntries, records);
+            for (int position : blockGroup.positions)
+            {
+                if (records[position] != null)
+                {
+                    consumer.accept(records[position]);
+                    records[position] = null; // Releasing the record once it is consumed
+                }
+                else
+                    missingPositions.add(position);
+            }
+        }
+        ArrayList<Long> missingIds = new ArrayList<>(missingPositions.size());
+        for (int position : missingPositions)
+            missingIds.add(leafEntries.get(position).getRecordId());
+        for (Record record : helper.readRecords(missingIds, recordSource))
+        {
+            if (record != null)
+                consumer.accept(record);
+        }
+    }
+
+    /**
+     * Returns the blocks of the data file read by this materializer so far.
+     */
+    public long getBlocksRead() {
+        return blocksRead.get();
+    }
+
+    /**
+     * Groups the positions of the entries by their data file block, in the order of the file and each group by slot.
+     */
+    private ArrayList<BlockGroup> groupByBlock(List<LeafEntry> leafEntries) {
+        TreeMap<Integer, BlockGroup> blockGroups = new TreeMap<>();
+        for (int position = 0; position < leafEntries.size(); position++)
+        {
+            int dataFileBlockId = leafEntries.get(position).getDataFileBlockId();
+            blockGroups.computeIfAbsent(dataFileBlockId, BlockGroup::new).positions.add(position);
+        }
+        for (BlockGroup blockGroup : blockGroups.values())
+            blockGroup.positions.sort(Comparator.comparingInt(position -> leafEntries.get(position).getSlot()));
+        return new ArrayList<>(blockGroups.values());
+    }
+
+    /**
+     * Finds the records that were not at the block and slot of their entries through the record id index, in a single batch.
+     */
+    private void findMovedRecords(List<LeafEntry> leafEntries, Record[] records) {
+        ArrayList<Integer> missingPositions = new ArrayList<>();
+        ArrayList<Long> missingIds = new ArrayList<>();
+        for (int position = 0; position < records.length; position++)
+        {
+            if (records[position] == null)
+            {
+                missingPositions.add(position);
+                missingIds.add(leafEntries.get(position).getRecordId());
+            }
+        }
+        if (missingIds.isEmpty())
+            return;
+        ArrayList<Record> foundRecords = helper.readRecords(missingIds, recordSource);
+        for (int i = 0; i < missingPositions.size(); i++)
+            records[missingPositions.get(i)] = foundRecords.get(i);
+    }
+
+    /**
+     * The positions in the result of the entries whose records are in the same data file block.
+     */
+    private class BlockGroup {
+        private final int dataFileBlockId;
+        private final ArrayList<Integer> positions = new ArrayList<>();
+
+        BlockGroup(int dataFileBlockId) {
+            this.dataFileBlockId = dataFileBlockId;
+        }
+
+        /**
+         * Reads the block once and decodes the records of the group's entries from their slots,
+         * decoding the whole block only for entries whose slot is unknown or holds another record.
+         */
+        void read(List<LeafEntry> leafEntries, Record[] records) {
+            ByteBuffer block;
+            try {
+                block = recordSource.readBlock(dataFileBlockId);
+            } catch (IOException e) {
+                return; // Not a block of the data file, the records are found through the record id index
+            }
+            blocksRead.incrementAndGet();
+            Map<Long, Record> recordsById = null;
+            for (int position : positions)
+            {
+                LeafEntry leafEntry = leafEntries.get(position);
+                Record record = leafEntry.getSlot() == LeafEntry.UNKNOWN_SLOT ? null : DataPageCodec.decodeRecord(block, leafEntry.getSlot());
+                if (record == null || record.getId() != leafEntry.getRecordId())
+                {
+                    if (recordsById == null)
+                    {
+                        recordsById = new HashMap<>();
+                        for (Record blockRecord : DataPageCodec.decode(block))
+                            recordsById.put(blockRecord.getId(), blockRecord);
+                    }
+                    record = recordsById.get(leafEntry.getRecordId());
+                }
+                records[position] = record;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package main.java.spatialtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A data file and its record id index, from which the records of leaf entries are read.
+ * The records of the trees are read from the data file through helper, while the records of an index file saved
+ * with helper.saveIndexFileAs are read through its IndexFileReader, from the copy of the data file saved along with it.
+ */
+interface RecordSource {
+
+    /**
+     * Reads a block of the data file.
+     *
+     * @param blockId The id of the block.
+     * @return A buffer positioned at the start of the block.
+     * @throws IOException if the block cannot be read.
+     */
+    ByteBuffer readBlock(int blockId) throws IOException;
+
+    /**
+     * Returns the record id index of the data file.
+     */
+    RecordIdIndex getRecordIdIndex();
+}
@@ -0,0 +1,60 @@
+package main.java.spatialtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates records with random points in the unit hypercube [0, 1) of the given dimensions,
+ * for benchmarks and experiments that need datasets of a chosen size and distribution instead of an .osm file.
+ * The same seed always produces the same records.
+ */
+public class SyntheticDataGenerator {
+
+    /**
+     * The distributions the points can be drawn from.
+     */
+    public enum Distribution {
+        UNIFORM, // Every point is equally likely anywhere in the hypercube
+        CLUSTERED // Points are gathered around a few random centers, like the points of interest of cities
+    }
+
+    private static final int CLUSTERS = 20;
+    private static final double CLUSTER_DEVIATION = 0.02; // The standard deviation of the points around their cluster center
+
+    /**
+     * Generates the records of a synthetic dataset.
+     *
+     * @param count The number of records.
+     * @param dimensions The number of dimensions of each point.
+     * @param distribution The distribution the points are drawn from.
+     * @param seed The seed of the random generator.
+     * @return The generated records, with ids from 1 to count.
+     */
+    public static List<Record> generate(int count, int dimensions, Distribution distribution, long seed) {
+        if (count < 0)
+            throw new IllegalArgumentException("The number of records cannot be a negative number");
+        if (dimensions <= 0)
+            throw new IllegalArgumentException("The number of data dimensions must be a positive integer");
+        Random random = new Random(seed);
+        double[][] clusterCenters = new double[CLUSTERS][dimensions];
+        for (double[] clusterCenter : clusterCenters)
+            for (int d = 0; d < dimensions; d++)
+                clusterCenter[d] = random.nextDouble();
+
+        List<Record> records = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++)
+        {
+            ArrayList<Double> coordinates = new ArrayList<>(dimensions);
+            double[] clusterCenter = clusterCenters[random.nextInt(CLUSTERS)];
+            for (int d = 0; d < dimensions; d++)
+            {
+                double coordinate = distribution == Distribution.UNIFORM ? random.nextDouble()
+                        : clusterCenter[d] + random.nextGaussian() * CLUSTER_DEVIATION;
+                coordinates.add(Math.min(Math.max(coordinate, 0), Math.nextDown(1.0)));
+            }
+            records.add(new Record(i, "synthetic" + i, coordinates));
+        }
+        return records;
+    }
+}
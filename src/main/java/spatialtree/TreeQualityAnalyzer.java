@@ -0,0 +1,307 @@
+package main.java.spatialtree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongFunction;
+
+/**
+ * Walks the tree of an index file and reports its structure level by level: the nodes, how full they are compared
+ * with the maximum entries of a Node, the area of their bounding boxes, the overlap between the entries of each node
+ * and their dead space, i.e. the area of a node's bounding box that none of its entries cover.
+ * Growing overlap and dead space under the same data mean that the queries visit more nodes, which tells when
+ * a tree built by insertions and deletions has degraded enough to be rebuilt, e.g. by bulk loading.
+ * The levels are walked from the root down, since the nodes of a level are only known from the level above,
+ * and the nodes of each level are read and measured in parallel.
+ * Run as a program it reports the existing index file, or with "compare" it builds the tree of the existing
+ * data file by insertion and with every packing strategy of the bulk loading and compares them, leaving the
+ * index file of the last build behind.
+ */
+public class TreeQualityAnalyzer {
+
+    /**
+     * Analyzes the tree of the current index file, holding the read lock of the tree while walking it.
+     *
+     * @return The structure of the tree.
+     */
+    public static TreeQuality analyzeIndexFile() {
+        Lock treeReadLock = RStarTree.getTreeLock().readLock();
+        treeReadLock.lock();
+        try {
+            return analyze(helper.readIndexFileBlock(RStarTree.getRootNodeBlockId()), helper::readIndexFileBlock);
+        } finally {
+            treeReadLock.unlock();
+        }
+    }
+
+    /**
+     * Analyzes the tree of another index file, e.g. a copy saved with helper.saveIndexFileAs.
+     *
+     * @param indexFile The reader of the index file.
+     * @return The structure of the tree.
+     */
+    public static TreeQuality analyze(IndexFileReader indexFile) {
+        return analyze(indexFile.getRoot(), indexFile::readIndexFileBlock);
+    }
+
+    /**
+     * Walks a tree level by level from its root, measuring the nodes of each level in parallel.
+     *
+     * @param root The root node of the tree.
+     * @param readNode Reads the nodes of the tree by their block id.
+     * @return The structure of the tree.
+     */
+    static TreeQuality analyze(Node root, LongFunction<Node> readNode) {
+        if (root == null)
+            throw new IllegalStateException("The Node-block read from file is null");
+        ArrayList<LevelQuality> levels = new ArrayList<>();
+        LevelQuality rootLevel = new LevelQuality(root.getLevel());
+        rootLevel.add(root);
+        levels.add(rootLevel);
+        LevelQuality upperLevel = rootLevel;
+        for (int level = root.getLevel() - 1; level >= RStarTree.getLeafLevel(); level--)
+        {
+            final int currentLevel = level;
+            LevelQuality levelQuality = upperLevel.childBlockIds.parallelStream()
+                    .map(readNode::apply)
+                    .collect(() -> new LevelQuality(currentLevel), LevelQuality::add, LevelQuality::combine);
+            levels.add(levelQuality);
+            upperLevel.childBlockIds = null; // Only the ids of the level above are needed
+            upperLevel = levelQuality;
+        }
+        upperLevel.childBlockIds = null;
+        return new TreeQuality(levels);
+    }
+
+    /**
+     * Measures the overlap between the entries of a node, sweeping along the first dimension
+     * so that only the entries whose extents along it meet are compared.
+     */
+    private static double calculateOverlapOfEntries(ArrayList<Entry> entries) {
+        double[][] boxes = new double[entries.size()][];
+        for (int i = 0; i < boxes.length; i++)
+            boxes[i] = entries.get(i).getBoundingBox().getBoundsArray();
+        Arrays.sort(boxes, (boxA, boxB) -> Double.compare(boxA[0], boxB[0]));
+        double overlap = 0;
+        for (int i = 0; i < boxes.length; i++)
+        {
+            for (int j = i + 1; j < boxes.length && boxes[j][0] <= boxes[i][1]; j++)
+                overlap += BoundingBox.overlapArea(boxes[i], boxes[j]);
+        }
+        return overlap;
+    }
+
+    /**
+     * The structure of one level of a tree.
+     */
+    public static class LevelQuality {
+        private final int level;
+        private long nodes;
+        private long entries;
+        private int minEntriesOfNode = Integer.MAX_VALUE; // The entries of the emptiest node of the level
+        private double area; // The sum of the areas of the bounding boxes of the level's nodes
+        private double overlap; // The sum of the overlap between the entries of each node
+        private double deadSpace; // The sum of the area of each node's bounding box not covered by its entries
+        private ArrayList<Long> childBlockIds = new ArrayList<>(); // The nodes of the level below, while the tree is walked
+
+        LevelQuality(int level) {
+            this.level = level;
+        }
+
+        /**
+         * Measures a node of the level.
+         * The area covered by the entries is estimated with the first two terms of the inclusion-exclusion
+         * principle, their areas minus their pairwise overlap, so the dead space of nodes whose entries
+         * overlap in groups of three or more is overestimated.
+         */
+        void add(Node node) {
+            if (node == null)
+                throw new IllegalStateException("The Node-block read from file is null");
+            ArrayList<Entry> nodeEntries = node.getEntries();
+            nodes++;
+            entries += nodeEntries.size();
+            minEntriesOfNode = Math.min(minEntriesOfNode, nodeEntries.size());
+            if (nodeEntries.isEmpty())
+                return;
+            double nodeArea = BoundingBox.enclosing(nodeEntries).getArea();
+            double nodeOverlap = calculateOverlapOfEntries(nodeEntries);
+            double coveredArea = -nodeOverlap;
+            for (Entry entry : nodeEntries)
+            {
+                coveredArea += entry.getBoundingBox().getArea();
+                if (level != RStarTree.getLeafLevel())
+                    childBlockIds.add(entry.getChildNodeBlockId());
+            }
+            area += nodeArea;
+            overlap += nodeOverlap;
+            deadSpace += Math.min(nodeArea, Math.max(0, nodeArea - coveredArea));
+        }
+
+        void combine(LevelQuality levelQuality) {
+            nodes += levelQuality.nodes;
+            entries += levelQuality.entries;
+            minEntriesOfNode = Math.min(minEntriesOfNode, levelQuality.minEntriesOfNode);
+            area += levelQuality.area;
+            overlap += levelQuality.overlap;
+            deadSpace += levelQuality.deadSpace;
+            childBlockIds.addAll(levelQuality.childBlockIds);
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns how full the nodes of the level are on average.
+         *
+         * @return The entries of the level divided by the entries its nodes can hold, between 0 and 1.
+         */
+        public double getFillFactor() {
+            return nodes == 0 ? 0 : (double) entries / (nodes * Node.getMaxEntries());
+        }
+
+        /**
+         * Returns how full the emptiest node of the level is.
+         *
+         * @return The entries of the emptiest node divided by the maximum entries of a Node.
+         */
+        public double getMinFillFactor() {
+            return nodes == 0 ? 0 : (double) minEntriesOfNode / Node.getMaxEntries();
+        }
+
+        public double getArea() {
+            return area;
+        }
+
+        public double getOverlap() {
+            return overlap;
+        }
+
+        public double getDeadSpace() {
+            return deadSpace;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("level %d: %d nodes, %d entries, fill %.1f%% (min %.1f%%), area %.6g, overlap %.6g, dead space %.6g",
+                    level, nodes, entries, 100 * getFillFactor(), 100 * getMinFillFactor(), area, overlap, deadSpace);
+        }
+    }
+
+    /**
+     * The structure of a whole tree, with its levels from the root down to the leaves.
+     */
+    public static class TreeQuality {
+        private final List<LevelQuality> levels;
+
+        TreeQuality(List<LevelQuality> levels) {
+            this.levels = Collections.unmodifiableList(levels);
+        }
+
+        public List<LevelQuality> getLevels() {
+            return levels;
+        }
+
+        public int getHeight() {
+            return levels.size();
+        }
+
+        public long getNodes() {
+            long nodes = 0;
+            for (LevelQuality level : levels)
+                nodes += level.getNodes();
+            return nodes;
+        }
+
+        public long getRecords() {
+            return levels.get(levels.size() - 1).getEntries();
+        }
+
+        /**
+         * Returns how full the nodes below the root are on average, the root being allowed to hold as few as two entries.
+         *
+         * @return The entries of the nodes below the root divided by the entries they can hold.
+         */
+        public double getFillFactor() {
+            long nodes = 0;
+            long entries = 0;
+            for (LevelQuality level : levels.subList(1, levels.size()))
+            {
+                nodes += level.getNodes();
+                entries += level.getEntries();
+            }
+            return nodes == 0 ? levels.get(0).getFillFactor() : (double) entries / (nodes * Node.getMaxEntries());
+        }
+
+        /**
+         * Returns the sum of the areas of the nodes below the root, whose growth means that more nodes are visited per query.
+         */
+        public double getArea() {
+            double area = 0;
+            for (LevelQuality level : levels.subList(1, levels.size()))
+                area += level.getArea();
+            return area;
+        }
+
+        public double getOverlap() {
+            double overlap = 0;
+            for (LevelQuality level : levels)
+                overlap += level.getOverlap();
+            return overlap;
+        }
+
+        public double getDeadSpace() {
+            double deadSpace = 0;
+            for (LevelQuality level : levels)
+                deadSpace += level.getDeadSpace();
+            return deadSpace;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder();
+            description.append(String.format("height %d, %d nodes, %d records, fill %.1f%%, area %.6g, overlap %.6g, dead space %.6g",
+                    getHeight(), getNodes(), getRecords(), 100 * getFillFactor(), getArea(), getOverlap(), getDeadSpace()));
+            for (LevelQuality level : levels)
+                description.append(System.lineSeparator()).append("  ").append(level);
+            return description.toString();
+        }
+    }
+
+    /**
+     * Reports the existing index file, or compares the builds of the existing data file.
+     * Usage: TreeQualityAnalyzer [dimensions] [compare]
+     */
+    public static void main(String[] args) throws IOException {
+        int dimensions = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        boolean compare = args.length > 1 && args[1].equals("compare");
+        helper.CreateDataFile(new ArrayList<>(), dimensions, false);
+        if (!compare)
+        {
+            helper.CreateIndexFile(dimensions, false);
+            System.out.println("Index file: " + analyzeIndexFile());
+            return;
+        }
+
+        helper.CreateIndexFile(dimensions, true);
+        new RStarTree(true);
+        System.out.println("RStarTree: " + analyzeIndexFile());
+        for (BulkLoadingRStarTree.PackingStrategy packingStrategy : BulkLoadingRStarTree.PackingStrategy.values())
+        {
+            helper.CreateIndexFile(dimensions, true);
+            new BulkLoadingRStarTree(true, packingStrategy);
+            System.out.println("BulkLoadingRStarTree " + packingStrategy + ": " + analyzeIndexFile());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package main.java.spatialtree;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of the scans of the ColumnarCoordinateStore written with the incubating Vector API, so that every
+ * comparison and distance is computed on a whole vector of coordinates at a time, whatever the JIT makes of the scalar loops.
+ * The class needs the jdk.incubator.vector module, so it is only loaded when the JVM was started with
+ * --add-modules jdk.incubator.vector, see ColumnarCoordinateStore.isVectorApiAvailable().
+ */
+final class VectorizedScanKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorizedScanKernels() {
+    }
+
+    /**
+     * Finds the records of a range of the columns that are inside a bounding box, records on its boundary included.
+     *
+     * @param coordinates The columns of the coordinates, one per dimension.
+     * @param bounds The lower and upper bound of every dimension of the bounding box.
+     * @param start The position of the first record of the range.
+     * @param length The records of the range, at most the length of selected.
+     * @param selected Receives the positions of the records inside the bounding box, in increasing order.
+     * @return The number of positions written to selected.
+     */
+    static int selectInBoundingBox(double[][] coordinates, double[] bounds, int start, int length, int[] selected) {
+        int found = 0;
+        int end = start + length;
+        int vectorEnd = start + SPECIES.loopBound(length);
+        int i = start;
+        for (; i < vectorEnd; i += SPECIES.length())
+        {
+            VectorMask<Double> inside = SPECIES.maskAll(true);
+            for (int d = 0; d < coordinates.length; d++)
+            {
+                DoubleVector values = DoubleVector.fromArray(SPECIES, coordinates[d], i);
+                inside = inside.and(values.compare(VectorOperators.GE, bounds[2 * d]))
+                        .and(values.compare(VectorOperators.LE, bounds[2 * d + 1]));
+            }
+            // One bit per lane, the lowest for the first record
+            long lanes = inside.toLong();
+            while (lanes != 0)
+            {
+                selected[found++] = i + Long.numberOfTrailingZeros(lanes);
+                lanes &= lanes - 1;
+            }
+        }
+        for (; i < end; i++)
+        {
+            boolean isInside = true;
+            for (int d = 0; d < coordinates.length; d++)
+                isInside &= coordinates[d][i] >= bounds[2 * d] & coordinates[d][i] <= bounds[2 * d + 1];
+            if (isInside)
+                selected[found++] = i;
+        }
+        return found;
+    }
+
+    /**
+     * Computes the squared distances of the records of a range of the columns from a point. The squares are added
+     * one dimension at a time, like the scalar loop does, so that both give exactly the same distances.
+     *
+     * @param coordinates The columns of the coordinates, one per dimension.
+     * @param point The coordinates of the point.
+     * @param start The position of the first record of the range.
+     * @param length The records of the range, at most the length of distances.
+     * @param distances Receives the squared distance of every record of the range, from index 0.
+     */
+    static void squaredDistances(double[][] coordinates, double[] point, int start, int length, double[] distances) {
+        int vectorEnd = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < vectorEnd; i += SPECIES.length())
+        {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int d = 0; d < coordinates.length; d++)
+            {
+                DoubleVector difference = DoubleVector.fromArray(SPECIES, coordinates[d], start + i).sub(point[d]);
+                sum = sum.add(difference.mul(difference));
+            }
+            sum.intoArray(distances, i);
+        }
+        for (; i < length; i++)
+        {
+            double sum = 0;
+            for (int d = 0; d < coordinates.length; d++)
+            {
+                double difference = coordinates[d][start + i] - point[d];
+                sum += difference * difference;
+            }
+            distances[i] = sum;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package main.java.spatialtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A redo log of the changes made to the tree of the index file, so that a crash in the middle of an insertion,
+ * a split or a deletion never leaves the index file corrupted.
+ * The insertions and deletions are logged as logical operations, while the index file itself only changes at
+ * checkpoints: the Nodes they change stay dirty in the buffer pool, which does not evict them meanwhile.
+ * A checkpoint first logs the images of every dirty Node followed by a checkpoint record, and only once these are
+ * forced writes the Nodes in place, so a checkpoint interrupted by a crash is completed from the images.
+ * The log is then emptied. On recovery the images of the last complete checkpoint are written again and the
+ * operations logged after it are redone on the tree; a torn record at the end of the log ends it. The redone operations
+ * are checkpointed like any other, so a crash during the recovery only repeats it.
+ * The operations are group committed: with a sync interval, a commit returns without forcing the log and a
+ * background thread forces everything committed so far once per interval, so a crash loses at most the
+ * operations of the last interval, instead of every operation paying for a force of its own.
+ * Every record is written as:
+ * <pre>
+ * length of type and payload (int), type (byte), payload, CRC32 of type and payload (long)
+ * insertion: record id (long), datafile block id (int), slot (int), bounds (double per lower and upper value)
+ * deletion : record id (long), bounds (double per lower and upper value)
+ * page     : block id (long), the encoded Node (BLOCK_SIZE bytes)
+ * checkpoint: total blocks (int), total levels (int)
+ * </pre>
+ */
+class WriteAheadLog implements Closeable {
+    static final byte INSERTION = 1;
+    static final byte DELETION = 2;
+    static final byte PAGE = 3;
+    static final byte CHECKPOINT = 4;
+    private static final int MAX_PENDING_BYTES = 1024 * 1024; // Committed bytes buffered before they are written out, forced or not
+
+    private final String pathToLog;
+    private final long syncIntervalMillis; // 0 to force the log on every commit
+    private final FileChannel channel;
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream(); // Records not written to the file yet
+    private long size; // The bytes of the log, pending records included
+    private boolean unsyncedRecords; // Whether records were added since the log was last forced
+    private long syncs;
+    private final ScheduledExecutorService syncer; // Forces the log once per interval, null without an interval
+
+    /**
+     * Opens the log, which is expected to be empty or already recovered, and starts forcing it once per interval.
+     *
+     * @param pathToLog The path of the log.
+     * @param syncIntervalMillis The milliseconds between two forces of the log, or 0 to force it on every commit.
+     * @throws IOException if the log cannot be opened.
+     */
+    WriteAheadLog(String pathToLog, long syncIntervalMillis) throws IOException {
+        if (syncIntervalMillis < 0)
+            throw new IllegalArgumentException("The sync interval of the write-ahead log cannot be a negative number");
+        this.pathToLog = pathToLog;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.channel = FileChannel.open(Paths.get(pathToLog), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = channel.size();
+        if (syncIntervalMillis > 0)
+        {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "write-ahead log sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+            syncer = null;
+    }
+
+    synchronized void logInsertion(LeafEntry leafEntry) {
+        double[] bounds = leafEntry.getBoundingBox().getBoundsArray();
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + 2 * Integer.BYTES + bounds.length * Double.BYTES);
+        payload.putLong(leafEntry.getRecordId());
+        payload.putInt(leafEntry.getDataFileBlockId());
+        payload.putInt(leafEntry.getSlot());
+        for (double bound : bounds)
+            payload.putDouble(bound);
+        append(INSERTION, payload.array());
+    }
+
+    synchronized void logDeletion(LeafEntry leafEntry) {
+        double[] bounds = leafEntry.getBoundingBox().getBoundsArray();
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + bounds.length * Double.BYTES);
+        payload.putLong(leafEntry.getRecordId());
+        for (double bound : bounds)
+            payload.putDouble(bound);
+        append(DELETION, payload.array());
+    }
+
+    synchronized void logPage(long blockId, byte[] block) {
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + block.length);
+        payload.putLong(blockId);
+        payload.put(block);
+        append(PAGE, payload.array());
+    }
+
+    synchronized void logCheckpoint(int totalBlocks, int totalLevels) {
+        append(CHECKPOINT, ByteBuffer.allocate(2 * Integer.BYTES).putInt(totalBlocks).putInt(totalLevels).array());
+    }
+
+    private void append(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + 1 + payload.length + Long.BYTES);
+        record.putInt(1 + payload.length);
+        record.put(type);
+        record.put(payload);
+        record.putLong(crc.getValue());
+        pendingRecords.write(record.array(), 0, record.capacity());
+        size += record.capacity();
+        unsyncedRecords = true;
+    }
+
+    /**
+     * Commits the records logged so far. Without a sync interval the log is forced before returning,
+     * otherwise the records are forced by the next sync of the interval.
+     *
+     * @throws IOException if the log cannot be written.
+     */
+    synchronized void commit() throws IOException {
+        if (syncIntervalMillis == 0)
+            sync();
+        else if (pendingRecords.size() >= MAX_PENDING_BYTES)
+            writePendingRecords();
+    }
+
+    /**
+     * Writes the pending records and forces the log to the storage device.
+     *
+     * @throws IOException if the log cannot be written or forced.
+     */
+    synchronized void sync() throws IOException {
+        if (!unsyncedRecords)
+            return;
+        writePendingRecords();
+        channel.force(false);
+        unsyncedRecords = false;
+        syncs++;
+    }
+
+    private void writePendingRecords() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(pendingRecords.toByteArray());
+        long position = channel.size();
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        pendingRecords.reset();
+    }
+
+    /**
+     * Empties the log once a checkpoint has been written in place, or once it has been recovered.
+     *
+     * @throws IOException if the log cannot be truncated.
+     */
+    synchronized void truncate() throws IOException {
+        truncate(0);
+    }
+
+    /**
+     * Cuts the log at the given length, e.g. at the end of its last complete record before more records are added.
+     *
+     * @param length The bytes of the log to keep.
+     * @throws IOException if the log cannot be truncated.
+     */
+    synchronized void truncate(long length) throws IOException {
+        pendingRecords.reset();
+        channel.truncate(length);
+        channel.force(false);
+        size = channel.size();
+        unsyncedRecords = false;
+    }
+
+    /**
+     * Returns the bytes of the log, including the records not written to the file yet.
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Returns how many times the log was forced, every force committing all the operations logged before it.
+     */
+    synchronized long getSyncs() {
+        return syncs;
+    }
+
+    long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Stops the syncs of the interval and forces the records left.
+     *
+     * @throws IOException if the log cannot be forced or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncer != null)
+            syncer.shutdownNow();
+        synchronized (this) {
+            sync();
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads a log, finding what a recovery has to redo: the images of the last complete checkpoint
+     * and the operations logged after it. The log ends at its first torn or corrupted record.
+     *
+     * @param pathToLog The path of the log.
+     * @return The changes to redo, or null if there is no log or it is empty.
+     * @throws IOException if the log cannot be read.
+     */
+    static Recovery read(String pathToLog) throws IOException {
+        if (!Files.exists(Paths.get(pathToLog)))
+            return null;
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(Paths.get(pathToLog)));
+        if (!log.hasRemaining())
+            return null;
+        Recovery recovery = new Recovery();
+        ArrayList<Long> imageBlockIds = new ArrayList<>(); // The images logged since the last checkpoint
+        ArrayList<byte[]> images = new ArrayList<>();
+        int dimensions = helper.getDataDimensions();
+        while (log.remaining() >= Integer.BYTES)
+        {
+            int length = log.getInt();
+            if (length <= 0 || length + Long.BYTES > log.remaining())
+                break; // Torn record
+            byte[] record = new byte[length];
+            log.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            if (log.getLong() != crc.getValue())
+                break; // Corrupted record
+            recovery.length = log.position();
+            ByteBuffer payload = ByteBuffer.wrap(record, 1, length - 1);
+            switch (record[0])
+            {
+                case INSERTION:
+                {
+                    long recordId = payload.getLong();
+                    int dataFileBlockId = payload.getInt();
+                    int slot = payload.getInt();
+                    recovery.operations.add(new Operation(true, new LeafEntry(recordId, dataFileBlockId, slot, new BoundingBox(readBounds(payload, dimensions)))));
+                    break;
+                }
+                case DELETION:
+                {
+                    long recordId = payload.getLong();
+                    recovery.operations.add(new Operation(false, new LeafEntry(recordId, 0, LeafEntry.UNKNOWN_SLOT, new BoundingBox(readBounds(payload, dimensions)))));
+                    break;
+                }
+                case PAGE:
+                {
+                    imageBlockIds.add(payload.getLong());
+                    byte[] image = new byte[payload.remaining()];
+                    payload.get(image);
+                    images.add(image);
+                    break;
+                }
+                case CHECKPOINT:
+                    // The operations before the checkpoint are part of its images
+                    recovery.operations.clear();
+                    recovery.imageBlockIds = new ArrayList<>(imageBlockIds);
+                    recovery.images = new ArrayList<>(images);
+                    recovery.totalBlocks = payload.getInt();
+                    recovery.totalLevels = payload.getInt();
+                    imageBlockIds.clear();
+                    images.clear();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type " + record[0] + " in the write-ahead log " + pathToLog);
+            }
+        }
+        return recovery; // The images after the last checkpoint belong to a checkpoint that never completed
+    }
+
+    private static double[] readBounds(ByteBuffer payload, int dimensions) {
+        double[] bounds = new double[2 * dimensions];
+        for (int i = 0; i < bounds.length; i++)
+            bounds[i] = payload.getDouble();
+        return bounds;
+    }
+
+    /**
+     * The changes a recovery has to redo on the index file.
+     */
+    static class Recovery {
+        private ArrayList<Long> imageBlockIds = new ArrayList<>();
+        private ArrayList<byte[]> images = new ArrayList<>();
+        private int totalBlocks = -1; // The total blocks of the last complete checkpoint, -1 without one
+        private int totalLevels;
+        private final ArrayList<Operation> operations = new ArrayList<>();
+        private long length; // The bytes of the log up to the end of its last complete record
+
+        long getLength() {
+            return length;
+        }
+
+        boolean hasCheckpoint() {
+            return totalBlocks >= 0;
+        }
+
+        ArrayList<Long> getImageBlockIds() {
+            return imageBlockIds;
+        }
+
+        ArrayList<byte[]> getImages() {
+            return images;
+        }
+
+        int getTotalBlocks() {
+            return totalBlocks;
+        }
+
+        int getTotalLevels() {
+            return totalLevels;
+        }
+
+        ArrayList<Operation> getOperations() {
+            return operations;
+        }
+    }
+
+    /**
+     * A logged insertion or deletion of a record.
+     */
+    static class Operation {
+        private final boolean insertion;
+        private final LeafEntry leafEntry;
+
+        Operation(boolean insertion, LeafEntry leafEntry) {
+            this.insertion = insertion;
+            this.leafEntry = leafEntry;
+        }
+
+        boolean isInsertion() {
+            return insertion;
+        }
+
+        LeafEntry getLeafEntry() {
+            return leafEntry;
+        }
+    }
+}
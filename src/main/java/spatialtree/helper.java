@@ -1,9 +1,12 @@
 package main.java.spatialtree;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * Utility class for handling operations related to the R*-Tree,
  * focusing on file management, serialization, and other helper functions.
@@ -13,6 +16,10 @@ public class helper {
     protected static final String PATH_TO_DATAFILE = "datafile.dat";
     protected static final String PATH_TO_INDEXFILE = "indexfile.dat";
     protected static final int BLOCK_SIZE = 32 * 1024; // Each Block is 32KB
+    static final String PATH_TO_WRITE_AHEAD_LOG = PATH_TO_INDEXFILE + ".wal";
+    static final long CHECKPOINT_LOG_BYTES = 64L * 1024 * 1024; // The size of the write-ahead log that triggers a checkpoint
+    static final String PATH_TO_RECORD_ID_INDEX = recordIdIndexOf(PATH_TO_DATAFILE);
+    static final String PATH_TO_COLUMNAR_STORE = PATH_TO_DATAFILE + ".cols";
 
 
     // Static variables for dimensions of data, and the total number of blocks and levels in data and index files.
@@ -21,6 +28,56 @@ public class helper {
     protected static int totalBlocksInIndexFile;
     protected static int totalLevelsOfTreeIndex;
 
+    // Generations of the file headers and whether the in-memory metadata has changed since they were written
+    private static long dataFileHeaderGeneration;
+    private static long indexFileHeaderGeneration;
+    private static boolean dataFileMetaDataChanged;
+    private static boolean indexFileMetaDataChanged;
+    private static int metaDataFlushInterval = 0; // Block appends between two writes of the metadata, 0 to write it only on flushes
+    private static int metaDataChangesSinceFlush;
+
+    // Stores keeping a single open channel to each of the data and index files
+    private static final BlockStore dataFileStore = new BlockStore(PATH_TO_DATAFILE, BLOCK_SIZE, BlockStore.ForcePolicy.ON_FLUSH);
+    private static final BlockStore indexFileStore = new BlockStore(PATH_TO_INDEXFILE, BLOCK_SIZE, BlockStore.ForcePolicy.ON_FLUSH);
+
+    // Index from the id of every record of the data file to the block and slot holding it
+    private static final BlockStore recordIdIndexStore = new BlockStore(PATH_TO_RECORD_ID_INDEX, BLOCK_SIZE, BlockStore.ForcePolicy.ON_FLUSH);
+    private static final RecordIdIndex recordIdIndex = new RecordIdIndex(recordIdIndexStore);
+    private static final RecordSource dataFileRecords = new RecordSource() {
+        @Override
+        public ByteBuffer readBlock(int blockId) throws IOException {
+            return readDataFileBuffer(blockId);
+        }
+
+        @Override
+        public RecordIdIndex getRecordIdIndex() {
+            return recordIdIndex;
+        }
+    };
+
+    // Columnar copy of the ids and coordinates of the records of the data file, scanned by the sequential queries
+    private static final ColumnarCoordinateStore columnarCoordinateStore = new ColumnarCoordinateStore(PATH_TO_COLUMNAR_STORE);
+
+    // Memory mapped views of the data and index files, used for reading blocks when memory mapped reads are enabled
+    private static boolean memoryMappedReads = false;
+    private static final MappedBlockFile mappedDataFile = new MappedBlockFile(dataFileStore);
+    private static final MappedBlockFile mappedIndexFile = new MappedBlockFile(indexFileStore);
+
+    // Blocks of the index file that were freed and are reused before the file is extended
+    private static final BlockAllocator indexFileAllocator = new BlockAllocator();
+
+    // Changes made to the index file, so that an iterator holding block ids across lock releases detects that they may be stale
+    private static final AtomicLong indexFileModifications = new AtomicLong();
+
+    // Redo log of the changes to the index file, null while the changes are written straight to the index file
+    private static WriteAheadLog writeAheadLog;
+    private static boolean redoingWriteAheadLog; // Whether the logged operations are being redone, so they are not logged again
+    private static Runnable redoHook; // Run before every redone operation, so that the tests can crash in the middle of a recovery
+    private static boolean synchronousCommits = false; // Whether every insertion and deletion flushes the index file without the log
+
+    // Buffer pool caching the Nodes of the index file, shared by every traversal of the tree
+    private static IndexBufferPool indexBufferPool = new IndexBufferPool(IndexBufferPool.DEFAULT_CAPACITY, IndexBufferPool.EvictionPolicy.LRU, IndexBufferPool.DEFAULT_PINNED_LEVELS);
+
     /**
      * Serializes an object to a byte array.
      * @param obj The object to serialize.
@@ -48,35 +105,118 @@ public class helper {
     }
 
     /**
-     * Updates metadata in a file based on the path specified.
-     * Metadata includes dimensions, block size, total blocks, and tree levels.
+     * Counts one more block in the metadata of a file.
+     * The metadata is kept in memory and only written to the file's header by flushMetaData,
+     * unless a flush interval is set and that many changes have been made since the last flush.
      * @param pathToFile Decides what Metadata will change (Index or Data).
      */
     static void updateMetaData(String pathToFile) {
+        if (pathToFile.equals(PATH_TO_DATAFILE))
+        {
+            ++totalBlocksInDatafile;
+            dataFileMetaDataChanged = true;
+        }
+        else if (pathToFile.equals(PATH_TO_INDEXFILE))
+        {
+            ++totalBlocksInIndexFile;
+            indexFileMetaDataChanged = true;
+        }
+        // With the write-ahead log the header is only written at checkpoints, along with the blocks it counts
+        if (metaDataFlushInterval > 0 && writeAheadLog == null && ++metaDataChangesSinceFlush >= metaDataFlushInterval)
+            flushMetaData();
+    }
+
+    /**
+     * Writes the metadata of the data and index files that changed since the last flush to their headers.
+     * With the write-ahead log enabled only the header of the data file is written, since the total blocks and levels
+     * of the index file count Nodes that may only be dirty in the buffer pool, and a header counting them before they
+     * reach the index file would not match the tree left by a crash. Its header is written at the next checkpoint instead.
+     */
+    public static void flushMetaData() {
+        flushMetaData(writeAheadLog == null);
+    }
+
+    /**
+     * Writes the metadata that changed since the last flush to the headers of the files.
+     *
+     * @param includeIndexFile Whether the header of the index file is written too, along with the one of the data file.
+     */
+    private static void flushMetaData(boolean includeIndexFile) {
         try {
-            ArrayList<Integer> dataFileMetaData = new ArrayList<>();
-            dataFileMetaData.add(dataDimensions);
-            dataFileMetaData.add(BLOCK_SIZE);
-            if (pathToFile.equals(PATH_TO_DATAFILE))
-                dataFileMetaData.add(++totalBlocksInDatafile);
-            else if (pathToFile.equals(PATH_TO_INDEXFILE))
-            {
-                dataFileMetaData.add(++totalBlocksInIndexFile);
-                dataFileMetaData.add(totalLevelsOfTreeIndex);
-            }
-            byte[] metaDataInBytes = serialize(dataFileMetaData);
-            byte[] metadataLength = serialize(metaDataInBytes.length);
-            byte[] block = new byte[BLOCK_SIZE];
-            System.arraycopy(metadataLength, 0, block, 0, metadataLength.length);
-            System.arraycopy(metaDataInBytes, 0, block, metadataLength.length, metaDataInBytes.length);
-
-            RandomAccessFile f = new RandomAccessFile(new File(pathToFile), "rw");
-            f.write(block);
-            f.close();
+            if (dataFileMetaDataChanged)
+                writeMetaData(PATH_TO_DATAFILE);
+            if (includeIndexFile && indexFileMetaDataChanged)
+                writeMetaData(PATH_TO_INDEXFILE);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        metaDataChangesSinceFlush = 0;
+    }
+
+    /**
+     * Sets after how many block appends the metadata is written to the headers of the files.
+     * With 0 it is only written by flushMetaData, which is called on every flush of the index file.
+     *
+     * @param metaDataFlushInterval The number of appends between two writes of the metadata.
+     */
+    public static void setMetaDataFlushInterval(int metaDataFlushInterval) {
+        if (metaDataFlushInterval < 0)
+            throw new IllegalArgumentException("The metadata flush interval cannot be a negative number");
+        helper.metaDataFlushInterval = metaDataFlushInterval;
+    }
+
+    /**
+     * Writes the current metadata of a file as the next generation of its header.
+     * Only the header copy of that generation is written, so the previous copy stays valid until the write completes.
+     * @param pathToFile Decides what Metadata will be written (Index or Data).
+     */
+    private static void writeMetaData(String pathToFile) throws IOException {
+        FileHeader header;
+        if (pathToFile.equals(PATH_TO_DATAFILE))
+        {
+            header = new FileHeader(++dataFileHeaderGeneration, dataDimensions, BLOCK_SIZE, totalBlocksInDatafile, 0, 0);
+            dataFileMetaDataChanged = false;
+        }
+        else
+        {
+            header = new FileHeader(++indexFileHeaderGeneration, dataDimensions, BLOCK_SIZE, totalBlocksInIndexFile, totalLevelsOfTreeIndex, RStarTree.getRootNodeBlockId());
+            indexFileMetaDataChanged = false;
+        }
+        storeOf(pathToFile).write(0, FileHeader.copyOffset(header.generation), header.encode());
+    }
+
+    /**
+     * Starts the metadata of a newly created file, whose only block is the metadata block, and writes its header.
+     * @param pathToFile Decides what Metadata will be created (Index or Data).
+     */
+    private static void createMetaData(String pathToFile) throws IOException {
+        if (pathToFile.equals(PATH_TO_DATAFILE))
+        {
+            totalBlocksInDatafile = 1;
+            dataFileHeaderGeneration = 0;
+        }
+        else
+        {
+            totalBlocksInIndexFile = 1;
+            indexFileHeaderGeneration = 0;
+        }
+        storeOf(pathToFile).write(0, new byte[BLOCK_SIZE]); // Allocating the whole metadata block
+        writeMetaData(pathToFile);
     }
+
+    /**
+     * Returns the block store of the data file or the index file.
+     * @param pathToFile The path of the file.
+     * @return The store of the file.
+     */
+    static BlockStore storeOf(String pathToFile) {
+        if (pathToFile.equals(PATH_TO_DATAFILE))
+            return dataFileStore;
+        if (pathToFile.equals(PATH_TO_INDEXFILE))
+            return indexFileStore;
+        throw new IllegalArgumentException("There is no block store for " + pathToFile);
+    }
+
     public static int getTotalBlocksInIndexFile() {
         return totalBlocksInIndexFile;
     }
@@ -88,28 +228,335 @@ public class helper {
         return totalLevelsOfTreeIndex;
     }
 
+    public static IndexBufferPool getIndexBufferPool() {
+        return indexBufferPool;
+    }
+
+    /**
+     * Replaces the buffer pool of the index file with a new one of the given configuration.
+     * Any dirty Nodes of the previous pool are written to the index file first.
+     *
+     * @param capacity The maximum number of unpinned Nodes kept in memory.
+     * @param evictionPolicy The policy used to choose which Node gets evicted.
+     * @param pinnedLevels The number of top levels of the tree that are never evicted.
+     */
+    public static void configureIndexBufferPool(int capacity, IndexBufferPool.EvictionPolicy evictionPolicy, int pinnedLevels) {
+        IndexBufferPool newIndexBufferPool = new IndexBufferPool(capacity, evictionPolicy, pinnedLevels);
+        newIndexBufferPool.setNoSteal(writeAheadLog != null);
+        flushIndexFile();
+        indexBufferPool = newIndexBufferPool;
+    }
+
+    public static boolean isMemoryMappedReads() {
+        return memoryMappedReads;
+    }
+
+    /**
+     * Enables or disables the memory mapped read path of the data and index files.
+     * When enabled, blocks are sliced out of a mapped region of the file instead of being read into a new array.
+     *
+     * @param memoryMappedReads true to read the blocks through memory mapping.
+     */
+    public static void setMemoryMappedReads(boolean memoryMappedReads) {
+        helper.memoryMappedReads = memoryMappedReads;
+        if (!memoryMappedReads)
+        {
+            mappedDataFile.close();
+            mappedIndexFile.close();
+        }
+    }
+
+    /**
+     * Writes every Node that was updated in the buffer pool back to the index file,
+     * forcing the written blocks of both files to the storage device when their force policy asks for it.
+     * With the write-ahead log enabled this is a checkpoint.
+     */
+    public static void flushIndexFile() {
+        if (writeAheadLog != null)
+        {
+            checkpointIndexFile();
+            return;
+        }
+        indexBufferPool.flush();
+        flushMetaData();
+        try {
+            dataFileStore.flush();
+            indexFileStore.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Enables the write-ahead log, so that the insertions and deletions are logged and group committed
+     * instead of writing the Nodes they change to the index file, which then only changes at checkpoints.
+     * The index file is flushed first, so that the log starts from its current state.
+     * Enable it after building the tree, since a build keeps every Node in the buffer pool until it ends.
+     *
+     * @param syncIntervalMillis The milliseconds between two forces of the log, or 0 to force it on every commit.
+     * @throws IOException if the log cannot be opened.
+     */
+    public static void enableWriteAheadLog(long syncIntervalMillis) throws IOException {
+        RStarTree.getTreeLock().writeLock().lock();
+        try {
+            if (writeAheadLog != null)
+                disableWriteAheadLog();
+            flushIndexFile();
+            WriteAheadLog newWriteAheadLog = new WriteAheadLog(PATH_TO_WRITE_AHEAD_LOG, syncIntervalMillis);
+            newWriteAheadLog.truncate();
+            writeAheadLog = newWriteAheadLog;
+            indexBufferPool.setNoSteal(true);
+        } finally {
+            RStarTree.getTreeLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes a last checkpoint and disables the write-ahead log, deleting it.
+     *
+     * @throws IOException if the log cannot be closed or deleted.
+     */
+    public static void disableWriteAheadLog() throws IOException {
+        RStarTree.getTreeLock().writeLock().lock();
+        try {
+            if (writeAheadLog == null)
+                return;
+            checkpointIndexFile();
+            writeAheadLog.close();
+            writeAheadLog = null;
+            indexBufferPool.setNoSteal(false);
+            Files.deleteIfExists(Paths.get(PATH_TO_WRITE_AHEAD_LOG));
+        } finally {
+            RStarTree.getTreeLock().writeLock().unlock();
+        }
+    }
+
+    public static boolean isWriteAheadLogEnabled() {
+        return writeAheadLog != null;
+    }
+
+    /**
+     * Returns how many times the write-ahead log was forced since it was enabled.
+     */
+    public static long getWriteAheadLogSyncs() {
+        return writeAheadLog == null ? 0 : writeAheadLog.getSyncs();
+    }
+
+    /**
+     * Logs the insertion of a record into the tree, if the write-ahead log is enabled.
+     */
+    static void logInsertion(LeafEntry leafEntry) {
+        if (writeAheadLog != null && !redoingWriteAheadLog)
+            writeAheadLog.logInsertion(leafEntry);
+    }
+
+    /**
+     * Logs the deletion of a record from the tree, if the write-ahead log is enabled.
+     */
+    static void logDeletion(LeafEntry leafEntry) {
+        if (writeAheadLog != null && !redoingWriteAheadLog)
+            writeAheadLog.logDeletion(leafEntry);
+    }
+
+    /**
+     * Ends an insertion or deletion. With the write-ahead log the logged operation is committed, taking a checkpoint once
+     * the log or the dirty Nodes grow too large. Without it the changed Nodes stay dirty in the buffer pool until they are
+     * evicted or flushIndexFile is called, unless synchronous commits are enabled, which flush the index file every time.
+     * An operation redone by a recovery is already in the log, and its Nodes wait for the checkpoint that ends the recovery.
+     */
+    static void commitIndexFile() {
+        if (writeAheadLog == null)
+        {
+            if (synchronousCommits)
+                flushIndexFile();
+            return;
+        }
+        if (redoingWriteAheadLog)
+            return;
+        try {
+            writeAheadLog.commit();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not commit to the write-ahead log", e);
+        }
+        if (writeAheadLog.size() >= CHECKPOINT_LOG_BYTES || indexBufferPool.getDirtyNodeCount() > indexBufferPool.getCapacity())
+            checkpointIndexFile();
+    }
+
     /**
-     * Reads and returns the metadata from the specified file path.
-     * @param pathToFile The file path from which metadata is read (Always on Datafile.dat).
-     * @return An ArrayList of Integers containing the metadata.
+     * Writes the dirty Nodes of the buffer pool to the index file through the write-ahead log.
+     * Their images are logged and forced first, so that a crash while they are written in place
+     * is recovered by writing them again, and the log is emptied once the index file is forced.
      */
-    static ArrayList<Integer> readMetaData(String pathToFile){
+    private static void checkpointIndexFile() {
         try {
-            RandomAccessFile raf = new RandomAccessFile(new File(pathToFile), "rw");
-            FileInputStream fis = new FileInputStream(raf.getFD());
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            byte[] block = new byte[BLOCK_SIZE];
-            if (bis.read(block,0,BLOCK_SIZE) != BLOCK_SIZE)
-                throw new IllegalStateException("Block size read was not of " + BLOCK_SIZE + " bytes");
+            for (Node node : indexBufferPool.getDirtyNodes())
+                writeAheadLog.logPage(node.getBlockId(), NodePageCodec.encode(node));
+            writeAheadLog.logCheckpoint(totalBlocksInIndexFile, totalLevelsOfTreeIndex);
+            writeAheadLog.sync();
+            indexBufferPool.flush();
+            flushMetaData(true);
+            dataFileStore.force();
+            indexFileStore.force();
+            writeAheadLog.truncate();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not checkpoint the index file", e);
+        }
+    }
+
+    /**
+     * Recovers the index file that was just opened from its write-ahead log, if one was left behind:
+     * the images of the last complete checkpoint are written again and the operations logged after it are redone.
+     * The redone operations change the Nodes in the buffer pool only, which keeps them until a checkpoint
+     * logs their images after the operations and writes them in place, so that a crash during the recovery
+     * leaves the index file as it was and the next recovery starts over from the same log.
+     *
+     * @throws IOException if the log cannot be read or the index file cannot be written.
+     */
+    private static void recoverIndexFile() throws IOException {
+        WriteAheadLog.Recovery recovery = WriteAheadLog.read(PATH_TO_WRITE_AHEAD_LOG);
+        if (recovery == null)
+            return;
+        if (recovery.hasCheckpoint())
+        {
+            // Writing the images again is harmless if they were already written before the crash
+            for (int i = 0; i < recovery.getImages().size(); i++)
+                indexFileStore.write(recovery.getImageBlockIds().get(i), recovery.getImages().get(i));
+            totalBlocksInIndexFile = recovery.getTotalBlocks();
+            totalLevelsOfTreeIndex = recovery.getTotalLevels();
+            indexFileMetaDataChanged = true;
+            flushMetaData(true);
+            indexFileStore.force();
+        }
+        if (!recovery.getOperations().isEmpty())
+            redoOperations(recovery);
+        if (writeAheadLog != null)
+            writeAheadLog.truncate();
+        else
+            Files.deleteIfExists(Paths.get(PATH_TO_WRITE_AHEAD_LOG));
+    }
+
+    /**
+     * Redoes the operations logged after the last checkpoint into the buffer pool and checkpoints them.
+     * The torn end of the log, if any, is cut off first, so that the checkpoint records follow the operations they cover.
+     *
+     * @param recovery The operations to redo.
+     * @throws IOException if the log cannot be written.
+     */
+    private static void redoOperations(WriteAheadLog.Recovery recovery) throws IOException {
+        WriteAheadLog openWriteAheadLog = writeAheadLog;
+        WriteAheadLog recoveryLog = openWriteAheadLog != null ? openWriteAheadLog : new WriteAheadLog(PATH_TO_WRITE_AHEAD_LOG, 0);
+        try {
+            recoveryLog.truncate(recovery.getLength());
+            writeAheadLog = recoveryLog;
+            redoingWriteAheadLog = true;
+            indexBufferPool.setNoSteal(true);
+            RStarTree rStarTree = new RStarTree(false);
+            for (WriteAheadLog.Operation operation : recovery.getOperations())
+            {
+                if (redoHook != null)
+                    redoHook.run();
+                if (operation.isInsertion())
+                    rStarTree.redoInsertion(operation.getLeafEntry());
+                else
+                    rStarTree.deleteRecord(operation.getLeafEntry());
+            }
+            redoingWriteAheadLog = false;
+            checkpointIndexFile();
+        } catch (RuntimeException | IOException e) {
+            indexBufferPool.clear(); // The redone Nodes never reach the index file, the next recovery redoes them again
+            throw e;
+        } finally {
+            redoingWriteAheadLog = false;
+            writeAheadLog = openWriteAheadLog;
+            indexBufferPool.setNoSteal(openWriteAheadLog != null);
+            if (recoveryLog != openWriteAheadLog)
+                recoveryLog.close();
+        }
+    }
+
+    /**
+     * Sets an action run before every operation redone by a recovery, e.g. one throwing to crash in the middle of it.
+     *
+     * @param redoHook The action, or null to run none.
+     */
+    static void setRedoHook(Runnable redoHook) {
+        helper.redoHook = redoHook;
+    }
+
 
-            byte[] goodPutLengthInBytes = serialize(new Random().nextInt()); // Serializing an integer in order to get the size of goodPutLength in bytes
-            System.arraycopy(block, 0, goodPutLengthInBytes, 0, goodPutLengthInBytes.length);
+    /**
+     * Flushes the index file and saves a copy of it, which can later be opened with an IndexFileReader
+     * while a new index file is built, e.g. to join the trees of two datasets.
+     * The leaf entries of the copy point into the data file, which is replaced when the data file of another dataset
+     * is created, so the data file and its record id index are saved next to the copy too (see savedDataFileOf),
+     * and the IndexFileReader reads the records of the copy from them.
+     *
+     * @param pathToCopy The path of the copy, replaced if it already exists.
+     * @throws IOException if the index file or the data file cannot be copied.
+     */
+    public static void saveIndexFileAs(String pathToCopy) throws IOException {
+        flushIndexFile();
+        flushMetaData();
+        dataFileStore.flush();
+        recordIdIndex.flush();
+        Files.copy(Paths.get(PATH_TO_INDEXFILE), Paths.get(pathToCopy), StandardCopyOption.REPLACE_EXISTING);
+        String pathToSavedDataFile = savedDataFileOf(pathToCopy);
+        Files.copy(Paths.get(PATH_TO_DATAFILE), Paths.get(pathToSavedDataFile), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(Paths.get(PATH_TO_RECORD_ID_INDEX), Paths.get(recordIdIndexOf(pathToSavedDataFile)), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the path of the data file saved along with a copy of the index file.
+     *
+     * @param pathToIndexFileCopy The path of the copy of the index file.
+     * @return The path of the copy of the data file.
+     */
+    static String savedDataFileOf(String pathToIndexFileCopy) {
+        return pathToIndexFileCopy + ".data";
+    }
 
-            byte[] dataInBlock = new byte[(Integer)deserialize(goodPutLengthInBytes)];
-            System.arraycopy(block, goodPutLengthInBytes.length, dataInBlock, 0, dataInBlock.length);
+    /**
+     * Returns the path of the record id index of a data file.
+     */
+    static String recordIdIndexOf(String pathToDataFile) {
+        return pathToDataFile + ".ids";
+    }
+
+    public static boolean isSynchronousCommits() {
+        return synchronousCommits;
+    }
+
+    /**
+     * Sets whether every insertion and deletion made without the write-ahead log flushes the index file before returning,
+     * writing back the dirty Nodes and the headers and forcing both files under the ON_FLUSH policy.
+     * It is off by default, leaving the changes in the buffer pool until flushIndexFile is called, since flushing costs
+     * far more than the operation itself. The write-ahead log makes the operations durable at a fraction of that cost.
+     *
+     * @param synchronousCommits true to flush the index file after every insertion and deletion.
+     */
+    public static void setSynchronousCommits(boolean synchronousCommits) {
+        helper.synchronousCommits = synchronousCommits;
+    }
 
-            return (ArrayList<Integer>)deserialize(dataInBlock);
+    /**
+     * Sets when the blocks written to the data and index files are forced to the storage device.
+     *
+     * @param forcePolicy The force policy of both files.
+     */
+    public static void setForcePolicy(BlockStore.ForcePolicy forcePolicy) {
+        dataFileStore.setForcePolicy(forcePolicy);
+        indexFileStore.setForcePolicy(forcePolicy);
+        recordIdIndexStore.setForcePolicy(forcePolicy);
+    }
 
+    /**
+     * Reads and returns the metadata from the header of the specified file.
+     * @param pathToFile The file path from which metadata is read.
+     * @return The newest valid header of the file.
+     */
+    static FileHeader readMetaData(String pathToFile){
+        try {
+            return FileHeader.decode(storeOf(pathToFile).read(0));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -125,41 +572,36 @@ public class helper {
      */
     public static void CreateDataFile(List<Record> records, int dataDimensions, boolean makeNewDataFile) {
         try {
-            if (!makeNewDataFile && Files.exists(Paths.get(PATH_TO_DATAFILE)))
+            if (!makeNewDataFile && dataFileStore.exists())
             {
-                ArrayList<Integer> dataFileMetaData = readMetaData(PATH_TO_DATAFILE);
+                FileHeader dataFileMetaData = readMetaData(PATH_TO_DATAFILE);
                 if (dataFileMetaData == null)
                     throw new IllegalStateException("Could not read datafile's Meta Data Block properly");
-                helper.dataDimensions = dataFileMetaData.get(0);
+                helper.dataDimensions = dataFileMetaData.dimensions;
                 if (helper.dataDimensions  <= 0)
                     throw new IllegalStateException("The number of data dimensions must be a positive integer");
-                if (dataFileMetaData.get(1) != BLOCK_SIZE)
+                if (dataFileMetaData.blockSize != BLOCK_SIZE)
                     throw new IllegalStateException("Block size read was not of " + BLOCK_SIZE + " bytes");
-                totalBlocksInDatafile = dataFileMetaData.get(2);
+                totalBlocksInDatafile = dataFileMetaData.totalBlocks;
+                dataFileHeaderGeneration = dataFileMetaData.generation;
+                dataFileMetaDataChanged = false;
                 if (totalBlocksInDatafile  < 0)
                     throw new IllegalStateException("The total blocks of the datafile cannot be a negative number");
+                if (!recordIdIndex.open(totalBlocksInDatafile))
+                    buildRecordIdIndex(); // A data file written before the index existed, or whose index is out of date
             }else{
-                Files.deleteIfExists(Paths.get(PATH_TO_DATAFILE));
-                helper.dataDimensions=dataDimensions;
-                if (dataDimensions <= 0)
-                    throw new IllegalStateException("The number of data dimensions must be a positive integer");
-
-
-                updateMetaData(PATH_TO_DATAFILE);
-                ArrayList<Record> blockRecords = new ArrayList<>();
-                int currentBlockSize=0;
-                for (Record record : records) {
-                    byte [] recordBytes = serialize(record);
-                    if (currentBlockSize + recordBytes.length > BLOCK_SIZE) {
-                        writeDataFileBlock(blockRecords);
-                        blockRecords = new ArrayList<>();
-                        currentBlockSize = 0;
+                resetDataFile(dataDimensions);
+                DataBlockPacker blockPacker = new DataBlockPacker();
+                try (DataFileWriter dataFileWriter = new DataFileWriter()) {
+                    for (Record record : records) {
+                        if (!blockPacker.add(record)) {
+                            dataFileWriter.append(blockPacker.takeBlock());
+                            blockPacker.add(record);
+                        }
                     }
-
-                    blockRecords.add(record);
-                    currentBlockSize+=recordBytes.length;
+                    if (!blockPacker.isEmpty())
+                        dataFileWriter.append(blockPacker.takeBlock()); // fill the leftovers
                 }
-                writeDataFileBlock(blockRecords); // fill the leftovers
             }
 
         } catch (Exception e) {
@@ -167,6 +609,22 @@ public class helper {
         }
     }
 
+    /**
+     * Deletes the data file so that a new one can be written, starting it with only its metadata block.
+     * @param dataDimensions The number of dimensions each data entry uses.
+     * @throws IOException if the old data file cannot be deleted.
+     */
+    static void resetDataFile(int dataDimensions) throws IOException {
+        if (dataDimensions <= 0)
+            throw new IllegalStateException("The number of data dimensions must be a positive integer");
+        mappedDataFile.close(); // The mapping would still point to the deleted file
+        dataFileStore.delete();
+        recordIdIndex.delete();
+        columnarCoordinateStore.delete();
+        helper.dataDimensions = dataDimensions;
+        createMetaData(PATH_TO_DATAFILE);
+    }
+
     /**
      * Creates or updates the index file based on the specified parameters.
      * If the file exists and no new file creation is requested, it reads and updates based on existing data.
@@ -176,34 +634,44 @@ public class helper {
      * @param makeNewDataFile A boolean flag indicating whether a new index file should be created.
      */
     public static void CreateIndexFile(int dataDimensions, boolean makeNewDataFile) throws IOException {
+        indexFileModifications.incrementAndGet();
+        indexBufferPool.clear(); // Nodes of a previous index file are no longer valid
+        indexFileAllocator.clear();
+        mappedIndexFile.close();
         try {
-            if (!makeNewDataFile && Files.exists(Paths.get(PATH_TO_INDEXFILE)))
+            if (!makeNewDataFile && indexFileStore.exists())
             {
-                ArrayList<Integer> indexFileMetaData = readMetaData(PATH_TO_INDEXFILE);
+                FileHeader indexFileMetaData = readMetaData(PATH_TO_INDEXFILE);
                 if (indexFileMetaData == null)
                     throw new IllegalStateException("Could not read datafile's Meta Data Block properly");
-                helper.dataDimensions = indexFileMetaData.get(0);
+                helper.dataDimensions = indexFileMetaData.dimensions;
                 if (helper.dataDimensions  <= 0)
                     throw new IllegalStateException("The number of data dimensions must be a positive integer");
-                if (indexFileMetaData.get(1) != BLOCK_SIZE)
+                if (indexFileMetaData.blockSize != BLOCK_SIZE)
                     throw new IllegalStateException("Block size read was not of " + BLOCK_SIZE + " bytes");
-                totalBlocksInIndexFile = indexFileMetaData.get(2);
+                totalBlocksInIndexFile = indexFileMetaData.totalBlocks;
                 if (totalBlocksInIndexFile  < 0)
                     throw new IllegalStateException("The total blocks of the index file cannot be a negative number");
-                totalLevelsOfTreeIndex = indexFileMetaData.get(3);
+                totalLevelsOfTreeIndex = indexFileMetaData.totalLevels;
                 if (totalLevelsOfTreeIndex  < 0)
                     throw new IllegalStateException("The total index's tree levels cannot be a negative number");
+                if (indexFileMetaData.rootBlockId != RStarTree.getRootNodeBlockId())
+                    throw new IllegalStateException("The root of the index file is expected in block " + RStarTree.getRootNodeBlockId());
+                indexFileHeaderGeneration = indexFileMetaData.generation;
+                indexFileMetaDataChanged = false;
+                recoverIndexFile();
             }else{
-                Files.deleteIfExists(Paths.get(PATH_TO_INDEXFILE)); // Resetting/Deleting dataFile data
-                helper.dataDimensions = dataDimensions;
-                if (dataDimensions <= 0)
-                    throw new IllegalStateException("The number of data dimensions must be a positive integer");
-                Files.deleteIfExists(Paths.get(PATH_TO_INDEXFILE)); // Resetting/Deleting index file data
+                // The operations logged for a previous index file no longer apply
+                if (writeAheadLog != null)
+                    writeAheadLog.truncate();
+                else
+                    Files.deleteIfExists(Paths.get(PATH_TO_WRITE_AHEAD_LOG));
+                indexFileStore.delete(); // Resetting/Deleting index file data
                 helper.dataDimensions = dataDimensions;
                 totalLevelsOfTreeIndex = 1; // increasing the size from the root, the root (top level) will always have the highest level
                 if (helper.dataDimensions <= 0)
                     throw new IllegalStateException("The number of data dimensions must be a positive integer");
-                updateMetaData(PATH_TO_INDEXFILE);
+                createMetaData(PATH_TO_INDEXFILE);
             }
         }catch (Exception e) {
             e.printStackTrace();
@@ -220,113 +688,416 @@ public class helper {
      */
     public static void writeDataFileBlock(ArrayList<Record> blockRecords) {
         try {
-            byte[] recordInBytes = serialize(blockRecords);
-            byte[] LengthInBytes = serialize(recordInBytes.length);
-            byte[] block = new byte[BLOCK_SIZE];
-            System.arraycopy(LengthInBytes, 0, block, 0, LengthInBytes.length);
-            System.arraycopy(recordInBytes, 0, block, LengthInBytes.length, recordInBytes.length);
-
-            FileOutputStream fos = new FileOutputStream(PATH_TO_DATAFILE,true);
-            BufferedOutputStream bout = new BufferedOutputStream(fos);
-            bout.write(block);
+            int blockId = totalBlocksInDatafile;
+            dataFileStore.write(blockId, encodeDataFileBlock(blockRecords));
             updateMetaData(PATH_TO_DATAFILE);
+            RecordIdIndex.Locations locations = new RecordIdIndex.Locations();
+            locations.addBlock(blockRecords, blockId);
+            indexDataFileBlocks(locations, blockId);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Reads a specific block from the data file and deserializes it into a list of Record objects.
+     * Adds the records of blocks appended to the data file to the record id index.
+     * If the index does not cover every block before them it is built again from the whole data file instead.
      *
-     * @param blockId The block ID to read from the data file.
-     * @return A list of Record objects read from the specified block.
+     * @param locations The locations of the records of the appended blocks.
+     * @param firstBlockId The id of the first appended block.
+     * @throws IOException if the index cannot be written.
      */
+    static void indexDataFileBlocks(RecordIdIndex.Locations locations, int firstBlockId) throws IOException {
+        if (firstBlockId == 1)
+            recordIdIndex.build(locations, totalBlocksInDatafile);
+        else if (recordIdIndex.getIndexedDataFileBlocks() == firstBlockId)
+            recordIdIndex.add(locations, totalBlocksInDatafile);
+        else
+            buildRecordIdIndex();
+        recordIdIndex.flush();
+    }
 
-    public static ArrayList<Record> readDataFile(int blockId) {
-        // Declare the path to the data file
-        String dataFilePath = PATH_TO_DATAFILE;
-        byte[] block = new byte[BLOCK_SIZE];
-
-        try (RandomAccessFile raf = new RandomAccessFile(new File(dataFilePath), "r");
-             FileInputStream fis = new FileInputStream(raf.getFD());
-             BufferedInputStream bis = new BufferedInputStream(fis)) {
-
-            // Go to the expected block
-            raf.seek(blockId * BLOCK_SIZE);
-            if (bis.read(block, 0, BLOCK_SIZE) != BLOCK_SIZE) {
-                throw new IOException("Could not read the complete block");
-            }
+    /**
+     * Builds the record id index by reading every block of the data file once.
+     *
+     * @throws IOException if the index cannot be written.
+     */
+    private static void buildRecordIdIndex() throws IOException {
+        RecordIdIndex.Locations locations = new RecordIdIndex.Locations();
+        for (int blockId = 1; blockId < totalBlocksInDatafile; blockId++)
+        {
+            ArrayList<Record> blockRecords = readDataFileSlots(blockId);
+            if (blockRecords == null)
+                throw new IllegalStateException("Could not read block " + blockId + " of the datafile");
+            locations.addBlock(blockRecords, blockId);
+        }
+        recordIdIndex.build(locations, totalBlocksInDatafile);
+        recordIdIndex.flush();
+    }
 
-            // Process the block to extract records
-            byte[] lengthInBytes = serialize(Integer.parseInt("1"));  // Example size, likely needs adjustment
-            System.arraycopy(block, 0, lengthInBytes, 0, lengthInBytes.length);
+    /**
+     * Reads a record of the data file by its id, finding its block and slot through the record id index
+     * instead of scanning the data file.
+     *
+     * @param recordId The id of the record.
+     * @return The record, or null if there is no record with this id.
+     */
+    public static Record readRecord(long recordId) {
+        return readRecords(Collections.singletonList(recordId)).get(0);
+    }
 
-            byte[] recordsInBlock = new byte[(Integer) deserialize(lengthInBytes)];
-            System.arraycopy(block, lengthInBytes.length, recordsInBlock, 0, recordsInBlock.length);
+    /**
+     * Reads a batch of records of the data file by their ids. Their locations are found through the record id index,
+     * reading each of its buckets once, and the records are then decoded from their slots, each block of the data file
+     * being read once no matter how many of the records it holds.
+     *
+     * @param recordIds The ids of the records.
+     * @return The records in the order of the ids, with null for an id that has no record.
+     */
+    public static ArrayList<Record> readRecords(List<Long> recordIds) {
+        return readRecords(recordIds, dataFileRecords);
+    }
+
+    /**
+     * Reads a batch of records by their ids from a data file, the one of the trees or a saved copy of it.
+     *
+     * @param recordIds The ids of the records.
+     * @param recordSource The data file and its record id index.
+     * @return The records in the order of the ids, with null for an id that has no record.
+     */
+    static ArrayList<Record> readRecords(List<Long> recordIds, RecordSource recordSource) {
+        ArrayList<Record> records = new ArrayList<>(Collections.nCopies(recordIds.size(), (Record) null));
+        long[] ids = new long[recordIds.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = recordIds.get(i);
+        try {
+            long[] locations = recordSource.getRecordIdIndex().lookup(ids);
+            // The positions of the ids grouped by the block of the data file holding their records
+            TreeMap<Integer, ArrayList<Integer>> positionsByBlock = new TreeMap<>();
+            for (int i = 0; i < locations.length; i++)
+            {
+                if (locations[i] != RecordIdIndex.NOT_FOUND)
+                    positionsByBlock.computeIfAbsent(RecordIdIndex.dataFileBlockIdOf(locations[i]), blockId -> new ArrayList<>()).add(i);
+            }
+            for (Map.Entry<Integer, ArrayList<Integer>> block : positionsByBlock.entrySet())
+            {
+                ByteBuffer blockBuffer = recordSource.readBlock(block.getKey());
+                for (int i : block.getValue())
+                {
+                    Record record = DataPageCodec.decodeRecord(blockBuffer, RecordIdIndex.slotOf(locations[i]));
+                    if (record != null && record.getId() == ids[i])
+                        records.set(i, record);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the records of the data file", e);
+        }
+        return records;
+    }
 
-            return (ArrayList<Record>) deserialize(recordsInBlock);
+    /**
+     * Reads a single record of the data file by its block and slot, reading and decoding only
+     * the directory of the block up to the slot and the bytes of the record.
+     *
+     * @param dataFileBlockId The block of the data file holding the record.
+     * @param slot The slot of the record in the block.
+     * @return The record, or null if the slot is empty or not part of the block.
+     */
+    public static Record readRecord(int dataFileBlockId, int slot) {
+        if (slot < 0 || DataPageCodec.HEADER_BYTES + (slot + 1) * DataPageCodec.SLOT_BYTES > BLOCK_SIZE)
+            return null;
+        try {
+            if (memoryMappedReads)
+                return DataPageCodec.decodeRecord(mappedDataFile.readBlock(dataFileBlockId), slot);
 
+            ByteBuffer directory = ByteBuffer.wrap(dataFileStore.read(dataFileBlockId, 0, DataPageCodec.HEADER_BYTES + (slot + 1) * DataPageCodec.SLOT_BYTES));
+            if (slot >= directory.getInt(0))
+                return null;
+            int length = DataPageCodec.slotLength(directory, slot);
+            if (length == 0)
+                return null;
+            return DataPageCodec.readRecord(ByteBuffer.wrap(dataFileStore.read(dataFileBlockId, DataPageCodec.slotOffset(directory, slot), length)), 0);
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Returns the columnar store of the records of the data file, brought up to date with the data file first:
+     * it is loaded from its sidecar file, or built by reading the data file once, and the blocks appended to the
+     * data file since it was last used are added to it.
+     *
+     * @return The columnar coordinate store.
+     */
+    public static ColumnarCoordinateStore getColumnarCoordinateStore() {
+        synchronized (dataFileStore) {
+            try {
+                columnarCoordinateStore.synchronize(totalBlocksInDatafile, dataDimensions);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the columnar store of the data file", e);
+            }
+        }
+        return columnarCoordinateStore;
+    }
 
     /**
-     * Estimates the maximum number of entries that can be stored in a node without exceeding the block size.
-     * This method is useful for determining the capacity of nodes within the R*-tree structure.
+     * Replaces a record of the data file with a new version of it, found by its id.
+     * The record is rewritten in its slot when its block has room for it, otherwise it is moved to the last block
+     * of the data file, or to a new block if the last one is full too, and the record id index is updated. The tree is not changed, so if the
+     * coordinates of the record change the caller has to delete its old leaf entry and insert the new one.
      *
-     * @return The maximum number of entries per node.
+     * @param record The new version of the record.
+     * @return false if there is no record with the id of the given one.
      */
-    static int calculateMaxEntriesInNode() {
-        ArrayList<Entry> entries = new ArrayList<>();
-        int i;
-        for (i = 0; i < Integer.MAX_VALUE; i++) {
-            ArrayList<Bounds> boundsForEachDimension = new ArrayList<>();
-            for (int d = 0; d < dataDimensions; d++)
-                boundsForEachDimension.add(new Bounds(0.0, 0.0));
-            Entry entry = new LeafEntry(new Random().nextLong(),new Random().nextInt(), boundsForEachDimension);
-            entry.setChildNodeBlockId(new Random().nextLong());
-            entries.add(entry);
-            byte[] nodeInBytes = new byte[0];
-            byte[] goodPutBytes = new byte[0];
+    public static boolean updateDataFileRecord(Record record) {
+        synchronized (dataFileStore) {
             try {
-                nodeInBytes = serialize(new Node(new Random().nextInt(), entries));
-                goodPutBytes = serialize(nodeInBytes.length);
+                long location = recordIdIndex.lookup(record.getId());
+                if (location == RecordIdIndex.NOT_FOUND)
+                    return false;
+                int blockId = RecordIdIndex.dataFileBlockIdOf(location);
+                int slot = RecordIdIndex.slotOf(location);
+                byte[] block = dataFileStore.read(blockId);
+                Record oldRecord = DataPageCodec.decodeRecord(ByteBuffer.wrap(block), slot);
+                if (oldRecord == null || oldRecord.getId() != record.getId())
+                    return false;
+                columnarCoordinateStore.delete(); // Deleted before the data file changes, so that it never outlives the old version
+                if (!DataPageCodec.update(block, slot, record))
+                {
+                    // Writing the new version first, so that a crash in between leaves the old version rather than none
+                    int lastBlockId = totalBlocksInDatafile - 1;
+                    byte[] lastBlock = lastBlockId != blockId ? dataFileStore.read(lastBlockId) : null;
+                    int newSlot = lastBlock != null ? DataPageCodec.append(lastBlock, record) : -1;
+                    if (newSlot >= 0)
+                    {
+                        dataFileStore.write(lastBlockId, lastBlock);
+                        RecordIdIndex.Locations newLocation = new RecordIdIndex.Locations();
+                        newLocation.add(record.getId(), lastBlockId, newSlot);
+                        recordIdIndex.add(newLocation, totalBlocksInDatafile);
+                        recordIdIndex.flush();
+                    }
+                    else
+                        writeDataFileBlock(new ArrayList<>(Collections.singletonList(record)));
+                    DataPageCodec.delete(block, slot);
+                }
+                dataFileStore.write(blockId, block);
+                flushMetaData();
+                dataFileStore.flush();
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not update record " + record.getId() + " of the data file", e);
+            }
+        }
+    }
+
+    /**
+     * Deletes a record of the data file, found by its id, leaving its slot empty.
+     * The tree is not changed, so the caller also has to delete the leaf entry of the record.
+     *
+     * @param recordId The id of the record.
+     * @return false if there is no record with this id.
+     */
+    public static boolean deleteDataFileRecord(long recordId) {
+        synchronized (dataFileStore) {
+            try {
+                long location = recordIdIndex.lookup(recordId);
+                if (location == RecordIdIndex.NOT_FOUND)
+                    return false;
+                int blockId = RecordIdIndex.dataFileBlockIdOf(location);
+                int slot = RecordIdIndex.slotOf(location);
+                byte[] block = dataFileStore.read(blockId);
+                Record record = DataPageCodec.decodeRecord(ByteBuffer.wrap(block), slot);
+                if (record == null || record.getId() != recordId)
+                    return false;
+                columnarCoordinateStore.delete();
+                DataPageCodec.delete(block, slot);
+                dataFileStore.write(blockId, block);
+                dataFileStore.flush();
+                return true;
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new UncheckedIOException("Could not delete record " + recordId + " of the data file", e);
             }
-            if (goodPutBytes.length + nodeInBytes.length > BLOCK_SIZE)
-                break;
         }
-        return i;
     }
 
     /**
-     * Writes a serialized node to the index file.
+     * Encodes a list of Record objects into a slotted block of the data file.
+     *
+     * @param blockRecords The list of Record objects of the block.
+     * @return The block of BLOCK_SIZE bytes.
+     */
+    static byte[] encodeDataFileBlock(ArrayList<Record> blockRecords) {
+        return DataPageCodec.encode(blockRecords);
+    }
+
+    /**
+     * Reads a specific block from the data file and decodes it into a list of Record objects.
+     *
+     * @param blockId The block ID to read from the data file.
+     * @return A list of Record objects read from the specified block, without its empty slots.
+     */
+
+    public static ArrayList<Record> readDataFile(int blockId) {
+        try {
+            return DataPageCodec.decode(readDataFileBuffer(blockId));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a specific block from the data file keeping every record at the index of its slot,
+     * so that the slots of the records are known, e.g. to create their leaf entries.
+     *
+     * @param blockId The block ID to read from the data file.
+     * @return The record of every slot of the block, null for its empty slots.
+     */
+    static ArrayList<Record> readDataFileSlots(int blockId) {
+        try {
+            return DataPageCodec.decodeSlots(readDataFileBuffer(blockId));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the data file of the trees and its record id index, from which the records of their leaf entries are read.
+     */
+    static RecordSource dataFileRecords() {
+        return dataFileRecords;
+    }
+
+    /**
+     * Reads a block of the data file, sliced out of the memory mapped file when memory mapped reads are enabled.
+     */
+    static ByteBuffer readDataFileBuffer(int blockId) throws IOException {
+        return memoryMappedReads ? mappedDataFile.readBlock(blockId) : ByteBuffer.wrap(dataFileStore.read(blockId));
+    }
+
+
+    /**
+     * Calculates the maximum number of entries that can be stored in a node without exceeding the block size.
+     * This method is useful for determining the capacity of nodes within the R*-tree structure.
+     *
+     * @return The maximum number of entries per node.
+     */
+    static int calculateMaxEntriesInNode() {
+        return NodePageCodec.maxEntriesPerPage(dataDimensions);
+    }
+
+    /**
+     * Writes an encoded new node to the index file, to a freed block if there is one, otherwise at the end of the file.
+     * The block the node was written to is set as its block id.
      *
      * @param node The Node object to write to the index file.
      */
 
     static void writeNewIndexFileBlock(Node node) {
+        indexFileModifications.incrementAndGet();
         try {
-            byte[] nodeInBytes = serialize(node);
-            byte[] goodPutLengthInBytes = serialize(nodeInBytes.length);
-            byte[] block = new byte[BLOCK_SIZE];
-            System.arraycopy(goodPutLengthInBytes, 0, block, 0, goodPutLengthInBytes.length);
-            System.arraycopy(nodeInBytes, 0, block, goodPutLengthInBytes.length, nodeInBytes.length);
-
-            FileOutputStream fos = new FileOutputStream(PATH_TO_INDEXFILE,true);
-            BufferedOutputStream bout = new BufferedOutputStream(fos);
-            bout.write(block);
-            updateMetaData(PATH_TO_INDEXFILE);
+            long blockId = indexFileAllocator.allocate(totalBlocksInIndexFile);
+            node.setBlockId(blockId);
+            if (writeAheadLog == null)
+                indexFileStore.write(blockId, NodePageCodec.encode(node));
+            if (blockId == totalBlocksInIndexFile)
+                updateMetaData(PATH_TO_INDEXFILE);
+            indexBufferPool.put(node, writeAheadLog != null); // With the write-ahead log the block is written at the next checkpoint
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Frees a block of the index file whose Node is no longer part of the tree, so that it is reused by a following new block.
+     *
+     * @param blockId The block ID of the removed Node.
+     */
+    static void freeIndexFileBlock(long blockId) {
+        if (blockId == RStarTree.getRootNodeBlockId())
+            throw new IllegalArgumentException("The block of the root cannot be freed");
+        indexFileModifications.incrementAndGet();
+        indexBufferPool.discard(blockId);
+        indexFileAllocator.release(blockId);
+    }
+
+    /**
+     * Returns how many times the index file has been changed, i.e. a node written, freed or moved, or the file recreated.
+     * An iterator that keeps block ids of the tree while it does not hold the read lock of the tree checks that the count
+     * has not changed before it reads them again, since freed blocks are reused and compaction renumbers every block.
+     *
+     * @return The count of changes to the index file.
+     */
+    public static long getIndexFileModifications() {
+        return indexFileModifications.get();
+    }
+
+    /**
+     * Returns the number of blocks of the index file that were freed since it was opened and are not reused yet.
+     */
+    public static int getFreeBlocksInIndexFile() {
+        return indexFileAllocator.getFreeBlocks();
+    }
+
+    /**
+     * Rewrites the index file without the blocks that are not part of the tree.
+     * The nodes are copied breadth first from the root to a new file, taking consecutive blocks in that order
+     * so that the nodes of each level end up next to each other, with the child pointers of their entries
+     * changed to the new blocks. The new file then atomically replaces the index file.
+     * The caller must make sure that the tree is not accessed during the compaction, which RStarTree.compactIndexFile
+     * does by holding the write lock of the tree for all of it.
+     *
+     * @throws IOException if the compacted file cannot be written or moved in place of the index file.
+     */
+    static void compactIndexFile() throws IOException {
+        indexFileModifications.incrementAndGet(); // Every block is renumbered
+        flushIndexFile(); // The index file has to be up to date, since it is read around the buffer pool
+        String pathToCompactedFile = PATH_TO_INDEXFILE + ".compacted";
+        int compactedBlocks;
+        long generation = indexFileHeaderGeneration + 1;
+        try (BlockStore compactedFileStore = new BlockStore(pathToCompactedFile, BLOCK_SIZE, BlockStore.ForcePolicy.NEVER)) {
+            compactedFileStore.delete();
+            compactedFileStore.write(0, new byte[BLOCK_SIZE]); // Allocating the whole metadata block
+            ArrayDeque<Long> blocksToCopy = new ArrayDeque<>(); // The old blocks of the nodes, in the order they get their new blocks
+            blocksToCopy.add((long) RStarTree.getRootNodeBlockId());
+            long nextBlockId = RStarTree.getRootNodeBlockId(); // The block of the next node to be copied
+            long nextChildBlockId = nextBlockId + 1; // The block given to the next child found
+            while (!blocksToCopy.isEmpty())
+            {
+                Node node = readIndexFileBlockFromDisk(blocksToCopy.poll());
+                if (node == null)
+                    throw new IllegalStateException("The Node-block read from file is null");
+                if (node.getLevel() != RStarTree.getLeafLevel())
+                {
+                    for (Entry entry : node.getEntries())
+                    {
+                        blocksToCopy.add(entry.getChildNodeBlockId());
+                        entry.setChildNodeBlockId(nextChildBlockId++);
+                    }
+                }
+                node.setBlockId(nextBlockId++);
+                compactedFileStore.write(node.getBlockId(), NodePageCodec.encode(node));
+            }
+            compactedBlocks = (int) nextBlockId;
+            FileHeader header = new FileHeader(generation, dataDimensions, BLOCK_SIZE, compactedBlocks, totalLevelsOfTreeIndex, RStarTree.getRootNodeBlockId());
+            compactedFileStore.write(0, FileHeader.copyOffset(generation), header.encode());
+            compactedFileStore.force();
+        }
+
+        indexBufferPool.clear();
+        mappedIndexFile.close();
+        indexFileStore.close();
+        Files.move(Paths.get(pathToCompactedFile), Paths.get(PATH_TO_INDEXFILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexFileHeaderGeneration = generation;
+        totalBlocksInIndexFile = compactedBlocks;
+        indexFileMetaDataChanged = false;
+        indexFileAllocator.clear();
+    }
     /**
      * Updates the indexFile block with the corresponding given already saved Node
+     * The Node is only marked as dirty in the buffer pool and reaches the file when it gets evicted or flushed.
      * In case node's block id is the root's and the given parameter totalLevelsOfTreeIndex
      * is changed during the tree's changes then the totalLevelsOfTreeIndex variable's value is increased by one
      * @param node The node to update in the index file.
@@ -334,26 +1105,23 @@ public class helper {
      */
 
     static void updateIndexFileBlock(Node node, int totalLevelsOfTreeIndex) {
-        try {
-            byte[] nodeInBytes = serialize(node);
-            byte[] goodPutLengthInBytes = serialize(nodeInBytes.length);
-            byte[] block = new byte[BLOCK_SIZE];
-            System.arraycopy(goodPutLengthInBytes, 0, block, 0, goodPutLengthInBytes.length);
-            System.arraycopy(nodeInBytes, 0, block, goodPutLengthInBytes.length, nodeInBytes.length);
-
-            RandomAccessFile f = new RandomAccessFile(new File(PATH_TO_INDEXFILE), "rw");
-            f.seek(node.getBlockId()*BLOCK_SIZE); // this basically reads n bytes in the file
-            f.write(block);
-            f.close();
-
-            if (node.getBlockId() == RStarTree.getRootNodeBlockId() && helper.totalLevelsOfTreeIndex != totalLevelsOfTreeIndex)
-                updateLevelsOfTreeInIndexFile();
+        indexFileModifications.incrementAndGet();
+        if (node.getBlockId() == RStarTree.getRootNodeBlockId() && helper.totalLevelsOfTreeIndex != totalLevelsOfTreeIndex)
+            updateLevelsOfTreeInIndexFile();
+        indexBufferPool.put(node, true);
+    }
 
+    /**
+     * Writes the given Node to its block in the index file, bypassing the buffer pool.
+     *
+     * @param node The node to write in the index file.
+     */
+    static void writeIndexFileBlockToDisk(Node node) {
+        try {
+            indexFileStore.write(node.getBlockId(), NodePageCodec.encode(node));
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-
     }
 
     public static int getTotalBlocksInDatafile() {
@@ -367,54 +1135,81 @@ public class helper {
 
     public static void updateLevelsOfTreeInIndexFile()
     {
-        try {
-            ArrayList<Integer> dataFileMetaData = new ArrayList<>();
-            dataFileMetaData.add(dataDimensions);
-            dataFileMetaData.add(BLOCK_SIZE);
-            dataFileMetaData.add(totalBlocksInIndexFile);
-            dataFileMetaData.add(++totalLevelsOfTreeIndex);
-            byte[] metaDataInBytes = serialize(dataFileMetaData);
-            byte[] goodPutLengthInBytes = serialize(metaDataInBytes.length);
-            byte[] block = new byte[BLOCK_SIZE];
-            System.arraycopy(goodPutLengthInBytes, 0, block, 0, goodPutLengthInBytes.length);
-            System.arraycopy(metaDataInBytes, 0, block, goodPutLengthInBytes.length, metaDataInBytes.length);
-
-            RandomAccessFile f = new RandomAccessFile(new File(PATH_TO_INDEXFILE), "rw");
-            f.write(block);
-            f.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
+        updateLevelsOfTreeInIndexFile(totalLevelsOfTreeIndex + 1);
+    }
 
+    /**
+     * Sets the levels of the R*-tree stored in the index file's metadata to the given value.
+     * Used when a whole tree is built at once, e.g. by bulk loading.
+     *
+     * @param totalLevelsOfTreeIndex The new total levels of the tree.
+     */
+    static void updateLevelsOfTreeInIndexFile(int totalLevelsOfTreeIndex)
+    {
+        helper.totalLevelsOfTreeIndex = totalLevelsOfTreeIndex;
+        indexFileMetaDataChanged = true; // Written to the header with the next flush of the metadata
     }
     /**
      * Reads a specific block from the index file, interpreting it as a Node object.
+     * The Node is served from the buffer pool when cached, otherwise it is read from the file and cached.
      *
      * @param blockId The block ID to read, which corresponds to a specific node in the R*-tree.
-     * @return The Node object deserialized from the specified block.
+     * @return The Node object decoded from the specified block.
      */
 
     public static Node readIndexFileBlock(long blockId){
-        try {
-            RandomAccessFile raf = new RandomAccessFile(new File(PATH_TO_INDEXFILE), "rw");
-            FileInputStream fis = new FileInputStream(raf.getFD());
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            //seek to a a different section of the file, so discard the previous buffer
-            raf.seek(blockId*BLOCK_SIZE);
-            //bis = new BufferedInputStream(fis);
-            byte[] block = new byte[BLOCK_SIZE];
-            if (bis.read(block,0,BLOCK_SIZE) != BLOCK_SIZE)
-                throw new IllegalStateException("Block size read was not of " + BLOCK_SIZE + "bytes");
-
+        return readIndexFileBlock(blockId, null);
+    }
 
-            byte[] goodPutLengthInBytes = serialize(new Random().nextInt()); // Serializing an integer ir order to get the size of goodPutLength in bytes
-            System.arraycopy(block, 0, goodPutLengthInBytes, 0, goodPutLengthInBytes.length);
+    /**
+     * Reads a specific block from the index file in the same way, recording whether it was served by the buffer pool.
+     *
+     * @param blockId The block ID to read.
+     * @param statistics The statistics of the query reading the block, or null if they are not collected.
+     * @return The Node object decoded from the specified block.
+     */
+    public static Node readIndexFileBlock(long blockId, QueryStatistics statistics){
+        Node node = indexBufferPool.get(blockId);
+        if (node != null)
+        {
+            if (statistics != null)
+                statistics.blockRead(true, 0);
+            return node;
+        }
+        node = memoryMappedReads ? readMappedIndexFileBlock(blockId) : readIndexFileBlockFromDisk(blockId);
+        if (node != null)
+        {
+            indexBufferPool.put(node, false);
+            if (statistics != null)
+                statistics.blockRead(false, NodePageCodec.encodedBytes(node));
+        }
+        return node;
+    }
 
-            byte[] nodeInBytes = new byte[(Integer)deserialize(goodPutLengthInBytes)];
-            System.arraycopy(block, goodPutLengthInBytes.length, nodeInBytes, 0, nodeInBytes.length);
+    /**
+     * Decodes a specific block straight from the memory mapped index file, bypassing the buffer pool.
+     *
+     * @param blockId The block ID to read.
+     * @return The Node object decoded from the specified block.
+     */
+    private static Node readMappedIndexFileBlock(long blockId){
+        try {
+            return NodePageCodec.decode(mappedIndexFile.readBlock(blockId));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            return (Node)deserialize(nodeInBytes);
+    /**
+     * Reads and decodes a specific block from the index file, bypassing the buffer pool.
+     *
+     * @param blockId The block ID to read.
+     * @return The Node object decoded from the specified block.
+     */
+    private static Node readIndexFileBlockFromDisk(long blockId){
+        try {
+            return NodePageCodec.decode(indexFileStore.read(blockId));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,98 @@
+package queries;
+
+import main.java.spatialtree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes a batch of bounding box range queries with a single traversal of the R*-tree.
+ * Every node is visited once, together with the subset of the queries whose bounding boxes overlap it,
+ * so the nodes read scale with the distinct nodes touched by the batch instead of the queries times the nodes,
+ * since the root and the upper levels are shared by most of the queries.
+ * The statistics of an execution count every test of an entry against a query of the batch, and the records
+ * returned by all the queries.
+ */
+public class BatchBoundingBoxRangeQuery extends Query {
+    private final ArrayList<BoundingBox> searchBoundingBoxes; // The bounding boxes of the queries of the batch
+    private ArrayList<ArrayList<LeafEntry>> qualifyingRecords; // The records found for each query, in the order of the queries
+    private int nodesRead; // The nodes visited by the last execution of the batch
+
+    public BatchBoundingBoxRangeQuery(List<BoundingBox> searchBoundingBoxes) {
+        this.searchBoundingBoxes = new ArrayList<>(searchBoundingBoxes);
+    }
+
+    /**
+     * Executes every query of the batch on a given node of the R*-tree.
+     *
+     * @param node The node ( usually the root ) from which the search starts.
+     * @return For each query, in the order they were given, a list of the leaf entries within its bounding box.
+     */
+    public ArrayList<ArrayList<LeafEntry>> getQueryRecords(Node node) {
+        QueryEvent event = beginExecution();
+        long startTime = System.nanoTime();
+        qualifyingRecords = new ArrayList<>(searchBoundingBoxes.size());
+        int[] activeQueries = new int[searchBoundingBoxes.size()];
+        for (int i = 0; i < activeQueries.length; i++)
+        {
+            qualifyingRecords.add(new ArrayList<>());
+            activeQueries[i] = i;
+        }
+        nodesRead = 0;
+        search(node, activeQueries, activeQueries.length);
+        int records = 0;
+        for (ArrayList<LeafEntry> queryRecords : qualifyingRecords)
+            records += queryRecords.size();
+        if (statistics != null)
+            statistics.addPhaseTime("search", System.nanoTime() - startTime);
+        endExecution(event, "batchRange", records);
+        return qualifyingRecords;
+    }
+
+    /**
+     * Returns the number of nodes visited by the last execution of the batch, the root included.
+     */
+    public int getNodesRead() {
+        return nodesRead;
+    }
+
+    /**
+     * Recursively searches a node for the queries that overlap it.
+     * For the entries of a non-leaf node, the queries overlapping each entry are routed to its subtree,
+     * which is read only if at least one of them does. The entries of a leaf are added to every query they overlap.
+     *
+     * @param node The node currently being searched.
+     * @param activeQueries The indexes of the queries overlapping the node, in the first activeCount positions.
+     * @param activeCount The number of queries overlapping the node.
+     */
+    private void search(Node node, int[] activeQueries, int activeCount) {
+        nodesRead++;
+        if (statistics != null)
+        {
+            statistics.nodeVisited(node);
+            statistics.entriesTested(node.getEntries().size() * activeCount);
+        }
+        boolean isLeaf = node.getLevel() == RStarTree.getLeafLevel();
+        int[] entryQueries = isLeaf ? null : new int[activeCount]; // Reused for the entries of the node, copied when recursing
+        for (Entry entry : node.getEntries())
+        {
+            BoundingBox entryBoundingBox = entry.getBoundingBox();
+            int entryCount = 0;
+            for (int i = 0; i < activeCount; i++)
+            {
+                int query = activeQueries[i];
+                if (!BoundingBox.checkOverlap(entryBoundingBox, searchBoundingBoxes.get(query)))
+                    continue;
+                if (isLeaf)
+                    qualifyingRecords.get(query).add((LeafEntry) entry);
+                else
+                    entryQueries[entryCount++] = query;
+            }
+            if (entryCount > 0)
+                search(helper.readIndexFileBlock(entry.getChildNodeBlockId(), statistics), Arrays.copyOf(entryQueries, entryCount), entryCount);
+            else if (!isLeaf && statistics != null)
+                statistics.subtreesPruned(1);
+        }
+    }
+}
@@ -3,28 +3,65 @@ package queries;
 import main.java.spatialtree.*;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Implements a range query using a bounding box on an R*-tree to find all records within the specified area.
  * This class is a type of Query that specifically handles searching within spatial bounds.
+ * The query can also run in parallel on a ForkJoinPool, where the overlapping subtrees of the upper levels
+ * are searched by separate tasks, each one collecting its own records, which are merged in tree order.
  */
 public class BoundingBoxRangeQuery extends Query {
-    private ArrayList<LeafEntry> qualifyingRecord; // Record ids used for queries
+    public static final int DEFAULT_MIN_FORK_LEVEL = 2; // Nodes on this level or above may fork their subtrees, level 2 forks leaves
+    public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 4; // Fewer overlapping subtrees than this are searched sequentially
+
     private BoundingBox searchBoundingBox; // BoundingBox used for range queries
+    private ForkJoinPool forkJoinPool; // The pool of the parallel search, null for a sequential search
+    private int minForkLevel; // The lowest level whose nodes fork a task for each overlapping subtree
+    private int sequentialThreshold; // The minimum overlapping subtrees of a node for them to be forked
 
     public BoundingBoxRangeQuery(BoundingBox searchBoundingBox) {
         this.searchBoundingBox = searchBoundingBox;
     }
+
+    /**
+     * Creates a range query that searches the tree in parallel.
+     *
+     * @param searchBoundingBox The bounding box to query against.
+     * @param forkJoinPool The pool running the tasks of the search.
+     * @param minForkLevel The lowest level whose nodes fork a task for each overlapping subtree.
+     * @param sequentialThreshold The minimum number of overlapping subtrees of a node for them to be forked,
+     *                            below it the node is searched sequentially.
+     */
+    public BoundingBoxRangeQuery(BoundingBox searchBoundingBox, ForkJoinPool forkJoinPool, int minForkLevel, int sequentialThreshold) {
+        if (minForkLevel <= RStarTree.getLeafLevel())
+            throw new IllegalArgumentException("Only nodes above the leaf level can fork their subtrees");
+        this.searchBoundingBox = searchBoundingBox;
+        this.forkJoinPool = forkJoinPool;
+        this.minForkLevel = minForkLevel;
+        this.sequentialThreshold = Math.max(2, sequentialThreshold);
+    }
     /**
      * Executes the query on a given node of the R*-tree and returns all records (leaf entries) within the bounding box.
      *
      * @param node The starting node for the query, typically the root of the R*-tree.
      * @return A list of LeafEntry objects representing the records found within the bounding box.
      */
-    @Override
     public ArrayList<LeafEntry> getQueryRecords(Node node){
-        qualifyingRecord = new ArrayList<>();
-        search(node);
+        QueryEvent event = beginExecution();
+        long startTime = System.nanoTime();
+        ArrayList<LeafEntry> qualifyingRecord;
+        if (forkJoinPool != null)
+            qualifyingRecord = forkJoinPool.invoke(new SearchTask(node));
+        else
+        {
+            qualifyingRecord = new ArrayList<>();
+            search(node, qualifyingRecord);
+        }
+        if (statistics != null)
+            statistics.addPhaseTime("search", System.nanoTime() - startTime);
+        endExecution(event, "range", qualifyingRecord.size());
         return qualifyingRecord;
     }
     /**
@@ -32,8 +69,14 @@ public class BoundingBoxRangeQuery extends Query {
      * This method differentiates between leaf and non-leaf nodes to apply the correct checking logic.
      *
      * @param node The node currently being searched.
+     * @param qualifyingRecord The list collecting the records found.
      */
-    private void search(Node node){
+    private void search(Node node, ArrayList<LeafEntry> qualifyingRecord){
+        if (statistics != null)
+        {
+            statistics.nodeVisited(node);
+            statistics.entriesTested(node.getEntries().size());
+        }
         // [Search subtrees]
         // If T is not a leaf check each entry E to determine whether E.R
         //overlaps searchBoundingBox.
@@ -43,7 +86,9 @@ public class BoundingBoxRangeQuery extends Query {
                 // For all overlapping entries, invoke Search on the tree whose root is
                 // pointed to by E.childPTR.
                 if (BoundingBox.checkOverlap(entry.getBoundingBox(),searchBoundingBox))
-                    search( helper.readIndexFileBlock(entry.getChildNodeBlockId()));
+                    search( helper.readIndexFileBlock(entry.getChildNodeBlockId(), statistics), qualifyingRecord);
+                else if (statistics != null)
+                    statistics.subtreesPruned(1);
             }
 
             // [Search leaf node]
@@ -61,4 +106,66 @@ public class BoundingBoxRangeQuery extends Query {
                 }
             }
     }
+
+    /**
+     * Task searching the subtree of a node. When the node is high enough in the tree and enough of its
+     * subtrees overlap with the bounding box, a task is forked for each of them, otherwise the subtree is searched sequentially.
+     */
+    private class SearchTask extends RecursiveTask<ArrayList<LeafEntry>> {
+        private static final long serialVersionUID = 1L;
+        private Node node; // Read by the task itself when it is created from a block id, so the reads run in parallel too
+        private final long nodeBlockId;
+
+        SearchTask(Node node) {
+            this.node = node;
+            this.nodeBlockId = -1;
+        }
+
+        SearchTask(long nodeBlockId) {
+            this.nodeBlockId = nodeBlockId;
+        }
+
+        @Override
+        protected ArrayList<LeafEntry> compute() {
+            if (node == null)
+                node = helper.readIndexFileBlock(nodeBlockId, statistics);
+            ArrayList<LeafEntry> taskRecords = new ArrayList<>();
+            if (node.getLevel() < minForkLevel)
+            {
+                search(node, taskRecords);
+                return taskRecords;
+            }
+
+            ArrayList<Entry> overlappingEntries = new ArrayList<>();
+            for (Entry entry : node.getEntries())
+            {
+                if (BoundingBox.checkOverlap(entry.getBoundingBox(), searchBoundingBox))
+                    overlappingEntries.add(entry);
+            }
+            if (statistics != null)
+            {
+                statistics.nodeVisited(node);
+                statistics.entriesTested(node.getEntries().size());
+                statistics.subtreesPruned(node.getEntries().size() - overlappingEntries.size());
+            }
+            if (overlappingEntries.size() < sequentialThreshold)
+            {
+                for (Entry entry : overlappingEntries)
+                    taskRecords.addAll(new SearchTask(entry.getChildNodeBlockId()).compute());
+                return taskRecords;
+            }
+
+            // Forking every subtree but the last, which is searched by this task, and merging the results in tree order
+            ArrayList<SearchTask> subtreeTasks = new ArrayList<>(overlappingEntries.size());
+            for (Entry entry : overlappingEntries)
+                subtreeTasks.add(new SearchTask(entry.getChildNodeBlockId()));
+            for (int i = 0; i < subtreeTasks.size() - 1; i++)
+                subtreeTasks.get(i).fork();
+            ArrayList<LeafEntry> lastSubtreeRecords = subtreeTasks.get(subtreeTasks.size() - 1).compute();
+            for (int i = 0; i < subtreeTasks.size() - 1; i++)
+                taskRecords.addAll(subtreeTasks.get(i).join());
+            taskRecords.addAll(lastSubtreeRecords);
+            return taskRecords;
+        }
+    }
 }
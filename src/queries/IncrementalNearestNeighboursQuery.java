@@ -0,0 +1,163 @@
+package queries;
+
+import main.java.spatialtree.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Browses the records of an R*-tree in increasing distance from a specified point (incremental nearest neighbours).
+ * A single priority queue holds both the nodes that have not been visited yet and the records found so far,
+ * ordered by their minimum distance from the point. A record is returned once it reaches the head of the queue,
+ * since no unvisited node can contain anything closer, so the neighbours are produced one at a time and the
+ * caller can stop at any point without knowing in advance how many neighbours it needs.
+ * Every step holds the read lock of the tree, so it never sees a half-finished insertion or deletion. Between two steps
+ * the queue keeps the block ids of the unvisited nodes, which a change of the tree can leave pointing to other nodes,
+ * since freed blocks are reused and compaction renumbers every block, so a step that has to visit a node after the
+ * tree was changed throws a ConcurrentModificationException instead of returning wrong or duplicate records.
+ */
+public class IncrementalNearestNeighboursQuery implements Iterator<LeafEntry> {
+    private final double[] searchPoint; // The coordinates of the point the distances are measured from
+    private final PriorityQueue<QueueElement> queue; // The unvisited nodes and the records not yet returned
+    private final QueryStatistics statistics; // The statistics the browsing adds to, null when they are not collected
+    private final long expectedModifications; // The changes of the index file when the browsing started
+
+    /**
+     * Starts browsing the tree from the given node.
+     *
+     * @param searchPoint The point the distances are measured from.
+     * @param node The root node ( usually ) of the R*-tree from which the search starts.
+     */
+    public IncrementalNearestNeighboursQuery(ArrayList<Double> searchPoint, Node node) {
+        this(searchPoint, node, null);
+    }
+
+    /**
+     * Starts browsing the tree from the given node, adding to the given statistics the nodes visited and the time
+     * spent browsing them for every neighbour requested.
+     *
+     * @param searchPoint The point the distances are measured from.
+     * @param node The root node ( usually ) of the R*-tree from which the search starts.
+     * @param statistics The statistics to add to, or null if they are not collected.
+     */
+    public IncrementalNearestNeighboursQuery(ArrayList<Double> searchPoint, Node node, QueryStatistics statistics) {
+        this.statistics = statistics;
+        this.expectedModifications = helper.getIndexFileModifications();
+        this.searchPoint = new double[searchPoint.size()];
+        for (int d = 0; d < searchPoint.size(); d++)
+            this.searchPoint[d] = searchPoint.get(d);
+        this.queue = new PriorityQueue<>();
+        addEntries(node);
+    }
+
+    @Override
+    public boolean hasNext() {
+        expandUntilRecordAtHead();
+        return !queue.isEmpty();
+    }
+
+    /**
+     * Returns the next nearest record.
+     *
+     * @return The leaf entry of the closest record that has not been returned yet.
+     */
+    @Override
+    public LeafEntry next() {
+        expandUntilRecordAtHead();
+        QueueElement element = queue.poll();
+        if (element == null)
+            throw new NoSuchElementException();
+        return (LeafEntry) element.entry;
+    }
+
+    /**
+     * Returns the distance of the record that the next call of next() will return, without returning it.
+     *
+     * @return The distance from the search point, or Double.POSITIVE_INFINITY if there are no more records.
+     */
+    public double peekDistance() {
+        expandUntilRecordAtHead();
+        return queue.isEmpty() ? Double.POSITIVE_INFINITY : queue.peek().distance;
+    }
+
+    /**
+     * Visits the nodes at the head of the queue until a record is at the head or the queue is empty.
+     *
+     * @throws ConcurrentModificationException if a node has to be visited and the tree was changed since the browsing started.
+     */
+    private void expandUntilRecordAtHead() {
+        Lock treeReadLock = RStarTree.getTreeLock().readLock();
+        treeReadLock.lock();
+        long startTime = statistics != null ? System.nanoTime() : 0;
+        try {
+            while (!queue.isEmpty() && !queue.peek().isRecord())
+            {
+                if (helper.getIndexFileModifications() != expectedModifications)
+                    throw new ConcurrentModificationException("The tree was changed while it was browsed for the nearest neighbours");
+                addEntries(helper.readIndexFileBlock(queue.poll().entry.getChildNodeBlockId(), statistics));
+            }
+        } finally {
+            treeReadLock.unlock();
+        }
+        if (statistics != null)
+            statistics.addPhaseTime("search", System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns the nodes still waiting in the queue, i.e. the subtrees that were never needed so far.
+     *
+     * @return The number of nodes of the queue.
+     */
+    int getUnvisitedNodes() {
+        int unvisitedNodes = 0;
+        for (QueueElement element : queue)
+        {
+            if (!element.isRecord())
+                unvisitedNodes++;
+        }
+        return unvisitedNodes;
+    }
+
+    private void addEntries(Node node) {
+        if (statistics != null)
+        {
+            statistics.nodeVisited(node);
+            statistics.entriesTested(node.getEntries().size());
+        }
+        boolean isLeaf = node.getLevel() == RStarTree.getLeafLevel();
+        for (Entry entry : node.getEntries())
+            queue.add(new QueueElement(entry, entry.getBoundingBox().findMinDistanceFromPoint(searchPoint), isLeaf));
+    }
+
+    /**
+     * An entry of the queue, either a record or a node that has not been visited yet.
+     */
+    private static class QueueElement implements Comparable<QueueElement> {
+        private final Entry entry;
+        private final double distance; // The minimum distance of the entry's bounding box from the search point
+        private final boolean record; // Whether the entry is a record (leaf entry) instead of a node
+
+        QueueElement(Entry entry, double distance, boolean record) {
+            this.entry = entry;
+            this.distance = distance;
+            this.record = record;
+        }
+
+        boolean isRecord() {
+            return record;
+        }
+
+        @Override
+        public int compareTo(QueueElement elementB) {
+            int comparison = Double.compare(this.distance, elementB.distance);
+            if (comparison != 0)
+                return comparison;
+            // On equal distances records come first, since they can be returned without reading any more nodes
+            return Boolean.compare(elementB.record, this.record);
+        }
+    }
+}
@@ -1,14 +1,70 @@
 package queries;
 
-import main.java.spatialtree.LeafEntry;
-import main.java.spatialtree.Node;
+import main.java.spatialtree.QueryStatistics;
 
-import java.util.ArrayList;
 /**
  * Abstract class serving as the foundation for executing various types of queries using an RStarTree.
+ * An execution of a query can collect its statistics, either when they are requested with setStatistics
+ * or when a Java Flight Recorder recording has the QueryEvent enabled. Every query runs its executions between
+ * beginExecution and endExecution, whatever it returns: the records of a range, a result per query of a batch,
+ * or the pairs of a join produced while they are requested.
  */
 abstract class Query {
-    // Returns the ids of the query's records
-    abstract ArrayList<LeafEntry> getQueryRecords(Node node);
+    private QueryStatistics requestedStatistics; // The statistics requested by the caller, null if there were none
+    QueryStatistics statistics; // The statistics of the running execution, null when nothing collects them
 
+    /**
+     * Makes the executions of the query add their statistics to the given object.
+     *
+     * @param statistics The object collecting the statistics, or null to stop collecting them.
+     */
+    public void setStatistics(QueryStatistics statistics) {
+        this.requestedStatistics = statistics;
+    }
+
+    /**
+     * Starts an execution of the query, deciding whether its statistics are collected.
+     *
+     * @return The event of the execution, which is only committed when a recording has it enabled.
+     */
+    QueryEvent beginExecution() {
+        QueryEvent event = new QueryEvent();
+        statistics = requestedStatistics;
+        if (event.isEnabled())
+        {
+            if (statistics == null)
+                statistics = new QueryStatistics();
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Ends an execution of the query, committing its event with the statistics collected.
+     *
+     * @param event The event returned by beginExecution.
+     * @param queryType The name of the query, e.g. "range".
+     * @param records The records returned by the execution.
+     */
+    void endExecution(QueryEvent event, String queryType, int records) {
+        if (statistics == null)
+            return;
+        statistics.recordsReturned(records);
+        event.end();
+        if (event.shouldCommit())
+        {
+            long[] nodesVisitedPerLevel = statistics.getNodesVisitedPerLevel();
+            event.queryType = queryType;
+            event.nodesVisited = statistics.getNodesVisited();
+            event.leavesVisited = nodesVisitedPerLevel.length > 1 ? nodesVisitedPerLevel[1] : 0;
+            event.blocksFromCache = statistics.getBlocksFromCache();
+            event.blocksFromDisk = statistics.getBlocksFromDisk();
+            event.bytesDecoded = statistics.getBytesDecoded();
+            event.entriesTested = statistics.getEntriesTested();
+            event.subtreesPruned = statistics.getSubtreesPruned();
+            event.recordsReturned = statistics.getRecordsReturned();
+            event.commit();
+        }
+        statistics = null;
+    }
 }
@@ -0,0 +1,47 @@
+package queries;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event committed by every execution of a query while a recording has it enabled,
+ * carrying the same counters as the QueryStatistics of the execution, so that queries can be examined in production.
+ * The duration of the event is the duration of the query.
+ */
+@Name("spatialtree.Query")
+@Label("R*-tree Query")
+@Category("R*-tree")
+@Description("An execution of a query on the R*-tree")
+class QueryEvent extends Event {
+    @Label("Query Type")
+    String queryType;
+
+    @Label("Nodes Visited")
+    long nodesVisited;
+
+    @Label("Leaves Visited")
+    long leavesVisited;
+
+    @Label("Blocks From Cache")
+    long blocksFromCache;
+
+    @Label("Blocks From Disk")
+    long blocksFromDisk;
+
+    @Label("Bytes Decoded")
+    @DataAmount
+    long bytesDecoded;
+
+    @Label("Entries Tested")
+    long entriesTested;
+
+    @Label("Subtrees Pruned")
+    long subtreesPruned;
+
+    @Label("Records Returned")
+    long recordsReturned;
+}
@@ -4,101 +4,172 @@ import main.java.spatialtree.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 
 
 /**
- * Implements a simple skyline query that identifies entries within a specified
+ * Implements a skyline query that identifies entries within a specified
  * bounding box that are not dominated by any other entry.
+ * Uses the Branch-and-Bound Skyline (BBS) algorithm: the entries of the tree are visited from a heap in increasing
+ * distance of their lower corner from the origin (sum of its coordinates), so every record taken from the heap that
+ * is not dominated by the skyline found so far belongs to the skyline, and whole subtrees whose lower corner is
+ * dominated are pruned without being read.
  */
 
 public class SkylineQuery extends Query {
     private BoundingBox searchBoundingBox; // BoundingBox for the region to consider in the skyline
 
-    private static final int ROOT_NODE_BLOCK_ID = 1;
-
     public SkylineQuery(BoundingBox searchBoundingBox) {
         this.searchBoundingBox = searchBoundingBox;
     }
     /**
-     * Executes the skyline query starting from the root of the R*-tree.
+     * Executes the skyline query starting from the given node of the R*-tree.
      *
      * @param node The root node of the R*-tree from which the search will start.
-     * @return A list of LeafEntry objects that make up the skyline within the specified bounding box.
+     * @return A list of LeafEntry objects that make up the skyline within the specified bounding box, in the order they were found.
      */
-    @Override
     public ArrayList<LeafEntry> getQueryRecords(Node node) {
-        ArrayList<LeafEntry> potentialSkyline = new ArrayList<>();
-        collectPotentialSkyline(helper.readIndexFileBlock(ROOT_NODE_BLOCK_ID), potentialSkyline);
-        return filterSkyline(potentialSkyline);
+        QueryEvent event = beginExecution();
+        long startTime = System.nanoTime();
+        long dominanceNanos = 0; // The time of the dominance checks, only measured when the statistics are collected
+        ArrayList<LeafEntry> skyline = new ArrayList<>();
+        ArrayList<double[]> skylinePoints = new ArrayList<>(); // The lower corners of the skyline's entries
+        PriorityQueue<HeapElement> heap = new PriorityQueue<>();
+        addEntries(node, heap);
+        while (!heap.isEmpty())
+        {
+            HeapElement element = heap.poll();
+            boolean dominated;
+            if (statistics != null)
+            {
+                long dominanceStartTime = System.nanoTime();
+                dominated = isDominated(element.lowerCorner, skylinePoints);
+                dominanceNanos += System.nanoTime() - dominanceStartTime;
+                if (dominated && !element.isRecord)
+                    statistics.subtreesPruned(1);
+            }
+            else
+                dominated = isDominated(element.lowerCorner, skylinePoints);
+            if (dominated)
+                continue; // Every record of the entry is dominated
+            if (element.isRecord)
+            {
+                skyline.add((LeafEntry) element.entry);
+                skylinePoints.add(element.lowerCorner);
+            }
+            else
+                addEntries(helper.readIndexFileBlock(element.entry.getChildNodeBlockId(), statistics), heap);
+        }
+        if (statistics != null)
+        {
+            statistics.addPhaseTime("search", System.nanoTime() - startTime - dominanceNanos);
+            statistics.addPhaseTime("dominance checks", dominanceNanos);
+        }
+        endExecution(event, "skyline", skyline.size());
+        return skyline;
     }
+
     /**
-     * Recursively collects potential skyline candidates from nodes that overlap with the search bounding box.
-     *
-     * @param node The current node being examined.
-     * @param potentialSkyline A list to accumulate potential skyline entries.
+     * Adds to the heap the entries of a node that overlap with the search bounding box.
      */
-    private void collectPotentialSkyline(Node node, List<LeafEntry> potentialSkyline) {
-        if (node.getLevel() != RStarTree.getLeafLevel()) {
-            for (Entry entry : node.getEntries()) {
-                if (BoundingBox.checkOverlap(entry.getBoundingBox(), this.searchBoundingBox)) {
-                    collectPotentialSkyline(helper.readIndexFileBlock(entry.getChildNodeBlockId()), potentialSkyline);
-                }
-            }
-        } else {
-            for (Entry entry : node.getEntries()) {
-                if (entry instanceof LeafEntry && BoundingBox.checkOverlap(entry.getBoundingBox(), this.searchBoundingBox)) {
-                    potentialSkyline.add((LeafEntry) entry);
-                }
+    private void addEntries(Node node, PriorityQueue<HeapElement> heap) {
+        boolean isLeaf = node.getLevel() == RStarTree.getLeafLevel();
+        int overlappingEntries = 0;
+        for (Entry entry : node.getEntries())
+        {
+            if (BoundingBox.checkOverlap(entry.getBoundingBox(), this.searchBoundingBox))
+            {
+                heap.add(new HeapElement(entry, clippedLowerCorner(entry.getBoundingBox()), isLeaf));
+                overlappingEntries++;
             }
         }
+        if (statistics != null)
+        {
+            statistics.nodeVisited(node);
+            statistics.entriesTested(node.getEntries().size());
+            if (!isLeaf)
+                statistics.subtreesPruned(node.getEntries().size() - overlappingEntries);
+        }
     }
+
     /**
-     * Filters the collected entries to determine which ones are part of the skyline.
-     *
-     * @param candidates The list of entries that are potential candidates for the skyline.
-     * @return A list of entries that constitute the skyline, having no entries that dominate them.
+     * Returns the lower corner of the part of a bounding box that lies inside the search bounding box,
+     * which is the best point any record of the bounding box within the search region can have.
      */
+    private double[] clippedLowerCorner(BoundingBox boundingBox) {
+        double[] lowerCorner = new double[boundingBox.getDimensions()];
+        for (int d = 0; d < lowerCorner.length; d++)
+            lowerCorner[d] = Math.max(boundingBox.getLower(d), searchBoundingBox.getLower(d));
+        return lowerCorner;
+    }
 
-    private ArrayList<LeafEntry> filterSkyline(List<LeafEntry> candidates) {
-        ArrayList<LeafEntry> skyline = new ArrayList<>();
-        for (LeafEntry candidate : candidates) {
-            boolean isDominated = false;
-            for (LeafEntry other : candidates) {
-                if (dominates(other, candidate)) {
-                    isDominated = true;
-                    break;
-                }
-            }
-            if (!isDominated) {
-                skyline.add(candidate);
-            }
+    private static boolean isDominated(double[] point, List<double[]> skylinePoints) {
+        for (double[] skylinePoint : skylinePoints)
+        {
+            if (dominates(skylinePoint, point))
+                return true;
         }
-        return skyline;
+        return false;
     }
 
     /**
-     * Determines whether one entry dominates another based on their bounding boxes.
+     * Determines whether one point dominates another.
      *
-     * @param a The first entry to compare.
-     * @param b The second entry to compare.
-     * @return true if entry 'a' dominates entry 'b', false otherwise.
+     * @param a The first point to compare.
+     * @param b The second point to compare.
+     * @return true if point 'a' dominates point 'b', false otherwise.
      */
-    private boolean dominates(LeafEntry a, LeafEntry b) {
-        ArrayList<Bounds> boundsA = a.getBoundingBoxArray();
-        ArrayList<Bounds> boundsB = b.getBoundingBoxArray();
-
+    private static boolean dominates(double[] a, double[] b) {
         boolean betterInAll = true; // 'a' must be better or equal in all dimensions to dominate 'b'
         boolean betterInAtLeastOne = false; // 'a' must be strictly better in at least one dimension to dominate 'b'
 
-        for (int d = 0; d < boundsA.size(); d++) {
-            if (boundsA.get(d).getLower() > boundsB.get(d).getLower()) {
+        for (int d = 0; d < a.length; d++) {
+            if (a[d] > b[d]) {
                 betterInAll = false; // Found a dimension where 'a' is not better or equal to 'b'
             }
-            if (boundsA.get(d).getLower() < boundsB.get(d).getLower()) {
+            if (a[d] < b[d]) {
                 betterInAtLeastOne = true; // Found a dimension where 'a' is strictly better than 'b'
             }
         }
 
         return betterInAll && betterInAtLeastOne; // 'a' dominates 'b' if it is better in at least one dimension and not worse in any
     }
+
+    /**
+     * An entry of the heap, either a record or a node that has not been visited yet.
+     */
+    private static class HeapElement implements Comparable<HeapElement> {
+        private final Entry entry;
+        private final double[] lowerCorner; // The lower corner of the entry inside the search region
+        private final double distanceFromOrigin; // The sum of the lower corner's coordinates
+        private final boolean isRecord;
+
+        HeapElement(Entry entry, double[] lowerCorner, boolean isRecord) {
+            this.entry = entry;
+            this.lowerCorner = lowerCorner;
+            this.isRecord = isRecord;
+            double sum = 0;
+            for (double coordinate : lowerCorner)
+                sum += coordinate;
+            this.distanceFromOrigin = sum;
+        }
+
+        @Override
+        public int compareTo(HeapElement elementB) {
+            int comparison = Double.compare(this.distanceFromOrigin, elementB.distanceFromOrigin);
+            if (comparison != 0)
+                return comparison;
+            // On equal distances nodes are expanded first, and records are ordered by their coordinates,
+            // so that a record is always taken after the records that dominate it
+            if (this.isRecord != elementB.isRecord)
+                return this.isRecord ? 1 : -1;
+            for (int d = 0; d < lowerCorner.length; d++)
+            {
+                comparison = Double.compare(this.lowerCorner[d], elementB.lowerCorner[d]);
+                if (comparison != 0)
+                    return comparison;
+            }
+            return 0;
+        }
+    }
 }
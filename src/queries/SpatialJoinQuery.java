@@ -0,0 +1,289 @@
+package queries;
+
+import main.java.spatialtree.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongFunction;
+
+/**
+ * Joins the records of two R*-trees, returning every pair of records, one of each tree, whose bounding boxes
+ * intersect or, with a positive distance, lie within that distance of each other.
+ * The trees are traversed synchronously depth first: a pair of nodes is only visited when the bounding boxes
+ * of their entries qualify, and the qualifying pairs of entries inside two nodes are found with a plane sweep
+ * along the first dimension over the entries that lie near the other node, instead of comparing every entry
+ * with every other. When the trees are of different heights, the node of the higher tree is descended alone
+ * until the levels meet.
+ * The pairs are produced while they are requested, so the whole result never has to be held in memory.
+ * The pairs of nodes not visited yet are kept as block ids between two requests, so if the index file of the trees
+ * is changed in between, visiting them throws a ConcurrentModificationException, as in the incremental nearest neighbours query.
+ * The execution of the join lasts from its start until the last pair has been returned: its statistics are collected
+ * over all the requests, with the nodes of both trees, and its QueryEvent is only committed once the join is exhausted.
+ */
+public class SpatialJoinQuery extends Query implements Iterator<SpatialJoinQuery.JoinedPair> {
+    private final NodeReader firstTree; // Reads the nodes of the first tree by their block id
+    private final NodeReader secondTree; // Reads the nodes of the second tree by their block id
+    private final double distance; // The maximum distance between the joined records, 0 for intersection
+    private final long expectedModifications; // The changes of the index file when the join started
+    private final ArrayDeque<NodePair> pendingNodePairs = new ArrayDeque<>(); // The pairs of nodes not visited yet
+    private final ArrayDeque<JoinedPair> joinedPairs = new ArrayDeque<>(); // The pairs of records found and not returned yet
+    private final QueryEvent event; // The event of the execution, committed when the join is exhausted
+    private int pairsReturned;
+    private boolean executionEnded;
+
+    /**
+     * Starts joining two trees from their roots.
+     *
+     * @param firstRoot The root node of the first tree.
+     * @param firstTree Reads the nodes of the first tree, e.g. helper::readIndexFileBlock.
+     * @param secondRoot The root node of the second tree.
+     * @param secondTree Reads the nodes of the second tree, e.g. the readIndexFileBlock of an IndexFileReader.
+     * @param distance The maximum distance between two joined records, in the units of the coordinates,
+     *                 or 0 to join the records whose bounding boxes intersect.
+     */
+    public SpatialJoinQuery(Node firstRoot, LongFunction<Node> firstTree, Node secondRoot, LongFunction<Node> secondTree, double distance) {
+        this(firstRoot, (blockId, statistics) -> firstTree.apply(blockId), secondRoot, (blockId, statistics) -> secondTree.apply(blockId), distance, null);
+    }
+
+    /**
+     * Starts joining two trees from their roots, adding to the given statistics what the join does until it is exhausted.
+     *
+     * @param firstRoot The root node of the first tree.
+     * @param firstTree Reads the nodes of the first tree, e.g. helper::readIndexFileBlock.
+     * @param secondRoot The root node of the second tree.
+     * @param secondTree Reads the nodes of the second tree, e.g. the readIndexFileBlock of an IndexFileReader.
+     * @param distance The maximum distance between two joined records, or 0 to join the records whose bounding boxes intersect.
+     * @param statistics The statistics the join adds to, or null if they are not collected.
+     */
+    public SpatialJoinQuery(Node firstRoot, NodeReader firstTree, Node secondRoot, NodeReader secondTree, double distance, QueryStatistics statistics) {
+        if (distance < 0)
+            throw new IllegalArgumentException("The distance of a spatial join cannot be negative");
+        this.firstTree = firstTree;
+        this.secondTree = secondTree;
+        this.distance = distance;
+        this.expectedModifications = helper.getIndexFileModifications();
+        setStatistics(statistics);
+        event = beginExecution();
+        long startTime = System.nanoTime();
+        if (this.statistics != null)
+        {
+            this.statistics.nodeVisited(firstRoot);
+            this.statistics.nodeVisited(secondRoot);
+        }
+        if (!firstRoot.getEntries().isEmpty() && !secondRoot.getEntries().isEmpty())
+            joinNodes(firstRoot, enclosing(firstRoot), secondRoot, enclosing(secondRoot));
+        if (this.statistics != null)
+            this.statistics.addPhaseTime("search", System.nanoTime() - startTime);
+    }
+
+    @Override
+    public boolean hasNext() {
+        visitUntilPairFound();
+        return !joinedPairs.isEmpty();
+    }
+
+    @Override
+    public JoinedPair next() {
+        visitUntilPairFound();
+        JoinedPair joinedPair = joinedPairs.poll();
+        if (joinedPair == null)
+            throw new NoSuchElementException();
+        pairsReturned++;
+        return joinedPair;
+    }
+
+    /**
+     * Visits pending pairs of nodes until a pair of records has been found or there are no more pairs of nodes,
+     * ending the execution of the join once every pair of records has been returned.
+     * The read lock of the tree is held during the visits, as in the incremental nearest neighbours query.
+     *
+     * @throws ConcurrentModificationException if the index file was changed since the join started.
+     */
+    private void visitUntilPairFound() {
+        long startTime = statistics != null ? System.nanoTime() : 0;
+        Lock treeReadLock = RStarTree.getTreeLock().readLock();
+        treeReadLock.lock();
+        try {
+            while (joinedPairs.isEmpty() && !pendingNodePairs.isEmpty())
+            {
+                if (helper.getIndexFileModifications() != expectedModifications)
+                    throw new ConcurrentModificationException("The index file was changed while the trees were joined");
+                NodePair nodePair = pendingNodePairs.pop();
+                Node firstNode = firstTree.read(nodePair.firstBlockId, statistics);
+                Node secondNode = secondTree.read(nodePair.secondBlockId, statistics);
+                if (firstNode == null || secondNode == null)
+                    throw new IllegalStateException("The Node-block read from file is null");
+                if (statistics != null)
+                {
+                    statistics.nodeVisited(firstNode);
+                    statistics.nodeVisited(secondNode);
+                }
+                joinNodes(firstNode, nodePair.firstBoundingBox, secondNode, nodePair.secondBoundingBox);
+            }
+        } finally {
+            treeReadLock.unlock();
+        }
+        if (statistics != null)
+            statistics.addPhaseTime("search", System.nanoTime() - startTime);
+        if (joinedPairs.isEmpty() && !executionEnded)
+        {
+            executionEnded = true;
+            endExecution(event, "join", pairsReturned);
+        }
+    }
+
+    /**
+     * Joins the entries of two nodes, queueing the qualifying pairs of child nodes or, on the leaf level,
+     * the qualifying pairs of records.
+     */
+    private void joinNodes(Node firstNode, BoundingBox firstBoundingBox, Node secondNode, BoundingBox secondBoundingBox) {
+        // The higher node is descended alone, against the whole of the lower node
+        if (firstNode.getLevel() > secondNode.getLevel())
+        {
+            for (Entry entry : firstNode.getEntries())
+            {
+                if (BoundingBox.checkWithinDistance(entry.getBoundingBox(), secondBoundingBox, distance))
+                    pendingNodePairs.push(new NodePair(entry.getChildNodeBlockId(), entry.getBoundingBox(), secondNode.getBlockId(), secondBoundingBox));
+                else if (statistics != null)
+                    statistics.subtreesPruned(1);
+            }
+            if (statistics != null)
+                statistics.entriesTested(firstNode.getEntries().size());
+            return;
+        }
+        if (secondNode.getLevel() > firstNode.getLevel())
+        {
+            for (Entry entry : secondNode.getEntries())
+            {
+                if (BoundingBox.checkWithinDistance(firstBoundingBox, entry.getBoundingBox(), distance))
+                    pendingNodePairs.push(new NodePair(firstNode.getBlockId(), firstBoundingBox, entry.getChildNodeBlockId(), entry.getBoundingBox()));
+                else if (statistics != null)
+                    statistics.subtreesPruned(1);
+            }
+            if (statistics != null)
+                statistics.entriesTested(secondNode.getEntries().size());
+            return;
+        }
+
+        // Only the entries near the other node can take part in a qualifying pair
+        ArrayList<Entry> firstEntries = entriesNear(firstNode, secondBoundingBox);
+        ArrayList<Entry> secondEntries = entriesNear(secondNode, firstBoundingBox);
+        boolean isLeaf = firstNode.getLevel() == RStarTree.getLeafLevel();
+
+        // Plane sweep: the entry with the lowest start along the first dimension is paired with the entries
+        // of the other node starting before its end (plus the distance), and is then removed from the sweep
+        int i = 0;
+        int j = 0;
+        while (i < firstEntries.size() && j < secondEntries.size())
+        {
+            if (firstEntries.get(i).getBoundingBox().getLower(0) <= secondEntries.get(j).getBoundingBox().getLower(0))
+                sweep(firstEntries.get(i++), secondEntries, j, true, isLeaf);
+            else
+                sweep(secondEntries.get(j++), firstEntries, i, false, isLeaf);
+        }
+    }
+
+    /**
+     * Pairs an entry with the entries of the other node, from a given position of the sweep onwards,
+     * that start along the first dimension before the end of the entry plus the distance.
+     */
+    private void sweep(Entry entry, ArrayList<Entry> otherEntries, int from, boolean entryIsFirst, boolean isLeaf) {
+        double sweepEnd = entry.getBoundingBox().getUpper(0) + distance;
+        for (int k = from; k < otherEntries.size() && otherEntries.get(k).getBoundingBox().getLower(0) <= sweepEnd; k++)
+        {
+            Entry otherEntry = otherEntries.get(k);
+            if (!BoundingBox.checkWithinDistance(entry.getBoundingBox(), otherEntry.getBoundingBox(), distance))
+                continue;
+            Entry firstEntry = entryIsFirst ? entry : otherEntry;
+            Entry secondEntry = entryIsFirst ? otherEntry : entry;
+            if (isLeaf)
+                joinedPairs.add(new JoinedPair((LeafEntry) firstEntry, (LeafEntry) secondEntry));
+            else
+                pendingNodePairs.push(new NodePair(firstEntry.getChildNodeBlockId(), firstEntry.getBoundingBox(),
+                        secondEntry.getChildNodeBlockId(), secondEntry.getBoundingBox()));
+        }
+    }
+
+    /**
+     * Returns the entries of a node within the distance of a bounding box, sorted by their start along the first dimension.
+     * The subtrees of the other entries of a non-leaf node are pruned.
+     */
+    private ArrayList<Entry> entriesNear(Node node, BoundingBox boundingBox) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (Entry entry : node.getEntries())
+        {
+            if (BoundingBox.checkWithinDistance(entry.getBoundingBox(), boundingBox, distance))
+                entries.add(entry);
+        }
+        if (statistics != null)
+        {
+            statistics.entriesTested(node.getEntries().size());
+            if (node.getLevel() != RStarTree.getLeafLevel())
+                statistics.subtreesPruned(node.getEntries().size() - entries.size());
+        }
+        entries.sort(Comparator.comparingDouble(entry -> entry.getBoundingBox().getLower(0)));
+        return entries;
+    }
+
+    private static BoundingBox enclosing(Node node) {
+        return new BoundingBox(node.calculateBoundingBoxForNode(node.getEntries()));
+    }
+
+    /**
+     * Reads the nodes of a tree by their block id, recording the reads into the statistics of the join.
+     */
+    @FunctionalInterface
+    public interface NodeReader {
+        /**
+         * @param blockId The block id of the node.
+         * @param statistics The statistics of the join, or null if they are not collected.
+         * @return The node, or null if it cannot be read.
+         */
+        Node read(long blockId, QueryStatistics statistics);
+    }
+
+    /**
+     * A pair of joined records, the first one of the first tree and the second one of the second tree.
+     * The record of an entry of a saved index file is read through its IndexFileReader, since the entry points into
+     * the data file saved with it rather than the current one.
+     */
+    public static class JoinedPair {
+        private final LeafEntry first;
+        private final LeafEntry second;
+
+        JoinedPair(LeafEntry first, LeafEntry second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public LeafEntry getFirst() {
+            return first;
+        }
+
+        public LeafEntry getSecond() {
+            return second;
+        }
+    }
+
+    /**
+     * A pair of nodes, one of each tree, to be visited, along with the bounding boxes of the entries pointing to them.
+     */
+    private static class NodePair {
+        private final long firstBlockId;
+        private final BoundingBox firstBoundingBox;
+        private final long secondBlockId;
+        private final BoundingBox secondBoundingBox;
+
+        NodePair(long firstBlockId, BoundingBox firstBoundingBox, long secondBlockId, BoundingBox secondBoundingBox) {
+            this.firstBlockId = firstBlockId;
+            this.firstBoundingBox = firstBoundingBox;
+            this.secondBlockId = secondBlockId;
+            this.secondBoundingBox = secondBoundingBox;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package main.java.spatialtree;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bulk loads the trees and checks the Nodes they pack and the buffer pool they are built through.
+ */
+class BulkLoadingRStarTreeTest {
+    private static final int DIMENSIONS = 2;
+    private static final int RECORDS = 20_000;
+    private static final int CAPACITY = 8;
+
+    @AfterEach
+    void restoreIndexBufferPool() {
+        helper.configureIndexBufferPool(IndexBufferPool.DEFAULT_CAPACITY, IndexBufferPool.EvictionPolicy.LRU, IndexBufferPool.DEFAULT_PINNED_LEVELS);
+    }
+
+    @Test
+    void externalBulkLoadKeepsBufferPoolWithinCapacity() {
+        helper.CreateDataFile(SyntheticDataGenerator.generate(RECORDS, DIMENSIONS, SyntheticDataGenerator.Distribution.UNIFORM, 3), DIMENSIONS, true);
+        helper.configureIndexBufferPool(CAPACITY, IndexBufferPool.EvictionPolicy.LRU, 1);
+
+        BulkLoadingRStarTree bulkLoadingRStarTree = new BulkLoadingRStarTree(BulkLoadingRStarTree.PackingStrategy.HILBERT, 2_000);
+
+        IndexBufferPool indexBufferPool = helper.getIndexBufferPool();
+        assertTrue(helper.getTotalBlocksInIndexFile() > CAPACITY + 2, "The tree was expected to have more Nodes than the buffer pool");
+        assertTrue(indexBufferPool.getEvictions() > 0);
+        // The root is pinned on top of the capacity
+        assertTrue(indexBufferPool.getCachedNodes() <= indexBufferPool.getCapacity() + 1,
+                "The buffer pool holds " + indexBufferPool.getCachedNodes() + " Nodes");
+
+        ArrayList<Bounds> unitSquare = new ArrayList<>();
+        for (int d = 0; d < DIMENSIONS; d++)
+            unitSquare.add(new Bounds(0, 1));
+        TreeSet<Long> recordIds = new TreeSet<>();
+        for (LeafEntry leafEntry : bulkLoadingRStarTree.getDataInBoundingBox(new BoundingBox(unitSquare)))
+            recordIds.add(leafEntry.getRecordId());
+        assertEquals(RECORDS, recordIds.size());
+        assertEquals(1L, recordIds.first());
+        assertEquals(RECORDS, recordIds.last());
+    }
+
+    @Test
+    void omtFillsTheNodesOfEveryLevelEvenly() {
+        // One more record than three full leaves, which a packing of full subtrees leaves alone in a fourth leaf
+        int records = 3 * NodePageCodec.maxEntriesPerPage(DIMENSIONS) + 1;
+        helper.CreateDataFile(SyntheticDataGenerator.generate(records, DIMENSIONS, SyntheticDataGenerator.Distribution.CLUSTERED, 5), DIMENSIONS, true);
+
+        new BulkLoadingRStarTree(true, BulkLoadingRStarTree.PackingStrategy.OMT);
+
+        assertEquals(2, helper.getTotalLevelsOfTreeIndex());
+        assertEquals(4, helper.readIndexFileBlock(RStarTree.getRootNodeBlockId()).getEntries().size());
+        assertEquals(records, TreeInvariants.checkTree(true).size());
+    }
+}
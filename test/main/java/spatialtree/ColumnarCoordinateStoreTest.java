@@ -0,0 +1,81 @@
+package main.java.spatialtree;
+
+import main.java.spatialtree.Record;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the scans of the columnar store find the same records with the loops written with the Vector API
+ * as with the scalar loops.
+ */
+class ColumnarCoordinateStoreTest {
+    private static final int DIMENSIONS = 2;
+    private static final int RECORDS = 5_003; // Neither a multiple of the chunks of the scans nor of the vector lanes
+
+    @AfterEach
+    void restoreVectorization() {
+        helper.getColumnarCoordinateStore().setVectorized(ColumnarCoordinateStore.isVectorApiAvailable());
+    }
+
+    @Test
+    void vectorizedScansMatchTheScalarScans() {
+        assertTrue(ColumnarCoordinateStore.isVectorApiAvailable(), "The tests are expected to run with --add-modules jdk.incubator.vector");
+        List<Record> records = SyntheticDataGenerator.generate(RECORDS, DIMENSIONS, SyntheticDataGenerator.Distribution.CLUSTERED, 21);
+        helper.CreateDataFile(records, DIMENSIONS, true);
+        ColumnarCoordinateStore store = helper.getColumnarCoordinateStore();
+        assertEquals(RECORDS, store.size());
+
+        Random random = new Random(5);
+        ArrayList<BoundingBox> queryBoxes = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            double side = 0.05 + 0.3 * random.nextDouble();
+            double lowerX = random.nextDouble() * (1 - side);
+            double lowerY = random.nextDouble() * (1 - side);
+            queryBoxes.add(box(lowerX, lowerX + side, lowerY, lowerY + side));
+        }
+        // A box touching a record on its boundary, which is inside the box
+        double[] corner = records.get(RECORDS - 1).getCoordinates();
+        queryBoxes.add(box(corner[0], corner[0] + 0.1, corner[1] - 0.1, corner[1]));
+
+        for (BoundingBox queryBox : queryBoxes)
+        {
+            store.setVectorized(false);
+            ArrayList<Long> scalarIds = recordIds(store.getDataInBoundingBox(queryBox));
+            store.setVectorized(true);
+            assertEquals(scalarIds, recordIds(store.getDataInBoundingBox(queryBox)));
+        }
+        assertTrue(recordIds(store.getDataInBoundingBox(queryBoxes.get(queryBoxes.size() - 1))).contains(records.get(RECORDS - 1).getId()));
+
+        for (int i = 0; i < 20; i++)
+        {
+            double[] queryPoint = {random.nextDouble(), random.nextDouble()};
+            int k = 1 + random.nextInt(200);
+            store.setVectorized(false);
+            ArrayList<Long> scalarIds = recordIds(store.getNearestNeighbours(queryPoint, k));
+            store.setVectorized(true);
+            assertEquals(scalarIds, recordIds(store.getNearestNeighbours(queryPoint, k)));
+            assertEquals(k, scalarIds.size());
+        }
+    }
+
+    private static BoundingBox box(double lowerX, double upperX, double lowerY, double upperY) {
+        ArrayList<Bounds> bounds = new ArrayList<>();
+        bounds.add(new Bounds(lowerX, upperX));
+        bounds.add(new Bounds(lowerY, upperY));
+        return new BoundingBox(bounds);
+    }
+
+    private static ArrayList<Long> recordIds(ArrayList<LeafEntry> leafEntries) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (LeafEntry leafEntry : leafEntries)
+            ids.add(leafEntry.getRecordId());
+        return ids;
+    }
+}
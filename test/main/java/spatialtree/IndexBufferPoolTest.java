@@ -0,0 +1,55 @@
+package main.java.spatialtree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the running counts of the buffer pool against the frames they count.
+ */
+class IndexBufferPoolTest {
+    private static final int DIMENSIONS = 2;
+
+    @Test
+    void dirtyNodeCountFollowsTheFrames() throws IOException {
+        helper.CreateDataFile(SyntheticDataGenerator.generate(1, DIMENSIONS, SyntheticDataGenerator.Distribution.UNIFORM, 1), DIMENSIONS, true);
+        helper.CreateIndexFile(DIMENSIONS, true);
+        IndexBufferPool indexBufferPool = new IndexBufferPool(4, IndexBufferPool.EvictionPolicy.LRU, 0);
+
+        // No-steal keeps every dirty Node past the capacity
+        indexBufferPool.setNoSteal(true);
+        for (long blockId = 2; blockId < 10; blockId++)
+            indexBufferPool.put(leafOfBlock(blockId), true);
+        assertDirtyNodeCount(indexBufferPool, 8);
+        indexBufferPool.put(leafOfBlock(2), true);
+        indexBufferPool.put(leafOfBlock(3), false); // Still dirty until it is written back
+        assertDirtyNodeCount(indexBufferPool, 8);
+        indexBufferPool.discard(4);
+        assertDirtyNodeCount(indexBufferPool, 7);
+
+        // Evicting writes a dirty Node back
+        indexBufferPool.setNoSteal(false);
+        indexBufferPool.put(leafOfBlock(10), false);
+        assertDirtyNodeCount(indexBufferPool, 6);
+        assertEquals(1, indexBufferPool.getWriteBacks());
+
+        indexBufferPool.flush();
+        assertDirtyNodeCount(indexBufferPool, 0);
+        indexBufferPool.put(leafOfBlock(11), true);
+        indexBufferPool.clear();
+        assertDirtyNodeCount(indexBufferPool, 0);
+    }
+
+    private static Node leafOfBlock(long blockId) {
+        Node node = new Node(RStarTree.getLeafLevel());
+        node.setBlockId(blockId);
+        return node;
+    }
+
+    private static void assertDirtyNodeCount(IndexBufferPool indexBufferPool, int expected) {
+        assertEquals(expected, indexBufferPool.getDirtyNodeCount());
+        assertEquals(expected, indexBufferPool.getDirtyNodes().size());
+    }
+}
@@ -0,0 +1,97 @@
+package main.java.spatialtree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Frees blocks of the index file by deleting records and checks that they are reused by insertions
+ * and dropped by compaction, with the tree left intact.
+ */
+class IndexFileCompactionTest {
+    private static final int DIMENSIONS = 2;
+
+    @Test
+    void insertionsReuseFreedBlocks() throws IOException {
+        RStarTree rStarTree = RStarTreeDeletionTest.buildTree();
+        TreeSet<Long> remainingIds = deleteMostRecords(rStarTree);
+        int totalBlocks = helper.getTotalBlocksInIndexFile();
+        int freeBlocks = helper.getFreeBlocksInIndexFile();
+        assertTrue(freeBlocks > 0);
+
+        // Inserting the records again splits leaves into the freed blocks before the file grows
+        List<Record> records = SyntheticDataGenerator.generate(20_000, DIMENSIONS, SyntheticDataGenerator.Distribution.CLUSTERED, 13);
+        for (Record record : records)
+        {
+            if (remainingIds.contains(record.getId()))
+                continue;
+            rStarTree.insertRecord(record, 1);
+            remainingIds.add(record.getId());
+            if (helper.getFreeBlocksInIndexFile() > 0)
+                assertEquals(totalBlocks, helper.getTotalBlocksInIndexFile(), "The index file grew while it had free blocks");
+        }
+        assertTrue(helper.getFreeBlocksInIndexFile() < freeBlocks, "No freed block was reused");
+        assertEquals(remainingIds, TreeInvariants.checkTree(true));
+    }
+
+    @Test
+    void compactionDropsFreedBlocks() throws IOException {
+        RStarTree rStarTree = RStarTreeDeletionTest.buildTree();
+        TreeSet<Long> remainingIds = deleteMostRecords(rStarTree);
+        int totalBlocks = helper.getTotalBlocksInIndexFile();
+        int freeBlocks = helper.getFreeBlocksInIndexFile();
+
+        rStarTree.compactIndexFile();
+
+        assertEquals(totalBlocks - freeBlocks, helper.getTotalBlocksInIndexFile());
+        assertEquals(0, helper.getFreeBlocksInIndexFile());
+        assertEquals(remainingIds, TreeInvariants.checkTree(true));
+        assertEquals(helper.getTotalBlocksInIndexFile() - 1, countNodes(), "The compacted file holds blocks outside of the tree");
+
+        // The compacted file is read back as it was written
+        helper.CreateIndexFile(DIMENSIONS, false);
+        assertEquals(totalBlocks - freeBlocks, helper.getTotalBlocksInIndexFile());
+        assertEquals(remainingIds, TreeInvariants.checkTree(true));
+
+        // And the tree keeps working on it
+        assertTrue(new RStarTree(false).deleteRecord(rStarTree.getDataInBoundingBox(RStarTreeDeletionTest.unitSquare()).get(0)));
+        assertEquals(remainingIds.size() - 1, TreeInvariants.checkTree(true).size());
+    }
+
+    /**
+     * Deletes four fifths of the records, every record whose id is not a multiple of five.
+     *
+     * @return The ids of the records left.
+     */
+    private static TreeSet<Long> deleteMostRecords(RStarTree rStarTree) {
+        TreeSet<Long> remainingIds = new TreeSet<>();
+        for (LeafEntry leafEntry : RStarTreeDeletionTest.allLeafEntries(rStarTree))
+        {
+            if (leafEntry.getRecordId() % 5 == 0)
+                remainingIds.add(leafEntry.getRecordId());
+            else
+                assertTrue(rStarTree.deleteRecord(leafEntry));
+        }
+        return remainingIds;
+    }
+
+    private static int countNodes() {
+        int nodes = 0;
+        ArrayList<Long> blocksToVisit = new ArrayList<>();
+        blocksToVisit.add((long) RStarTree.getRootNodeBlockId());
+        while (!blocksToVisit.isEmpty())
+        {
+            Node node = helper.readIndexFileBlock(blocksToVisit.remove(blocksToVisit.size() - 1));
+            nodes++;
+            if (node.getLevel() != RStarTree.getLeafLevel())
+                for (Entry entry : node.getEntries())
+                    blocksToVisit.add(entry.getChildNodeBlockId());
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,69 @@
+package main.java.spatialtree;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads blocks through the memory mapped windows of a block file, across windows and past 2 GB.
+ */
+class MappedBlockFileTest {
+    private static final String PATH_TO_FILE = "mapped-block-file.dat";
+
+    private final BlockStore blockStore = new BlockStore(PATH_TO_FILE, helper.BLOCK_SIZE, BlockStore.ForcePolicy.NEVER);
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        blockStore.delete();
+    }
+
+    @Test
+    void readsBlocksAcrossWindowsAndAfterAppends() throws IOException {
+        for (int blockId = 0; blockId < 10; blockId++)
+            writeBlock(blockId);
+        MappedBlockFile mappedFile = new MappedBlockFile(blockStore, 3);
+        for (int blockId = 0; blockId < 10; blockId++)
+            assertBlock(mappedFile, blockId);
+
+        // The last window only mapped block 9, the appended blocks fill it and start new windows
+        for (int blockId = 10; blockId < 14; blockId++)
+            writeBlock(blockId);
+        for (int blockId = 13; blockId >= 0; blockId--)
+            assertBlock(mappedFile, blockId);
+        assertThrows(IllegalStateException.class, () -> mappedFile.readBlock(14));
+        assertThrows(IllegalStateException.class, () -> mappedFile.readBlock(30));
+    }
+
+    @Test
+    void readsBlocksOfFilesLargerThanTwoGigabytes() throws IOException {
+        // A sparse file, only the two blocks written take space on the disk
+        long farBlockId = Integer.MAX_VALUE / helper.BLOCK_SIZE + 10;
+        writeBlock(0);
+        writeBlock(farBlockId);
+        assertTrue(blockStore.size() > Integer.MAX_VALUE);
+
+        MappedBlockFile mappedFile = new MappedBlockFile(blockStore);
+        assertBlock(mappedFile, farBlockId);
+        assertBlock(mappedFile, 0);
+        assertEquals(0, mappedFile.readBlock(farBlockId - 1).getLong());
+    }
+
+    private void writeBlock(long blockId) throws IOException {
+        byte[] block = new byte[helper.BLOCK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        buffer.putLong(blockId + 1);
+        buffer.putLong(helper.BLOCK_SIZE - Long.BYTES, -blockId - 1);
+        blockStore.write(blockId, block);
+    }
+
+    private static void assertBlock(MappedBlockFile mappedFile, long blockId) throws IOException {
+        ByteBuffer block = mappedFile.readBlock(blockId);
+        assertEquals(helper.BLOCK_SIZE, block.remaining());
+        assertEquals(blockId + 1, block.getLong(0));
+        assertEquals(-blockId - 1, block.getLong(helper.BLOCK_SIZE - Long.BYTES));
+    }
+}
@@ -0,0 +1,122 @@
+package main.java.spatialtree;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import queries.SpatialJoinQuery;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the batch range query and the spatial join collect their statistics and commit their QueryEvent
+ * like the other queries.
+ */
+class QueryStatisticsTest {
+    private static final String PATH_TO_COPY = "statistics-join-copy.dat";
+
+    @Test
+    void batchRangeQueryCollectsStatistics() throws IOException {
+        RStarTree rStarTree = RStarTreeDeletionTest.buildTree();
+        List<BoundingBox> queryBoxes = List.of(box(0.1, 0.4), box(0.3, 0.6), box(0.5, 0.9));
+        QueryStatistics batchStatistics = new QueryStatistics();
+        ArrayList<ArrayList<LeafEntry>> results = rStarTree.getDataInBoundingBoxes(queryBoxes, batchStatistics);
+
+        long singleQueriesNodesVisited = 0;
+        int records = 0;
+        for (int i = 0; i < queryBoxes.size(); i++)
+        {
+            QueryStatistics statistics = new QueryStatistics();
+            assertEquals(rStarTree.getDataInBoundingBox(queryBoxes.get(i), statistics).size(), results.get(i).size());
+            singleQueriesNodesVisited += statistics.getNodesVisited();
+            records += results.get(i).size();
+        }
+        assertEquals(records, batchStatistics.getRecordsReturned());
+        // The root, at least, is visited once for the whole batch
+        assertTrue(batchStatistics.getNodesVisited() < singleQueriesNodesVisited);
+        assertEquals(batchStatistics.getNodesVisited(), batchStatistics.getBlocksFromCache() + batchStatistics.getBlocksFromDisk());
+        assertTrue(batchStatistics.getEntriesTested() > 0);
+        assertTrue(batchStatistics.getPhaseNanos().containsKey("search"));
+    }
+
+    @Test
+    void spatialJoinCollectsStatisticsUntilItIsExhausted() throws IOException {
+        RStarTree rStarTree = RStarTreeDeletionTest.buildTree();
+        helper.saveIndexFileAs(PATH_TO_COPY);
+        try (IndexFileReader copy = new IndexFileReader(PATH_TO_COPY)) {
+            QueryStatistics statistics = new QueryStatistics();
+            SpatialJoinQuery join = rStarTree.getSpatialJoin(copy, 0, statistics);
+            int pairs = 0;
+            while (join.hasNext())
+            {
+                assertEquals(0, statistics.getRecordsReturned(), "The records are only counted once the join is exhausted");
+                join.next();
+                pairs++;
+            }
+            assertFalse(join.hasNext());
+            assertTrue(pairs >= 20_000, "Every record joins at least with itself");
+            assertEquals(pairs, statistics.getRecordsReturned());
+            assertTrue(statistics.getNodesVisited() > 2);
+            assertTrue(statistics.getBlocksFromDisk() > 0, "The nodes of the copy are decoded from its file");
+            assertTrue(statistics.getEntriesTested() > 0);
+        }
+    }
+
+    @Test
+    void batchRangeQueryAndSpatialJoinCommitTheirEvents() throws IOException {
+        RStarTree rStarTree = RStarTreeDeletionTest.buildTree();
+        helper.saveIndexFileAs(PATH_TO_COPY);
+        Path dump = Files.createTempFile("query-events", ".jfr");
+        int batchRecords = 0;
+        int pairs = 0;
+        try (Recording recording = new Recording(); IndexFileReader copy = new IndexFileReader(PATH_TO_COPY)) {
+            recording.enable("spatialtree.Query").withThreshold(Duration.ZERO);
+            recording.start();
+            for (ArrayList<LeafEntry> queryRecords : rStarTree.getDataInBoundingBoxes(List.of(box(0.2, 0.5), box(0.4, 0.8))))
+                batchRecords += queryRecords.size();
+            SpatialJoinQuery join = rStarTree.getSpatialJoin(copy, 0);
+            while (join.hasNext())
+            {
+                join.next();
+                pairs++;
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        long batchEvents = 0;
+        long joinEvents = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump))
+        {
+            if (event.getString("queryType").equals("batchRange"))
+            {
+                batchEvents++;
+                assertEquals(batchRecords, event.getLong("recordsReturned"));
+                assertTrue(event.getLong("nodesVisited") > 0);
+            }
+            else if (event.getString("queryType").equals("join"))
+            {
+                joinEvents++;
+                assertEquals(pairs, event.getLong("recordsReturned"));
+                assertTrue(event.getLong("blocksFromDisk") > 0);
+            }
+        }
+        Files.delete(dump);
+        assertEquals(1, batchEvents);
+        assertEquals(1, joinEvents);
+    }
+
+    private static BoundingBox box(double lower, double upper) {
+        ArrayList<Bounds> bounds = new ArrayList<>();
+        bounds.add(new Bounds(lower, upper));
+        bounds.add(new Bounds(lower, upper));
+        return new BoundingBox(bounds);
+    }
+}
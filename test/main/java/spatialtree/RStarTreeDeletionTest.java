@@ -0,0 +1,74 @@
+package main.java.spatialtree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Deletes most of the records of a tree and checks that condensing the tree keeps its invariants.
+ */
+class RStarTreeDeletionTest {
+    private static final int DIMENSIONS = 2;
+    private static final int RECORDS = 20_000;
+
+    @Test
+    void massDeletionKeepsTheTreeValid() throws IOException {
+        RStarTree rStarTree = buildTree();
+        assertEquals(2, helper.getTotalLevelsOfTreeIndex());
+        ArrayList<LeafEntry> leafEntries = allLeafEntries(rStarTree);
+        Collections.shuffle(leafEntries, new Random(9));
+        TreeSet<Long> remainingIds = new TreeSet<>();
+        for (LeafEntry leafEntry : leafEntries)
+            remainingIds.add(leafEntry.getRecordId());
+
+        // Deleting nine tenths of the records eliminates most of the leaves and reinserts their entries
+        for (LeafEntry leafEntry : leafEntries.subList(0, RECORDS * 9 / 10))
+        {
+            assertTrue(rStarTree.deleteRecord(leafEntry));
+            remainingIds.remove(leafEntry.getRecordId());
+        }
+        assertEquals(remainingIds, TreeInvariants.checkTree(true));
+        assertTrue(helper.getFreeBlocksInIndexFile() > 0, "The blocks of the eliminated leaves were expected to be freed");
+
+        // Deleting a record twice finds nothing
+        assertFalse(rStarTree.deleteRecord(leafEntries.get(0)));
+
+        // Leaving fewer records than a leaf holds shortens the tree down to its root
+        for (LeafEntry leafEntry : leafEntries.subList(RECORDS * 9 / 10, RECORDS - 10))
+        {
+            assertTrue(rStarTree.deleteRecord(leafEntry));
+            remainingIds.remove(leafEntry.getRecordId());
+        }
+        assertEquals(1, helper.getTotalLevelsOfTreeIndex());
+        assertEquals(remainingIds, TreeInvariants.checkTree(true));
+        assertEquals(10, rStarTree.getDataInBoundingBox(unitSquare()).size());
+    }
+
+    /**
+     * Builds a tree of two levels by inserting the records of a new data file.
+     */
+    static RStarTree buildTree() throws IOException {
+        helper.CreateDataFile(SyntheticDataGenerator.generate(RECORDS, DIMENSIONS, SyntheticDataGenerator.Distribution.CLUSTERED, 13), DIMENSIONS, true);
+        helper.CreateIndexFile(DIMENSIONS, true);
+        return new RStarTree(true);
+    }
+
+    static ArrayList<LeafEntry> allLeafEntries(RStarTree rStarTree) {
+        ArrayList<LeafEntry> leafEntries = rStarTree.getDataInBoundingBox(unitSquare());
+        assertEquals(RECORDS, leafEntries.size());
+        return leafEntries;
+    }
+
+    static BoundingBox unitSquare() {
+        ArrayList<Bounds> bounds = new ArrayList<>();
+        for (int d = 0; d < DIMENSIONS; d++)
+            bounds.add(new Bounds(0, 1));
+        return new BoundingBox(bounds);
+    }
+}
@@ -0,0 +1,52 @@
+package main.java.spatialtree;
+
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the invariants of the tree of the index file: every level one below its parent, the bounding box of every entry
+ * the tightest one enclosing its child, no Node over its capacity and every record found once.
+ */
+final class TreeInvariants {
+
+    private TreeInvariants() {
+    }
+
+    /**
+     * Walks the whole tree from the root, checking its invariants.
+     *
+     * @param minimumFill Whether every Node but the root must hold at least the minimum entries too.
+     * @return The record ids of the leaves.
+     */
+    static TreeSet<Long> checkTree(boolean minimumFill) {
+        Node root = helper.readIndexFileBlock(RStarTree.getRootNodeBlockId());
+        assertEquals(helper.getTotalLevelsOfTreeIndex(), root.getLevel(), "The root is not on the top level of the index file");
+        TreeSet<Long> recordIds = new TreeSet<>();
+        checkSubtree(root, true, minimumFill, recordIds);
+        return recordIds;
+    }
+
+    /**
+     * Checks the levels and the bounding boxes of a subtree, collecting the record ids of its leaves.
+     */
+    private static void checkSubtree(Node node, boolean root, boolean minimumFill, TreeSet<Long> recordIds) {
+        assertTrue(node.getEntries().size() <= Node.getMaxEntries(), "Node " + node.getBlockId() + " is over its capacity");
+        if (!root && minimumFill)
+            assertTrue(node.getEntries().size() >= Node.getMinEntries(), "Node " + node.getBlockId() + " has only " + node.getEntries().size() + " entries");
+        if (node.getLevel() == RStarTree.getLeafLevel())
+        {
+            for (Entry entry : node.getEntries())
+                assertTrue(recordIds.add(((LeafEntry) entry).getRecordId()), "Record found twice");
+            return;
+        }
+        for (Entry entry : node.getEntries())
+        {
+            Node child = helper.readIndexFileBlock(entry.getChildNodeBlockId());
+            assertNotNull(child);
+            assertEquals(node.getLevel() - 1, child.getLevel());
+            assertArrayEquals(BoundingBox.enclosing(child.getEntries()).getBoundsArray(), entry.getBoundingBox().getBoundsArray(), "Loose bounding box");
+            checkSubtree(child, false, minimumFill, recordIds);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package main.java.spatialtree;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Crashes the tree while the write-ahead log is enabled and checks that reopening the index file recovers it.
+ * A crash is simulated by reopening the index file, which drops the Nodes of the buffer pool without writing them back,
+ * so the index file is left as it was at the last checkpoint, with the operations committed after it in the log.
+ */
+class WriteAheadLogRecoveryTest {
+    private static final int DIMENSIONS = 2;
+    private static final int BASE_RECORDS = 10;
+    private static final long SEED = 7;
+
+    @AfterEach
+    void disableWriteAheadLog() throws IOException {
+        helper.setRedoHook(null);
+        helper.disableWriteAheadLog();
+    }
+
+    @Test
+    void recoversRootSplitAfterMetaDataFlush() throws IOException {
+        TreeSet<Long> expectedIds = insertUntilRootSplits();
+
+        // E.g. reached from DataFileWriter.close() or updateDataFileRecord, it must not count Nodes only in the buffer pool
+        helper.flushMetaData();
+        FileHeader indexFileHeader = helper.readMetaData(helper.PATH_TO_INDEXFILE);
+        assertNotNull(indexFileHeader);
+        assertEquals(1, indexFileHeader.totalLevels, "The header of the index file was written before a checkpoint");
+
+        helper.CreateIndexFile(DIMENSIONS, false); // Crashing and recovering from the log
+
+        checkRecoveredTree(expectedIds);
+    }
+
+    @Test
+    void recoversAfterCrashDuringRecovery() throws IOException {
+        TreeSet<Long> expectedIds = insertUntilRootSplits();
+        int operations = expectedIds.size() - BASE_RECORDS;
+
+        int[] redoneOperations = new int[1];
+        helper.setRedoHook(() -> {
+            if (++redoneOperations[0] > operations / 2)
+                throw new SimulatedCrash();
+        });
+        helper.CreateIndexFile(DIMENSIONS, false); // Crashing, then crashing again halfway through the recovery
+        assertEquals(operations / 2 + 1, redoneOperations[0], "The recovery was expected to crash halfway");
+
+        helper.setRedoHook(null);
+        helper.CreateIndexFile(DIMENSIONS, false); // Recovering again from the same log
+
+        checkRecoveredTree(expectedIds);
+    }
+
+    /**
+     * Builds a one level tree and inserts records with the write-ahead log enabled until its root splits,
+     * and a few records more into the new level.
+     *
+     * @return The ids of every record of the tree.
+     */
+    private static TreeSet<Long> insertUntilRootSplits() throws IOException {
+        helper.CreateDataFile(SyntheticDataGenerator.generate(BASE_RECORDS, DIMENSIONS, SyntheticDataGenerator.Distribution.UNIFORM, SEED), DIMENSIONS, true);
+        helper.CreateIndexFile(DIMENSIONS, true);
+        // The same seed generates the records of the data file first, the rest are inserted while the log is enabled
+        List<Record> records = SyntheticDataGenerator.generate(BASE_RECORDS + 2 * Node.getMaxEntries(), DIMENSIONS, SyntheticDataGenerator.Distribution.UNIFORM, SEED);
+        RStarTree rStarTree = new RStarTree(true);
+        assertEquals(1, helper.getTotalLevelsOfTreeIndex());
+
+        helper.enableWriteAheadLog(0);
+        TreeSet<Long> expectedIds = new TreeSet<>();
+        for (Record record : records.subList(0, BASE_RECORDS))
+            expectedIds.add(record.getId());
+        int extraRecords = 10;
+        for (Record record : records.subList(BASE_RECORDS, records.size()))
+        {
+            rStarTree.insertRecord(record, 1);
+            expectedIds.add(record.getId());
+            if (helper.getTotalLevelsOfTreeIndex() == 2 && --extraRecords == 0)
+                break;
+        }
+        assertEquals(2, helper.getTotalLevelsOfTreeIndex(), "The root was expected to split");
+        return expectedIds;
+    }
+
+    private static void checkRecoveredTree(TreeSet<Long> expectedIds) {
+        assertEquals(2, helper.getTotalLevelsOfTreeIndex());
+        assertEquals(expectedIds, TreeInvariants.checkTree(false));
+    }
+
+    /**
+     * Thrown by the redo hook in place of a crash of the process.
+     */
+    private static class SimulatedCrash extends RuntimeException {
+        SimulatedCrash() {
+            super("Simulated crash during the recovery");
+        }
+    }
+}